@@ -9,7 +9,22 @@ public record RepositoryConfig(
 
 		@Schema(description = "笔记仓库在本地设备上的存储路径", example = "my_notes/work", requiredMode = Schema.RequiredMode.REQUIRED) String localPath,
 
-		@Schema(description = "用于访问Git仓库的Personal Access Token (PAT)。此Token仅在当前设备本地加密存储，不会通过P2P网络传输。在注册新仓库时提供。", example = "ghp_xxxxxxxxxxxxxxxxxxxx") String token) {
+		@Schema(description = "用于访问Git仓库的Personal Access Token (PAT)。此Token仅在当前设备本地加密存储，不会通过P2P网络传输。在注册新仓库时提供。", example = "ghp_xxxxxxxxxxxxxxxxxxxx") String token,
+
+		@Schema(description = "克隆选项（浅克隆、单分支、部分克隆过滤器），同样作用于之后的拉取。未设置时执行完整克隆。") CloneOptions cloneOptions,
+
+		@Schema(description = "自动提交选项：监听工作区文件变化，在一段安静期后自动提交、推送并通知其他节点同步。未设置时不自动提交。") AutoCommitOptions autoCommit) {
+
+	// 兼容不带克隆选项的旧调用方式
+	public RepositoryConfig(String alias, String gitUrl, String localPath, String token) {
+		this(alias, gitUrl, localPath, token, null, null);
+	}
+
+	// 兼容不带自动提交选项的调用方式
+	public RepositoryConfig(String alias, String gitUrl, String localPath, String token, CloneOptions cloneOptions) {
+		this(alias, gitUrl, localPath, token, cloneOptions, null);
+	}
+
 	public static RepositoryConfig defaultConfig() {
 		// 提供一个示例或空配置
 		return new RepositoryConfig(
@@ -19,4 +34,58 @@ public record RepositoryConfig(
 				"YOUR_GIT_PAT_HERE" // 提醒用户替换
 		);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * 返回替换了克隆选项的新配置
+	 */
+	public RepositoryConfig withCloneOptions(CloneOptions newCloneOptions) {
+		return new RepositoryConfig(alias, gitUrl, localPath, token, newCloneOptions, autoCommit);
+	}
+
+	/**
+	 * 是否为该仓库开启了自动提交
+	 */
+	public boolean autoCommitEnabled() {
+		return autoCommit != null && autoCommit.active();
+	}
+
+	public record CloneOptions(
+			@Schema(description = "浅克隆深度，只获取每个分支最近的N个提交；为空或小于等于0表示完整历史。之后的拉取保留浅克隆边界，只获取新的提交。", example = "1") Integer depth,
+
+			@Schema(description = "是否只克隆单个分支（branch为空时使用远程默认分支）", example = "true") Boolean singleBranch,
+
+			@Schema(description = "要克隆并检出的分支名，为空时使用远程默认分支", example = "main") String branch,
+
+			@Schema(description = "部分克隆过滤器（git的--filter语法，如 blob:limit=1m）。注意：JGit不支持按需补取被过滤掉的对象，检出时需要的blob若被过滤会导致失败，仅适用于远程支持且确实不需要这些blob的场景。", example = "blob:limit=1m") String filter) {
+
+		public boolean shallow() {
+			return depth != null && depth > 0;
+		}
+
+		public boolean singleBranchOnly() {
+			return Boolean.TRUE.equals(singleBranch);
+		}
+
+		public boolean hasBranch() {
+			return branch != null && !branch.isBlank();
+		}
+
+		public boolean hasFilter() {
+			return filter != null && !filter.isBlank();
+		}
+	}
+
+	public record AutoCommitOptions(
+			@Schema(description = "是否开启自动提交", example = "true") Boolean enabled,
+
+			@Schema(description = "最后一次文件变化后的安静期（秒），期间的连续编辑合并为一次提交；为空时使用全局配置", example = "30") Integer quietPeriodSeconds,
+
+			@Schema(description = "自动提交使用的作者名，为空时使用Git配置中的user.name", example = "Puji") String authorName,
+
+			@Schema(description = "自动提交使用的作者邮箱，为空时使用Git配置中的user.email", example = "puji@example.com") String authorEmail) {
+
+		public boolean active() {
+			return Boolean.TRUE.equals(enabled);
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package puji.p2p_notes_sync.config;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+/**
+ * 启用Spring的定时任务支持（用于缓存淘汰、后台维护等周期性任务）
+ */
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+}
@@ -2,16 +2,28 @@ package puji.p2p_notes_sync.controller;
 
 import puji.p2p_notes_sync.config.RepositoryConfig;
 import puji.p2p_notes_sync.p2p.P2PCoordinatorService;
+import puji.p2p_notes_sync.p2p.PeerSyncOutcome;
+import puji.p2p_notes_sync.p2p.PeerSyncReport;
 import puji.p2p_notes_sync.service.ConfigService;
+import puji.p2p_notes_sync.service.GitProgressEvent;
 import puji.p2p_notes_sync.service.GitService;
 import puji.p2p_notes_sync.service.MkDocsService;
+import puji.p2p_notes_sync.service.RepositoryMaintenanceService;
+import puji.p2p_notes_sync.service.RepositoryMaintenanceStatus;
+import puji.p2p_notes_sync.service.RepositorySyncResult;
 import puji.p2p_notes_sync.util.ResponseEntityUtil; // 您创建的工具类
 
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
@@ -36,14 +48,22 @@ public class RepositoryController {
 	private final GitService gitService;
 	private final MkDocsService mkDocsService;
 	private final P2PCoordinatorService p2pCoordinatorService; // P2P服务
+	private final RepositoryMaintenanceService maintenanceService;
+
+	@Value("${p2p.git.sync-all.parallelism:4}") // 批量同步的默认并发数
+	private int defaultSyncParallelism;
+
+	@Value("${p2p.sync.ack-timeout:30s}") // 等待对端同步应答的默认截止时间
+	private Duration defaultAckTimeout;
 
 	@Autowired
 	public RepositoryController(ConfigService configService, GitService gitService, MkDocsService mkDocsService,
-			P2PCoordinatorService p2pCoordinatorService) {
+			P2PCoordinatorService p2pCoordinatorService, RepositoryMaintenanceService maintenanceService) {
 		this.configService = configService;
 		this.gitService = gitService;
 		this.mkDocsService = mkDocsService;
 		this.p2pCoordinatorService = p2pCoordinatorService;
+		this.maintenanceService = maintenanceService;
 	}
 
 	@Operation(summary = "获取所有已配置的笔记仓库列表", description = "返回一个包含所有已注册笔记仓库配置的列表。")
@@ -167,6 +187,58 @@ public class RepositoryController {
 						.body("Repository with alias '" + repoAlias + "' not found."));
 	}
 
+	@Operation(summary = "请求其他节点同步指定仓库并等待应答", description = "向所有连接的节点广播同步请求（使用Git URL，各节点上的别名可能不同），等到收到`acks`个成功应答或到达截止时间后返回各节点的同步结果和端到端耗时。只有持有该仓库并已同步（或本来就是最新）的节点算作成功应答，未配置该仓库的节点返回的SKIPPED单独计数。可用于在部署前确认其他节点已经拉取了最新提交。")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "在截止时间前收到了足够的成功应答", content = @Content(mediaType = "application/json", schema = @Schema(implementation = PeerSyncReport.class))),
+			@ApiResponse(responseCode = "504", description = "截止时间已到，成功应答不足，返回已收到的应答", content = @Content(mediaType = "application/json", schema = @Schema(implementation = PeerSyncReport.class))),
+			@ApiResponse(responseCode = "404", description = "未找到具有指定别名的仓库", content = @Content)
+	})
+	@PostMapping("/{repoAlias}/sync/peers")
+	public Mono<ResponseEntity<PeerSyncReport>> syncPeers(
+			@Parameter(description = "要同步的仓库别名", required = true, example = "my-work-notes") @PathVariable String repoAlias,
+			@Parameter(description = "需要的成功应答数，未指定时为当前连接的节点数", example = "2") @RequestParam(required = false) Integer acks,
+			@Parameter(description = "最长等待秒数，未指定时使用配置 p2p.sync.ack-timeout", example = "30") @RequestParam(required = false) Integer timeoutSeconds) {
+		int requiredAcks = (acks != null && acks >= 0) ? acks : p2pCoordinatorService.connectedPeerCount();
+		Duration timeout = (timeoutSeconds != null && timeoutSeconds > 0) ? Duration.ofSeconds(timeoutSeconds)
+				: defaultAckTimeout;
+		return Mono.justOrEmpty(configService.getRepositoryConfigByAlias(repoAlias))
+				.flatMap(config -> {
+					if (requiredAcks == 0) {
+						// 不需要等待：只发送请求
+						p2pCoordinatorService.broadcastSyncRequest(config.gitUrl());
+						return Mono.just(ResponseEntity.ok(new PeerSyncReport(config.gitUrl(), 0, 0, 0, true, List.of())));
+					}
+					int[] successes = new int[1];
+					return p2pCoordinatorService.requestSyncWithAcks(config.gitUrl(), timeout)
+							.takeUntil(outcome -> outcome.acknowledged() && ++successes[0] >= requiredAcks)
+							.collectList()
+							.map(outcomes -> {
+								int successful = (int) outcomes.stream().filter(PeerSyncOutcome::acknowledged).count();
+								int skipped = (int) outcomes.stream().filter(PeerSyncOutcome::skipped).count();
+								boolean complete = successful >= requiredAcks;
+								return ResponseEntity.status(complete ? HttpStatus.OK : HttpStatus.GATEWAY_TIMEOUT)
+										.body(new PeerSyncReport(config.gitUrl(), requiredAcks, successful, skipped,
+												complete, outcomes));
+							});
+				})
+				.defaultIfEmpty(ResponseEntityUtil.<PeerSyncReport>notFound());
+	}
+
+	@Operation(summary = "并行同步所有笔记仓库", description = "以有限并发对所有已配置的仓库执行`git pull`（本地不存在时先克隆）。每个仓库完成后立即以NDJSON（默认）或SSE（`Accept: text/event-stream`）返回其结果，而不是等待最慢的仓库。")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "按完成顺序流式返回各仓库的同步结果", content = {
+					@Content(mediaType = MediaType.APPLICATION_NDJSON_VALUE, schema = @Schema(implementation = RepositorySyncResult.class)),
+					@Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = RepositorySyncResult.class)) })
+	})
+	@PostMapping(value = "/sync-all", produces = { MediaType.APPLICATION_NDJSON_VALUE,
+			MediaType.TEXT_EVENT_STREAM_VALUE })
+	public Flux<RepositorySyncResult> syncAllRepositories(
+			@Parameter(description = "同时进行的最大拉取数，未指定时使用配置 p2p.git.sync-all.parallelism", example = "4") @RequestParam(required = false) Integer parallelism) {
+		int effectiveParallelism = (parallelism != null && parallelism > 0) ? parallelism : defaultSyncParallelism;
+		return Flux.defer(() -> gitService.pullRepositories(configService.getAllRepositoryConfigs(),
+				effectiveParallelism));
+	}
+
 	// clone, deploy 端点也可以用类似方式添加 @Operation, @Parameter, @ApiResponses
 
 	@Operation(summary = "克隆指定的笔记仓库到本地", description = "如果本地尚不存在该仓库的副本，则从远程URL克隆。")
@@ -227,6 +299,94 @@ public class RepositoryController {
 						.body("Repository with alias '" + repoAlias + "' not found."));
 	}
 
+	@Operation(summary = "同步指定仓库并通过SSE推送进度", description = "与`/sync`相同，但以Server-Sent Events流式返回JGit进度（任务名、已完成工作量、百分比），最后一个`result`事件包含操作结果。如果本次请求被合并进同一仓库已排队的pull，则只会收到`result`事件。")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "进度事件流", content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = GitProgressEvent.class))),
+			@ApiResponse(responseCode = "404", description = "未找到具有指定别名的仓库", content = @Content)
+	})
+	@PostMapping(value = "/{repoAlias}/sync/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Mono<ResponseEntity<Flux<ServerSentEvent<GitProgressEvent>>>> syncRepositoryWithProgress(
+			@Parameter(description = "要同步的仓库别名", required = true, example = "my-work-notes") @PathVariable String repoAlias) {
+		return Mono.justOrEmpty(configService.getRepositoryConfigByAlias(repoAlias))
+				.map(config -> ResponseEntity.ok(toServerSentEvents(gitService.pullWithProgress(config))))
+				.defaultIfEmpty(ResponseEntityUtil.<Flux<ServerSentEvent<GitProgressEvent>>>notFound());
+	}
+
+	@Operation(summary = "克隆指定仓库并通过SSE推送进度", description = "与`/clone`相同，但以Server-Sent Events流式返回JGit进度，最后一个`result`事件包含操作结果。")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "进度事件流", content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = GitProgressEvent.class))),
+			@ApiResponse(responseCode = "400", description = "仓库配置中Git URL缺失", content = @Content),
+			@ApiResponse(responseCode = "404", description = "未找到仓库配置", content = @Content)
+	})
+	@PostMapping(value = "/{repoAlias}/clone/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Mono<ResponseEntity<Flux<ServerSentEvent<GitProgressEvent>>>> cloneRepositoryWithProgress(
+			@Parameter(description = "要克隆的仓库别名", required = true, example = "new-project-notes") @PathVariable String repoAlias) {
+		return Mono.justOrEmpty(configService.getRepositoryConfigByAlias(repoAlias))
+				.map(config -> {
+					if (config.gitUrl() == null || config.gitUrl().isBlank()) {
+						return ResponseEntityUtil.<Flux<ServerSentEvent<GitProgressEvent>>>badRequest();
+					}
+					return ResponseEntity.ok(toServerSentEvents(gitService.cloneWithProgress(config)));
+				})
+				.defaultIfEmpty(ResponseEntityUtil.<Flux<ServerSentEvent<GitProgressEvent>>>notFound());
+	}
+
+	@Operation(summary = "提交并推送指定仓库的本地更改，并通过SSE推送进度", description = "与`/commit-push`相同，但以Server-Sent Events流式返回推送进度，最后一个`result`事件包含操作结果。")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "进度事件流", content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE, schema = @Schema(implementation = GitProgressEvent.class))),
+			@ApiResponse(responseCode = "400", description = "请求体无效（例如缺少提交信息）", content = @Content),
+			@ApiResponse(responseCode = "404", description = "未找到具有指定别名的仓库", content = @Content)
+	})
+	@PostMapping(value = "/{repoAlias}/commit-push/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Mono<ResponseEntity<Flux<ServerSentEvent<GitProgressEvent>>>> commitAndPushRepositoryWithProgress(
+			@Parameter(description = "要操作的仓库别名", required = true, example = "my-work-notes") @PathVariable String repoAlias,
+			@RequestBody(description = "包含提交信息的请求体，格式与`/commit-push`相同", required = true, content = @Content(schema = @Schema(type = "object", example = "{\"commitMessage\": \"My daily updates\"}"))) @org.springframework.web.bind.annotation.RequestBody Map<String, String> payload) {
+		String commitMessage = payload.get("commitMessage");
+		if (commitMessage == null || commitMessage.isBlank()) {
+			return Mono.just(ResponseEntityUtil.<Flux<ServerSentEvent<GitProgressEvent>>>badRequest());
+		}
+		return Mono.justOrEmpty(configService.getRepositoryConfigByAlias(repoAlias))
+				.map(config -> ResponseEntity.ok(toServerSentEvents(gitService.addCommitAndPushWithProgress(config,
+						commitMessage, payload.get("authorName"), payload.get("authorEmail")))))
+				.defaultIfEmpty(ResponseEntityUtil.<Flux<ServerSentEvent<GitProgressEvent>>>notFound());
+	}
+
+	private static Flux<ServerSentEvent<GitProgressEvent>> toServerSentEvents(Flux<GitProgressEvent> events) {
+		return events.map(event -> ServerSentEvent.builder(event)
+				.event(event.type().name().toLowerCase(Locale.ROOT))
+				.build());
+	}
+
+	@Operation(summary = "获取指定仓库的维护状态", description = "返回最近一次后台维护（gc）的时间、耗时和结果，以及当前的松散对象数、pack文件数和大小等对象库统计。")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "成功获取维护状态", content = @Content(mediaType = "application/json", schema = @Schema(implementation = RepositoryMaintenanceStatus.class))),
+			@ApiResponse(responseCode = "404", description = "未找到具有指定别名的仓库", content = @Content)
+	})
+	@GetMapping("/{repoAlias}/maintenance")
+	public Mono<ResponseEntity<RepositoryMaintenanceStatus>> getMaintenanceStatus(
+			@Parameter(description = "仓库别名", required = true, example = "my-work-notes") @PathVariable String repoAlias) {
+		return Mono.justOrEmpty(configService.getRepositoryConfigByAlias(repoAlias))
+				.flatMap(config -> Mono.fromCallable(() -> maintenanceService.getStatus(config))
+						.subscribeOn(Schedulers.boundedElastic())
+						.map(ResponseEntity::ok))
+				.defaultIfEmpty(ResponseEntityUtil.<RepositoryMaintenanceStatus>notFound());
+	}
+
+	@Operation(summary = "立即维护指定仓库", description = "立即对仓库运行gc（合并松散对象和pack，写入bitmap与commit-graph），不受空闲时间和最小间隔限制，但仍与该仓库的同步操作排队互斥。")
+	@ApiResponses(value = {
+			@ApiResponse(responseCode = "200", description = "维护完成，返回维护后的状态", content = @Content(mediaType = "application/json", schema = @Schema(implementation = RepositoryMaintenanceStatus.class))),
+			@ApiResponse(responseCode = "404", description = "未找到具有指定别名的仓库", content = @Content)
+	})
+	@PostMapping("/{repoAlias}/maintenance")
+	public Mono<ResponseEntity<RepositoryMaintenanceStatus>> runMaintenance(
+			@Parameter(description = "仓库别名", required = true, example = "my-work-notes") @PathVariable String repoAlias) {
+		return Mono.justOrEmpty(configService.getRepositoryConfigByAlias(repoAlias))
+				.flatMap(config -> Mono.fromCallable(() -> maintenanceService.runMaintenance(config))
+						.subscribeOn(Schedulers.boundedElastic())
+						.map(ResponseEntity::ok))
+				.defaultIfEmpty(ResponseEntityUtil.<RepositoryMaintenanceStatus>notFound());
+	}
+
 	@Operation(summary = "将指定仓库部署为MkDocs静态网站", description = "使用MkDocs构建指定笔记仓库的内容，并使其可通过特定URL访问。")
 	@ApiResponses(value = {
 			@ApiResponse(responseCode = "200", description = "MkDocs站点构建成功，返回相关信息或访问URL", content = @Content(mediaType = "text/plain")),
@@ -0,0 +1,114 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+import puji.p2p_notes_sync.p2p.dto.CommitHeadAnnouncement;
+import puji.p2p_notes_sync.service.ConfigService;
+import puji.p2p_notes_sync.service.GitOperationResult;
+import puji.p2p_notes_sync.service.GitService;
+import puji.p2p_notes_sync.service.GitUrls;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 处理其他节点的提交通告 (COMMIT_HEAD)：本地分支已包含通告的提交时跳过pull，否则拉取。
+ * <p>
+ * 通告与同一对端的其他仓库消息一样经 {@link InboundDispatcher} 在仓库通道中按顺序处理，
+ * 不会越过之前添加该仓库的配置通知，也受入站并发上限的约束。
+ * <p>
+ * 每个仓库分支只保留最新的一条通告：通道中排在前面（例如等待一次较慢的pull）的旧通告轮到时，
+ * 如果已经有更新的通告在排队就直接跳过，由更新的通告在它自己的位置上处理。
+ * 多个设备连续编辑同一仓库时只需要一次pull，之后的通告通常因为本地已有提交而直接跳过。
+ */
+@Component
+public class CommitHeadSync {
+
+	private static final Logger logger = LoggerFactory.getLogger(CommitHeadSync.class);
+
+	private final ConfigService configService;
+	private final GitService gitService;
+	private final Counter pulled;
+	private final Counter skipped;
+	private final Counter superseded;
+
+	// 仓库URL|分支 -> 排队中的最新通告
+	private final Map<String, CommitHeadAnnouncement> latest = new ConcurrentHashMap<>();
+
+	public CommitHeadSync(ConfigService configService, GitService gitService, MeterRegistry meterRegistry) {
+		this.configService = configService;
+		this.gitService = gitService;
+		this.pulled = counter(meterRegistry, "pulled");
+		this.skipped = counter(meterRegistry, "skipped");
+		this.superseded = counter(meterRegistry, "superseded");
+	}
+
+	private static Counter counter(MeterRegistry meterRegistry, String result) {
+		return Counter.builder("p2p.commit-head.announcements").tag("result", result)
+				.description("Commit head announcements received from peers, by outcome")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * 记录收到的通告，返回处理它的任务，由调用方提交到仓库的入站通道
+	 *
+	 * @return 通告不完整时返回null
+	 */
+	public Runnable onAnnouncement(CommitHeadAnnouncement announcement) {
+		if (announcement.getRepoUrl() == null || announcement.getBranch() == null
+				|| announcement.getCommitId() == null) {
+			logger.warn("P2P: Ignoring incomplete commit head announcement {}", announcement);
+			return null;
+		}
+		String key = GitUrls.normalize(announcement.getRepoUrl()) + "|" + announcement.getBranch();
+		latest.merge(key, announcement, (pending, arrived) -> {
+			// 已有一条在排队：只保留较新的那条
+			superseded.increment();
+			return isOlder(arrived, pending) ? pending : arrived;
+		});
+		return () -> process(key, announcement);
+	}
+
+	private void process(String key, CommitHeadAnnouncement announcement) {
+		// 之后到达了更新的通告（由它自己的任务处理），或者这条是迟到的旧通告
+		if (!latest.remove(key, announcement)) {
+			return;
+		}
+		apply(announcement);
+	}
+
+	private void apply(CommitHeadAnnouncement announcement) {
+		// 只按URL匹配：别名相同但URL不同的是另一个仓库；同一URL可能被克隆到多个本地路径
+		List<RepositoryConfig> configs = configService.getRepositoryConfigsByGitUrl(announcement.getRepoUrl());
+		if (configs.isEmpty()) {
+			logger.debug("P2P: Commit head announcement for unknown repository {}", announcement.getRepoUrl());
+		}
+		for (RepositoryConfig config : configs) {
+			if (gitService.containsCommit(config, announcement.getBranch(), announcement.getCommitId())) {
+				skipped.increment();
+				logger.info("P2P: Repository '{}' already contains {} on {}. Skipping pull.", config.alias(),
+						abbreviate(announcement.getCommitId()), announcement.getBranch());
+				continue;
+			}
+			pulled.increment();
+			logger.info("P2P: Repository '{}' is behind {} on {}. Pulling.", config.alias(),
+					abbreviate(announcement.getCommitId()), announcement.getBranch());
+			GitOperationResult result = gitService.pull(config);
+			logger.info("P2P: Pull of '{}' after commit head announcement: {}", config.alias(), result.message());
+		}
+	}
+
+	private static boolean isOlder(CommitHeadAnnouncement candidate, CommitHeadAnnouncement pending) {
+		return candidate.getTimestamp() != null && pending.getTimestamp() != null
+				&& candidate.getTimestamp() < pending.getTimestamp();
+	}
+
+	private static String abbreviate(String commitId) {
+		return commitId.length() > 7 ? commitId.substring(0, 7) : commitId;
+	}
+}
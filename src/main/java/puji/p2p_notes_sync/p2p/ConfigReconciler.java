@@ -0,0 +1,393 @@
+package puji.p2p_notes_sync.p2p;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.stereotype.Component;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+import puji.p2p_notes_sync.p2p.dto.ConfigDigest;
+import puji.p2p_notes_sync.p2p.dto.ConfigEntries;
+import puji.p2p_notes_sync.service.ConfigService;
+import puji.p2p_notes_sync.service.RepositoryConfigChangedEvent;
+import puji.p2p_notes_sync.util.WriteBehindFile;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+/**
+ * 仓库配置的反熵（anti-entropy）对账。
+ * <p>
+ * CONFIG_REPO通知只在发生变更时实时发送，离线的节点会永久错过。这里为每个仓库别名记录一个带版本的条目
+ * （包括删除后留下的tombstone，避免被删除的仓库又被对端加回来），连接建立后和定期与对端交换摘要：
+ * <ol>
+ * <li>一方发送 {@link ConfigDigest}（每个条目的内容哈希和版本，以及整体的rootHash）；</li>
+ * <li>对方rootHash相同则结束，否则回复 {@link ConfigEntries}：本地较新的条目，以及需要对方回传的键；</li>
+ * <li>发起方回传被请求的条目。</li>
+ * </ol>
+ * 只传输有差异的条目，对账的开销取决于差异的数量而不是仓库总数。同一条目两端不同时版本较大者生效，
+ * 版本相同时按内容哈希确定，所有节点得出相同的结果。
+ */
+@Component
+public class ConfigReconciler {
+
+	private static final Logger logger = LoggerFactory.getLogger(ConfigReconciler.class);
+	private static final String VERSIONS_FILE_NAME = "config_versions.json";
+
+	/**
+	 * 持久化的条目
+	 *
+	 * @param alias   仓库别名（保留原始大小写）
+	 * @param gitUrl  仓库URL，tombstone为null
+	 * @param version 版本：本地修改时取当前时间毫秒数（且大于之前的所有版本）
+	 * @param removed 是否为tombstone
+	 */
+	record VersionedEntry(String alias, String gitUrl, long version, boolean removed) {
+
+		String key() {
+			return keyOf(alias);
+		}
+
+		long hash() {
+			return contentHash(key(), removed ? null : gitUrl);
+		}
+
+		/**
+		 * 是否比另一个条目新：版本较大者为新，版本相同时按内容哈希比较
+		 */
+		boolean newerThan(long otherVersion, long otherHash) {
+			return version != otherVersion ? version > otherVersion : hash() > otherHash;
+		}
+	}
+
+	private final ConfigService configService;
+	// 延迟、合并、原子地写入 config_versions.json（与仓库配置文件相同的方式）：
+	// 条目在配置变更事件中更新，写盘不在持有ConfigService锁的线程上进行
+	private final WriteBehindFile<List<VersionedEntry>> versionsWriter;
+	private final Path versionsFile;
+	private final long tombstoneRetentionMillis;
+	private final LongSupplier clock;
+	private final ObjectMapper objectMapper;
+	private final Counter entriesSent;
+	private final Counter entriesApplied;
+
+	// 键（小写别名） -> 条目，由this同步
+	private final Map<String, VersionedEntry> entries = new TreeMap<>();
+	private long lastVersion;
+	// 最近一次修改后的条目副本，由写入线程读取
+	private volatile List<VersionedEntry> savedEntries = List.of();
+
+	@Autowired
+	public ConfigReconciler(ConfigService configService, MeterRegistry meterRegistry,
+			@Value("${p2p.anti-entropy.tombstone-retention:30d}") Duration tombstoneRetention,
+			@Value("${p2p.config.write-delay:200ms}") Duration writeDelay,
+			@Value("${p2p.data-dir:data}") String dataDir) {
+		this(configService, meterRegistry, tombstoneRetention, writeDelay,
+				Paths.get("").toAbsolutePath().resolve(dataDir).resolve(VERSIONS_FILE_NAME),
+				System::currentTimeMillis);
+	}
+
+	ConfigReconciler(ConfigService configService, MeterRegistry meterRegistry, Duration tombstoneRetention,
+			Duration writeDelay, Path versionsFile, LongSupplier clock) {
+		this.configService = configService;
+		this.versionsFile = versionsFile;
+		this.tombstoneRetentionMillis = tombstoneRetention.toMillis();
+		this.clock = clock;
+		this.objectMapper = new ObjectMapper();
+		this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+		this.versionsWriter = new WriteBehindFile<>(versionsFile, writeDelay, "config-versions-writer",
+				() -> savedEntries, objectMapper::writeValueAsBytes);
+		this.entriesSent = Counter.builder("p2p.anti-entropy.entries").tag("direction", "sent")
+				.description("Repository config entries transferred during anti-entropy reconciliation")
+				.register(meterRegistry);
+		this.entriesApplied = Counter.builder("p2p.anti-entropy.entries").tag("direction", "applied")
+				.description("Repository config entries transferred during anti-entropy reconciliation")
+				.register(meterRegistry);
+	}
+
+	@PostConstruct
+	public synchronized void init() {
+		if (Files.exists(versionsFile)) {
+			try {
+				List<VersionedEntry> loaded = objectMapper.readValue(versionsFile.toFile(),
+						new TypeReference<List<VersionedEntry>>() {
+						});
+				loaded.forEach(entry -> {
+					entries.put(entry.key(), entry);
+					lastVersion = Math.max(lastVersion, entry.version());
+				});
+			} catch (IOException e) {
+				logger.error("Error loading config versions from {}: {}", versionsFile, e.getMessage(), e);
+			}
+		}
+		// 配置文件是本地的事实来源：补上没有版本的仓库（版本0，任何对端的修改都比它新），
+		// 丢弃配置文件中已不存在的条目（让对端重新同步，而不是把它当作删除传播出去）
+		Set<String> present = new HashSet<>();
+		boolean changed = false;
+		for (RepositoryConfig config : configService.getAllRepositoryConfigs()) {
+			String key = keyOf(config.alias());
+			present.add(key);
+			VersionedEntry entry = entries.get(key);
+			if (entry == null || entry.removed() || !config.gitUrl().equals(entry.gitUrl())) {
+				entries.put(key, new VersionedEntry(config.alias(), config.gitUrl(), entry == null ? 0 : nextVersion(),
+						false));
+				changed = true;
+			}
+		}
+		changed |= entries.values().removeIf(entry -> !entry.removed() && !present.contains(entry.key()));
+		savedEntries = List.copyOf(entries.values());
+		if (changed) {
+			versionsWriter.schedule();
+		} else {
+			versionsWriter.markPersisted(savedEntries);
+		}
+	}
+
+	/**
+	 * 立即写入尚未保存的条目
+	 */
+	public void flush() {
+		versionsWriter.flush();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		versionsWriter.close();
+	}
+
+	/**
+	 * 本地配置变更（包括对账和CONFIG_REPO通知引起的变更）时更新条目版本。
+	 * 内容与已记录的条目相同时保留原版本。应用对端条目引起的变更在这里先得到一个本地版本，
+	 * 随后由 {@link #recordApplied} 换成对端的版本。
+	 * 先于其他监听器执行，它们（如mDNS TXT记录）读取到的摘要已包含这次变更。
+	 */
+	@EventListener
+	@Order(Ordered.HIGHEST_PRECEDENCE)
+	public synchronized void onRepositoryConfigChanged(RepositoryConfigChangedEvent event) {
+		RepositoryConfig previous = event.previous();
+		RepositoryConfig current = event.current();
+		if (previous != null && (current == null || !keyOf(previous.alias()).equals(keyOf(current.alias())))) {
+			record(previous.alias(), null, true);
+		}
+		if (current != null) {
+			record(current.alias(), current.gitUrl(), false);
+		}
+	}
+
+	/**
+	 * 本地配置集合的摘要
+	 */
+	public synchronized ConfigDigest digest() {
+		pruneTombstones();
+		List<ConfigDigest.Entry> digestEntries = new ArrayList<>(entries.size());
+		entries.values().forEach(entry -> digestEntries.add(
+				new ConfigDigest.Entry(entry.key(), entry.hash(), entry.version())));
+		return new ConfigDigest(rootHash(), digestEntries);
+	}
+
+	/**
+	 * 处理对端的摘要。
+	 *
+	 * @return 需要回复对端的条目和请求，两端一致时返回null
+	 */
+	public synchronized ConfigEntries onDigest(ConfigDigest remote) {
+		if (rootHash().equals(remote.getRootHash())) {
+			return null;
+		}
+		Map<String, ConfigDigest.Entry> remoteEntries = new HashMap<>();
+		if (remote.getEntries() != null) {
+			remote.getEntries().forEach(entry -> remoteEntries.put(entry.key(), entry));
+		}
+		List<ConfigEntries.Entry> newer = new ArrayList<>();
+		List<String> wanted = new ArrayList<>();
+		for (VersionedEntry local : entries.values()) {
+			ConfigDigest.Entry other = remoteEntries.remove(local.key());
+			if (other == null) {
+				newer.add(toWire(local));
+			} else if (other.hash() != local.hash()) {
+				if (local.newerThan(other.version(), other.hash())) {
+					newer.add(toWire(local));
+				} else {
+					wanted.add(other.key());
+				}
+			}
+		}
+		// 只有对端有的条目
+		wanted.addAll(remoteEntries.keySet());
+		if (newer.isEmpty() && wanted.isEmpty()) {
+			return null;
+		}
+		entriesSent.increment(newer.size());
+		return new ConfigEntries(newer, wanted);
+	}
+
+	/**
+	 * 对端请求的条目
+	 */
+	public synchronized List<ConfigEntries.Entry> entriesFor(List<String> keys) {
+		List<ConfigEntries.Entry> result = new ArrayList<>();
+		for (String key : keys) {
+			VersionedEntry entry = entries.get(key);
+			if (entry != null) {
+				result.add(toWire(entry));
+			}
+		}
+		entriesSent.increment(result.size());
+		return result;
+	}
+
+	/**
+	 * 找出对端发来的条目中比本地新的那些，由调用方应用到本地配置，成功后再调用 {@link #recordApplied}。
+	 * 这里不记录版本：应用可能失败（例如别名或路径冲突），失败时本地摘要不能声称已经包含了这个条目，
+	 * 否则对账会认为两端一致而永远不再修复。
+	 */
+	public synchronized List<ConfigEntries.Entry> accept(List<ConfigEntries.Entry> remoteEntries) {
+		List<ConfigEntries.Entry> toApply = new ArrayList<>();
+		if (remoteEntries == null) {
+			return toApply;
+		}
+		for (ConfigEntries.Entry remote : remoteEntries) {
+			if (remote.alias() == null || remote.alias().isBlank() || (!remote.removed() && remote.gitUrl() == null)) {
+				continue;
+			}
+			VersionedEntry candidate = toVersioned(remote);
+			VersionedEntry local = entries.get(candidate.key());
+			if (local == null || candidate.newerThan(local.version(), local.hash())) {
+				toApply.add(remote);
+			}
+		}
+		return toApply;
+	}
+
+	/**
+	 * 对端条目应用之后调用：只有本地配置确实与条目一致时才记录它的版本。
+	 * 应用引起的配置变更事件已经为相同的内容生成了一个本地版本，这里用对端的版本替换它，两端的版本保持一致。
+	 *
+	 * @return 是否已记录
+	 */
+	public synchronized boolean recordApplied(ConfigEntries.Entry applied) {
+		Optional<RepositoryConfig> current = configService.getRepositoryConfigByAlias(applied.alias());
+		boolean matches = applied.removed() ? current.isEmpty()
+				: current.isPresent() && applied.gitUrl().equals(current.get().gitUrl());
+		if (!matches) {
+			logger.warn("P2P: Config entry '{}' from a peer was not applied locally, not recording version {}",
+					applied.alias(), applied.version());
+			return false;
+		}
+		VersionedEntry candidate = toVersioned(applied);
+		VersionedEntry local = entries.get(candidate.key());
+		if (local != null && local.hash() != candidate.hash()
+				&& !candidate.newerThan(local.version(), local.hash())) {
+			return false; // 应用期间本地又有了更新的修改
+		}
+		entries.put(candidate.key(), candidate);
+		lastVersion = Math.max(lastVersion, candidate.version());
+		entriesApplied.increment();
+		save();
+		return true;
+	}
+
+	private void record(String alias, String gitUrl, boolean removed) {
+		String key = keyOf(alias);
+		VersionedEntry existing = entries.get(key);
+		if (existing != null && existing.removed() == removed
+				&& (removed || gitUrl.equals(existing.gitUrl()))) {
+			return;
+		}
+		entries.put(key, new VersionedEntry(alias, gitUrl, nextVersion(), removed));
+		save();
+	}
+
+	private long nextVersion() {
+		lastVersion = Math.max(lastVersion + 1, clock.getAsLong());
+		return lastVersion;
+	}
+
+	private void pruneTombstones() {
+		long cutoff = clock.getAsLong() - tombstoneRetentionMillis;
+		if (entries.values().removeIf(entry -> entry.removed() && entry.version() < cutoff)) {
+			save();
+		}
+	}
+
+	/**
+	 * 按键排序的所有条目内容的哈希（不含版本，内容相同而版本不同的条目不需要传输）。
+	 * 两个节点的rootHash相同即配置一致，也通过mDNS TXT记录公布。
+	 */
+	public synchronized String rootHash() {
+		MessageDigest digest = sha256();
+		ByteBuffer buffer = ByteBuffer.allocate(Long.BYTES);
+		for (VersionedEntry entry : entries.values()) {
+			digest.update(buffer.clear().putLong(entry.hash()).array());
+		}
+		return HexFormat.of().formatHex(digest.digest(), 0, 16);
+	}
+
+	/**
+	 * 发布条目的副本并安排延迟写盘，由this同步
+	 */
+	private void save() {
+		savedEntries = List.copyOf(entries.values());
+		versionsWriter.schedule();
+	}
+
+	private static VersionedEntry toVersioned(ConfigEntries.Entry entry) {
+		return new VersionedEntry(entry.alias(), entry.removed() ? null : entry.gitUrl(), entry.version(),
+				entry.removed());
+	}
+
+	private static ConfigEntries.Entry toWire(VersionedEntry entry) {
+		return new ConfigEntries.Entry(entry.alias(), entry.gitUrl(), entry.version(), entry.removed());
+	}
+
+	static String keyOf(String alias) {
+		return alias.toLowerCase(Locale.ROOT);
+	}
+
+	static long contentHash(String key, String gitUrl) {
+		MessageDigest digest = sha256();
+		digest.update(key.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		if (gitUrl != null) {
+			digest.update(gitUrl.getBytes(StandardCharsets.UTF_8));
+		}
+		return ByteBuffer.wrap(digest.digest()).getLong();
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 not available", e);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package puji.p2p_notes_sync.p2p;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import puji.p2p_notes_sync.p2p.dto.P2PMessage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+
+/**
+ * gossip模式的转发规则。
+ * <p>
+ * 默认（全连接模式）每个节点连接所有发现的节点并把消息发给所有连接，连接数和流量随节点数按O(N²)增长。
+ * gossip模式下每个节点只主动连接一个有上限的随机子集（active view），发起节点把消息发给所有已连接的对端，
+ * 收到者在第一次收到某条消息时把它转发给 fanout 个随机对端（不包括发来的那个），每转发一跳TTL减1。
+ * 重复收到的消息由 {@link MessageDeduplicator} 在转发之前丢弃。
+ */
+@Component
+public class GossipRouter {
+
+	private final boolean enabled;
+	private final int activeViewSize;
+	private final int fanout;
+	private final int ttl;
+	private final Random random;
+
+	@Autowired
+	public GossipRouter(@Value("${p2p.gossip.enabled:false}") boolean enabled,
+			@Value("${p2p.gossip.active-view-size:5}") int activeViewSize,
+			@Value("${p2p.gossip.fanout:5}") int fanout,
+			@Value("${p2p.gossip.ttl:8}") int ttl) {
+		this(enabled, activeViewSize, fanout, ttl, new Random());
+	}
+
+	GossipRouter(boolean enabled, int activeViewSize, int fanout, int ttl, Random random) {
+		this.enabled = enabled;
+		this.activeViewSize = Math.max(1, activeViewSize);
+		this.fanout = Math.max(1, fanout);
+		this.ttl = Math.max(1, ttl);
+		this.random = random;
+	}
+
+	public boolean enabled() {
+		return enabled;
+	}
+
+	/**
+	 * 本节点最多主动连接的对端数量
+	 */
+	public int activeViewSize() {
+		return activeViewSize;
+	}
+
+	/**
+	 * 为本节点发起的消息设置初始TTL
+	 */
+	public void stampOrigin(P2PMessage message) {
+		message.setTtl(ttl);
+	}
+
+	/**
+	 * 如果消息还需要继续转发，把TTL减1并返回true
+	 */
+	public boolean prepareForward(P2PMessage message) {
+		Integer remaining = message.getTtl();
+		if (!enabled || message.getMessageId() == null || remaining == null || remaining <= 1) {
+			return false;
+		}
+		message.setTtl(remaining - 1);
+		return true;
+	}
+
+	/**
+	 * 从候选对端中随机选出最多 fanout 个，排除消息的来源
+	 */
+	public <T> List<T> selectForwardTargets(Collection<T> candidates, T source) {
+		List<T> pool = new ArrayList<>(candidates.size());
+		for (T candidate : candidates) {
+			if (!Objects.equals(candidate, source)) {
+				pool.add(candidate);
+			}
+		}
+		return sample(pool, fanout);
+	}
+
+	/**
+	 * 从候选项中随机选出最多 count 个（部分Fisher-Yates洗牌），用于转发和补充active view
+	 */
+	public <T> List<T> sample(List<T> pool, int count) {
+		List<T> copy = new ArrayList<>(pool);
+		int n = Math.min(count, copy.size());
+		synchronized (random) {
+			for (int i = 0; i < n; i++) {
+				int j = i + random.nextInt(copy.size() - i);
+				T tmp = copy.get(i);
+				copy.set(i, copy.get(j));
+				copy.set(j, tmp);
+			}
+		}
+		return new ArrayList<>(copy.subList(0, n));
+	}
+}
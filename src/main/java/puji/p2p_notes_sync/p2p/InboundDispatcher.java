@@ -0,0 +1,272 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 入站P2P消息的有界处理队列，代替为每一帧单独调度一个boundedElastic任务。
+ * <p>
+ * 每条消息属于一个或多个通道（lane，例如某个仓库或整个配置）：同一通道内的消息按提交顺序逐条处理，
+ * 属于多个通道的消息要等它在每个通道中都排到最前面才开始，因此和每个通道中前后的消息都保持顺序；
+ * 没有共同通道的消息之间最多并行 concurrency 条。{@link #submit} 返回的Mono在消息被接收入队后才完成，
+ * 入站流用concatMap逐条提交，因此：
+ * <ul>
+ * <li>同一对端发来的、有共同通道的消息保持到达顺序（例如添加仓库的配置通知和之后对该仓库的同步请求）；</li>
+ * <li>已入队的消息总数或某个对端的消息数达到上限时，该对端的 session.receive() 停止请求数据，
+ * 由TCP反压给发送方，而不是无限缓冲；</li>
+ * <li>等待超过 admission-timeout 仍无法入队的消息被丢弃并计数（配置变更由反熵对账补上）。</li>
+ * </ul>
+ */
+@Component
+public class InboundDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(InboundDispatcher.class);
+
+	private static final class Task {
+		final String peer;
+		final List<String> lanes;
+		final Runnable work;
+		final long arrivedNanos = System.nanoTime();
+		MonoSink<Void> waiter; // 等待入队时非null
+		boolean admitted;
+		boolean ready; // 在readyTasks中等待空闲的处理槽
+		boolean running;
+
+		Task(String peer, List<String> lanes, Runnable work) {
+			this.peer = peer;
+			this.lanes = lanes;
+			this.work = work;
+		}
+
+		@Override
+		public String toString() {
+			return String.join(",", lanes);
+		}
+	}
+
+	private final Executor executor;
+	private final int concurrency;
+	private final int capacity;
+	private final int perPeerCapacity;
+	private final Duration admissionTimeout;
+	private final Timer queueWait;
+	private final Counter rejected;
+
+	// 以下状态由lock同步
+	private final Object lock = new Object();
+	// 通道 -> 按入队顺序排列的消息，队首的消息正在处理或等待其他通道
+	private final Map<String, ArrayDeque<Task>> lanes = new HashMap<>();
+	private final ArrayDeque<Task> readyTasks = new ArrayDeque<>();
+	private final ArrayDeque<Task> waiting = new ArrayDeque<>();
+	private final Map<String, Integer> admittedPerPeer = new HashMap<>();
+	private int admitted; // 已入队（包括正在处理）的消息数
+	private int running;
+
+	@Autowired
+	public InboundDispatcher(MeterRegistry meterRegistry,
+			@Value("${p2p.inbound.concurrency:4}") int concurrency,
+			@Value("${p2p.inbound.queue-capacity:1024}") int capacity,
+			@Value("${p2p.inbound.per-peer-capacity:64}") int perPeerCapacity,
+			@Value("${p2p.inbound.admission-timeout:30s}") Duration admissionTimeout) {
+		this(meterRegistry, concurrency, capacity, perPeerCapacity, admissionTimeout,
+				task -> Schedulers.boundedElastic().schedule(task));
+	}
+
+	InboundDispatcher(MeterRegistry meterRegistry, int concurrency, int capacity, int perPeerCapacity,
+			Duration admissionTimeout, Executor executor) {
+		this.executor = executor;
+		this.concurrency = Math.max(1, concurrency);
+		this.capacity = Math.max(1, capacity);
+		this.perPeerCapacity = Math.max(1, Math.min(perPeerCapacity, capacity));
+		this.admissionTimeout = admissionTimeout;
+		this.queueWait = Timer.builder("p2p.inbound.queue.wait")
+				.description("Time inbound P2P messages wait before their handler starts")
+				.publishPercentileHistogram()
+				.register(meterRegistry);
+		this.rejected = Counter.builder("p2p.inbound.rejected")
+				.description("Inbound P2P messages dropped because the inbound queue stayed full")
+				.register(meterRegistry);
+		Gauge.builder("p2p.inbound.queue.depth", this, InboundDispatcher::queueDepth)
+				.description("Inbound P2P messages admitted but not yet being handled")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * 提交一条消息的处理。返回的Mono在消息入队后完成（队列已满时延迟完成，形成反压），
+	 * 超过admission-timeout时丢弃消息并正常完成，不会以错误结束入站流。
+	 *
+	 * @param peer 对端标识，用于限制单个对端占用的队列长度
+	 * @param lane 通道，同一通道的消息逐条按顺序处理
+	 */
+	public Mono<Void> submit(String peer, String lane, Runnable work) {
+		return submit(peer, List.of(lane), work);
+	}
+
+	/**
+	 * 提交一条属于多个通道的消息，它与每个通道中先后提交的消息都保持顺序
+	 */
+	public Mono<Void> submit(String peer, List<String> lanes, Runnable work) {
+		Task task = new Task(peer, List.copyOf(new LinkedHashSet<>(lanes)), work);
+		return Mono.<Void>create(sink -> {
+			List<Task> toStart;
+			synchronized (lock) {
+				// 队列有空间时仍在等待的消息都受限于各自对端的上限，直接入队不会越过它们
+				if (!hasRoom(peer)) {
+					task.waiter = sink;
+					waiting.add(task);
+					sink.onCancel(() -> cancelWaiting(task));
+					return;
+				}
+				admit(task);
+				toStart = startReadyTasks();
+			}
+			sink.success();
+			toStart.forEach(this::execute);
+		}).timeout(admissionTimeout, Mono.fromRunnable(() -> reject(task)));
+	}
+
+	int queueDepth() {
+		synchronized (lock) {
+			return admitted - running;
+		}
+	}
+
+	int waitingCount() {
+		synchronized (lock) {
+			return waiting.size();
+		}
+	}
+
+	private boolean hasRoom(String peer) {
+		return admitted < capacity && admittedPerPeer.getOrDefault(peer, 0) < perPeerCapacity;
+	}
+
+	private void admit(Task task) {
+		task.admitted = true;
+		admitted++;
+		admittedPerPeer.merge(task.peer, 1, Integer::sum);
+		// 入队在同一把锁内按全局顺序进行，多通道的消息在各通道中的相对顺序一致，不会互相等待
+		for (String lane : task.lanes) {
+			lanes.computeIfAbsent(lane, key -> new ArrayDeque<>()).add(task);
+		}
+		markReadyIfRunnable(task);
+	}
+
+	/**
+	 * 消息在它的每个通道中都排在最前面时可以开始处理
+	 */
+	private void markReadyIfRunnable(Task task) {
+		if (task.ready || task.running) {
+			return;
+		}
+		for (String lane : task.lanes) {
+			if (lanes.get(lane).peek() != task) {
+				return;
+			}
+		}
+		task.ready = true;
+		readyTasks.add(task);
+	}
+
+	/**
+	 * 在并发上限内为可以开始的消息分配处理槽，返回要开始处理的消息
+	 */
+	private List<Task> startReadyTasks() {
+		List<Task> toStart = new ArrayList<>();
+		while (running < concurrency && !readyTasks.isEmpty()) {
+			Task task = readyTasks.poll();
+			task.ready = false;
+			task.running = true;
+			running++;
+			toStart.add(task);
+		}
+		return toStart;
+	}
+
+	private void execute(Task task) {
+		executor.execute(() -> run(task));
+	}
+
+	private void run(Task task) {
+		queueWait.record(System.nanoTime() - task.arrivedNanos, TimeUnit.NANOSECONDS);
+		try {
+			task.work.run();
+		} catch (RuntimeException e) {
+			logger.error("P2P: Error handling inbound message on lane '{}' from {}: {}", task, task.peer,
+					e.getMessage(), e);
+		} finally {
+			finished(task);
+		}
+	}
+
+	private void finished(Task task) {
+		List<Task> newlyAdmitted = new ArrayList<>();
+		List<Task> toStart;
+		synchronized (lock) {
+			running--;
+			admitted--;
+			admittedPerPeer.computeIfPresent(task.peer, (peer, count) -> count > 1 ? count - 1 : null);
+			for (String laneKey : task.lanes) {
+				ArrayDeque<Task> lane = lanes.get(laneKey);
+				lane.poll();
+				if (lane.isEmpty()) {
+					lanes.remove(laneKey);
+				} else {
+					// 排到队尾，一个繁忙的通道不会一直占用处理槽
+					markReadyIfRunnable(lane.peek());
+				}
+			}
+			// 按等待顺序接收现在有空间的消息；因单个对端超限而等待的消息不阻塞其他对端
+			for (Iterator<Task> it = waiting.iterator(); it.hasNext() && admitted < capacity;) {
+				Task candidate = it.next();
+				if (hasRoom(candidate.peer)) {
+					it.remove();
+					admit(candidate);
+					newlyAdmitted.add(candidate);
+				}
+			}
+			toStart = startReadyTasks();
+		}
+		newlyAdmitted.forEach(waiter -> waiter.waiter.success());
+		toStart.forEach(this::execute);
+	}
+
+	private void cancelWaiting(Task task) {
+		synchronized (lock) {
+			waiting.remove(task);
+		}
+	}
+
+	private void reject(Task task) {
+		synchronized (lock) {
+			if (task.admitted) {
+				return; // 与超时同时入队，照常处理
+			}
+			waiting.remove(task);
+		}
+		rejected.increment();
+		logger.warn("P2P: Inbound queue full for {} ms, dropping message for lane '{}' from {}",
+				admissionTimeout.toMillis(), task, task.peer);
+	}
+}
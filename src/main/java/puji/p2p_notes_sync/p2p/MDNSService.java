@@ -3,20 +3,31 @@ package puji.p2p_notes_sync.p2p;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import puji.p2p_notes_sync.service.RepositoryConfigChangedEvent;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import javax.jmdns.JmDNS;
+import javax.jmdns.JmmDNS;
 import javax.jmdns.ServiceInfo;
 import javax.jmdns.ServiceListener;
 import javax.jmdns.ServiceEvent;
+import javax.jmdns.impl.ServiceInfoImpl;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -27,31 +38,146 @@ public class MDNSService {
 	private static final String SERVICE_TYPE = "_p2pnotesync._tcp.local."; // 服务类型
 	private static final String SERVICE_NAME_PREFIX = "P2PNotesSyncNode-"; // 服务名称前缀
 
-	private JmDNS jmdns;
+	/**
+	 * JmmDNS（所有网卡）和JmDNS（单个网卡）提供相同的操作，但没有共同的接口
+	 */
+	interface Responder extends Closeable {
+		void addServiceListener(String type, ServiceListener listener);
+
+		void registerService(ServiceInfo info) throws IOException;
+
+		/**
+		 * 更新已注册服务的TXT记录并重新公布
+		 */
+		void updateText(ServiceInfo info, Map<String, String> properties);
+
+		void unregisterAllServices();
+
+		void requestServiceInfo(String type, String name, long timeout);
+
+		static Responder of(JmmDNS jmmdns) {
+			return new Responder() {
+				public void addServiceListener(String type, ServiceListener listener) {
+					jmmdns.addServiceListener(type, listener);
+				}
+
+				public void registerService(ServiceInfo info) throws IOException {
+					jmmdns.registerService(info);
+				}
+
+				public void updateText(ServiceInfo info, Map<String, String> properties) {
+					info.setText(properties);
+					// JmmDNS在每个网卡上注册的是info的副本，只修改info不会重新公布（jmdns 3.4.1中setText不通知delegate）；
+					// textValueUpdated把新的TXT写入每个网卡上注册的副本，由各自的JmDNS重新公布
+					if (jmmdns instanceof ServiceInfoImpl.Delegate delegate) {
+						delegate.textValueUpdated(info, info.getTextBytes());
+					} else {
+						jmmdns.unregisterService(info);
+						try {
+							jmmdns.registerService(info);
+						} catch (IOException e) {
+							throw new IllegalStateException("Failed to re-register " + info.getName(), e);
+						}
+					}
+				}
+
+				public void unregisterAllServices() {
+					jmmdns.unregisterAllServices();
+				}
+
+				public void requestServiceInfo(String type, String name, long timeout) {
+					jmmdns.requestServiceInfo(type, name, timeout);
+				}
+
+				public void close() throws IOException {
+					jmmdns.close();
+				}
+			};
+		}
+
+		static Responder of(JmDNS jmdns) {
+			return new Responder() {
+				public void addServiceListener(String type, ServiceListener listener) {
+					jmdns.addServiceListener(type, listener);
+				}
+
+				public void registerService(ServiceInfo info) throws IOException {
+					jmdns.registerService(info);
+				}
+
+				public void updateText(ServiceInfo info, Map<String, String> properties) {
+					info.setText(properties); // info就是注册的实例，由JmDNS重新公布
+				}
+
+				public void unregisterAllServices() {
+					jmdns.unregisterAllServices();
+				}
+
+				public void requestServiceInfo(String type, String name, long timeout) {
+					jmdns.requestServiceInfo(type, name, timeout);
+				}
+
+				public void close() throws IOException {
+					jmdns.close();
+				}
+			};
+		}
+	}
+
+	private Responder jmdns;
 	private ServiceInfo serviceInfo;
 	private String serviceName;
 
 	// 添加对P2PWebSocketHandlerReactive的引用，用于自动连接新发现的节点
 	private P2PWebSocketHandlerReactive webSocketHandler;
+	private final GossipRouter gossipRouter;
+	private final NodeIdentity nodeIdentity;
+	private final P2PMessageCodec codec;
+	private final ConfigReconciler configReconciler;
+	private final PeerCache peerCache;
 
 	@Value("${server.port:8080}") // 从application.properties中获取WebSocket服务器端口，默认为8080
 	private int appWebSocketPort; // 假设WebSocket与HTTP服务端口一致或可配置
 
-	// 用于存储发现的对等节点信息 (例如 "host:port")
+	@Value("${p2p.discovery.min-protocol-version:0}") // TXT记录中公布的协议版本低于此值的节点不连接；旧版本节点不公布版本，视为0
+	private int minProtocolVersion;
+
+	@Value("${p2p.discovery.all-interfaces:true}") // 在所有网卡上运行mDNS (JmmDNS)；false时只使用默认网卡
+	private boolean allInterfaces = true;
+
+	@Value("${p2p.discovery.seed-peers:}") // 静态种子节点 (主机:端口，逗号分隔)，用于组播被阻断的网段
+	private List<String> seedPeers = List.of();
+
+	// 当前公布的TXT属性，配置变更时更新
+	private Map<String, String> advertisedProperties;
+
+	private final PeerAddressSelector addressSelector;
+
+	// 用于存储发现的对等节点信息 (例如 "host:port")；gossip模式下未连接的部分即passive view
 	private final Set<String> discoveredPeers = ConcurrentHashMap.newKeySet();
+	// 服务名称 -> 选中的地址；多个网卡上解析到同一服务时只选择一次
+	private final Map<String, String> resolvedServices = new ConcurrentHashMap<>();
+	private final Set<String> probingServices = ConcurrentHashMap.newKeySet();
 
 	// 构造函数注入WebSocketHandler
-	public MDNSService(P2PWebSocketHandlerReactive webSocketHandler) {
+	public MDNSService(P2PWebSocketHandlerReactive webSocketHandler, GossipRouter gossipRouter,
+			NodeIdentity nodeIdentity, P2PMessageCodec codec, ConfigReconciler configReconciler, PeerCache peerCache,
+			@Value("${p2p.discovery.probe-timeout:3s}") Duration probeTimeout) {
 		this.webSocketHandler = webSocketHandler;
+		this.addressSelector = new PeerAddressSelector(probeTimeout);
+		this.gossipRouter = gossipRouter;
+		this.nodeIdentity = nodeIdentity;
+		this.codec = codec;
+		this.configReconciler = configReconciler;
+		this.peerCache = peerCache;
 	}
 
 	@PostConstruct
 	public void start() {
 		try {
-			// 在特定网络接口上创建JmDNS实例，如果有多网卡环境，可能需要更复杂的处理
-			// InetAddress addr = InetAddress.getLocalHost(); // 或者选择特定网卡
-			// jmdns = JmDNS.create(addr);
-			jmdns = JmDNS.create(); // 简化处理，使用默认主机地址
+			// JmmDNS在每个网卡上各运行一个JmDNS实例，并跟随网卡的增减（例如VPN连接）；
+			// 默认网卡可能是docker网桥或VPN隧道，其他节点无法通过它发现本节点
+			jmdns = allInterfaces ? Responder.of(JmmDNS.Factory.getInstance()) : Responder.of(JmDNS.create());
 
 			// 生成一个唯一的服务名称
 			this.serviceName = SERVICE_NAME_PREFIX + InetAddress.getLocalHost().getHostName().split("\\.")[0] + "-"
@@ -62,11 +188,13 @@ public class MDNSService {
 			logger.info("mDNS ServiceListener registered for type: {}", SERVICE_TYPE);
 
 			// 注册本节点的服务
-			// 属性可以用来传递额外信息，但通常WebSocket的连接地址通过ServiceInfo的host/port获取
-			serviceInfo = ServiceInfo.create(SERVICE_TYPE, this.serviceName, appWebSocketPort, "P2P Notes Sync Node");
+			// WebSocket的连接地址通过ServiceInfo的host/port获取；TXT属性公布节点ID、协议版本、编码和配置摘要
+			advertisedProperties = localAdvertisement().toProperties();
+			serviceInfo = ServiceInfo.create(SERVICE_TYPE, this.serviceName, appWebSocketPort, 0, 0,
+					advertisedProperties);
 			jmdns.registerService(serviceInfo);
-			logger.info("mDNS service registered: Name='{}', Type='{}', Port={}", this.serviceName, SERVICE_TYPE,
-					appWebSocketPort);
+			logger.info("mDNS service registered: Name='{}', Type='{}', Port={}, TXT={}", this.serviceName,
+					SERVICE_TYPE, appWebSocketPort, advertisedProperties);
 
 		} catch (UnknownHostException e) {
 			logger.error("mDNS start failed - UnknownHostException: {}", e.getMessage(), e);
@@ -80,9 +208,8 @@ public class MDNSService {
 	@PreDestroy
 	public void stop() {
 		if (jmdns != null) {
-			logger.info("Unregistering mDNS service: {}", serviceInfo.getName());
-			jmdns.unregisterService(serviceInfo);
-			jmdns.unregisterAllServices(); // 确保所有服务都被注销
+			logger.info("Unregistering mDNS service: {}", serviceName);
+			jmdns.unregisterAllServices();
 			try {
 				jmdns.close();
 				logger.info("JmDNS closed.");
@@ -91,12 +218,138 @@ public class MDNSService {
 			}
 		}
 		discoveredPeers.clear();
+		resolvedServices.clear();
+	}
+
+	/**
+	 * 连接配置的种子节点。与mDNS无关，组播被阻断时仍能加入网络；断开后按退避时间重连。
+	 * 种子节点列表可以包含本节点自身，握手时识别出来后不再连接。
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void connectSeedPeers() {
+		for (String seed : seedPeers) {
+			String peerAddress = seed.trim();
+			if (!peerAddress.isEmpty()) {
+				peerDiscovered(peerAddress, "seed", null);
+			}
+		}
+	}
+
+	/**
+	 * 启动时并行连接上次运行时连接过的对端，不等待mDNS通告。每个地址只尝试一次，
+	 * 连接失败（对端已离线或地址已变化）不重连；之后mDNS或种子节点发现同一地址时照常接管重连。
+	 * gossip模式下最多连接 active view 大小个。
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public void connectKnownPeers() {
+		List<PeerCache.KnownPeer> known = peerCache.warmPeers();
+		if (gossipRouter.enabled() && known.size() > gossipRouter.activeViewSize()) {
+			known = known.subList(0, gossipRouter.activeViewSize());
+		}
+		for (PeerCache.KnownPeer peer : known) {
+			if (seedPeers.contains(peer.address()) || webSocketHandler.isNodeConnected(peer.nodeId())) {
+				continue;
+			}
+			logger.info("Connecting to known peer {} (node {}, last seen {}).", peer.address(), peer.nodeId(),
+					Instant.ofEpochMilli(peer.lastSeen()));
+			webSocketHandler.connectOnce(peer.address())
+					.subscribe(null, error -> logger.info("Known peer {} is not reachable: {}", peer.address(),
+							error.getMessage()));
+		}
+	}
+
+	private PeerAdvertisement localAdvertisement() {
+		return new PeerAdvertisement(nodeIdentity.nodeId(), P2PWebSocketHandlerReactive.PROTOCOL_VERSION,
+				codec.supportedEncodingIds(), configReconciler.rootHash());
+	}
+
+	/**
+	 * 仓库配置变化后更新TXT记录中的配置摘要，其他节点据此判断是否需要对账
+	 */
+	@EventListener
+	public synchronized void onRepositoryConfigChanged(RepositoryConfigChangedEvent event) {
+		if (serviceInfo == null) {
+			return;
+		}
+		Map<String, String> properties = localAdvertisement().toProperties();
+		if (properties.equals(advertisedProperties)) {
+			return;
+		}
+		try {
+			jmdns.updateText(serviceInfo, properties);
+			advertisedProperties = properties;
+			logger.debug("mDNS TXT record updated: {}", properties);
+		} catch (IllegalStateException e) {
+			logger.warn("Failed to update mDNS TXT record: {}", e.getMessage());
+		}
 	}
 
 	public Set<String> getDiscoveredPeers() {
 		return Collections.unmodifiableSet(new HashSet<>(discoveredPeers));
 	}
 
+	/**
+	 * gossip模式下周期性补充active view：主动连接数不足时，从已发现但未连接的节点中随机选择补足。
+	 * 随机选择使各节点的连接图接近随机图，在每个节点只有少量连接时仍保持连通。
+	 */
+	@Scheduled(fixedDelayString = "${p2p.gossip.view-maintenance-interval-ms:15000}", initialDelayString = "${p2p.gossip.view-maintenance-interval-ms:15000}")
+	public void refillActiveView() {
+		if (!gossipRouter.enabled()) {
+			return;
+		}
+		int missing = gossipRouter.activeViewSize() - webSocketHandler.openOutboundSessionCount()
+				- webSocketHandler.pendingReconnectCount();
+		if (missing <= 0) {
+			return;
+		}
+		List<String> passive = discoveredPeers.stream().filter(peer -> !webSocketHandler.isConnectedTo(peer)).toList();
+		for (String peerAddress : gossipRouter.sample(passive, missing)) {
+			logger.info("Adding peer {} to the active view ({} slot(s) free).", peerAddress, missing);
+			connect(peerAddress);
+		}
+	}
+
+	private void connect(String peerAddress) {
+		webSocketHandler.connectToPeer(peerAddress)
+			.subscribe(
+				null, // onComplete: do nothing
+				error -> logger.error("Failed to connect to peer {} after discovery: {}", peerAddress, error.getMessage())
+			);
+	}
+
+	/**
+	 * 记录发现的节点并连接它；gossip模式下active view已满时只作为passive peer保留
+	 *
+	 * @param nodeId 对端通过TXT记录公布的节点ID，未知时为null
+	 */
+	private void peerDiscovered(String peerAddress, String source, String nodeId) {
+		if (!discoveredPeers.add(peerAddress)) {
+			logger.info("Peer {} ({}) already discovered.", peerAddress, source);
+			return;
+		}
+		if (webSocketHandler.isConnectedTo(peerAddress)) {
+			// 启动时从PeerCache连接上的地址：只登记为需要重连，不再拨号
+			connect(peerAddress);
+			return;
+		}
+		if (nodeId != null && webSocketHandler.isNodeConnected(nodeId)) {
+			// 每个节点只保留一条连接，重复的连接握手后也会被关闭
+			logger.info("Peer discovered: {} ({}). Node {} is already connected, not dialing.", peerAddress, source,
+					nodeId);
+			return;
+		}
+		if (gossipRouter.enabled() && webSocketHandler.openOutboundSessionCount()
+				+ webSocketHandler.pendingReconnectCount() >= gossipRouter.activeViewSize()) {
+			// active view已满，先留在passive view中，连接断开后由refillActiveView补充
+			logger.info("Peer discovered: {} ({}). Active view is full, keeping it as a passive peer.", peerAddress,
+					source);
+			return;
+		}
+		logger.info("Peer discovered: {} ({}). Attempting to connect.", peerAddress, source);
+		// 自动连接到新发现的节点
+		connect(peerAddress);
+	}
+
 	private class P2PServiceListener implements ServiceListener {
 		@Override
 		public void serviceAdded(ServiceEvent event) {
@@ -108,13 +361,11 @@ public class MDNSService {
 		@Override
 		public void serviceRemoved(ServiceEvent event) {
 			logger.info("mDNS Service removed: {}", event.getName());
-			ServiceInfo info = event.getInfo();
-			if (info != null) {
-				String peerAddress = constructPeerAddress(info);
-				if (discoveredPeers.remove(peerAddress)) {
-					logger.info("Peer removed: {} ({})", peerAddress, event.getName());
-					// 在这里可以通知 P2PWebSocketHandler 关闭到该节点的连接 (如果已建立)
-				}
+			String peerAddress = resolvedServices.remove(event.getName());
+			if (peerAddress != null && !seedPeers.contains(peerAddress) && discoveredPeers.remove(peerAddress)) {
+				logger.info("Peer removed: {} ({})", peerAddress, event.getName());
+				// 停止重连；已建立的连接保持，失联时由心跳检测关闭
+				webSocketHandler.forgetPeer(peerAddress);
 			}
 		}
 
@@ -123,32 +374,36 @@ public class MDNSService {
 			logger.info("mDNS Service resolved: {}", event.getName());
 			ServiceInfo info = event.getInfo();
 			if (info != null && !serviceName.equals(info.getName())) { // 排除自身
-				// JmDNS 可能会为同一服务返回多个IPv4/IPv6地址，这里简单选择第一个IPv4
-				String hostAddress = null;
-				if (info.getInet4Addresses().length > 0) {
-					hostAddress = info.getInet4Addresses()[0].getHostAddress();
-				} else if (info.getInetAddresses().length > 0) { // 备选其他地址
-					hostAddress = info.getInetAddresses()[0].getHostAddress();
-				}
-
-				if (hostAddress != null) {
-					String peerAddress = hostAddress + ":" + info.getPort();
-					if (discoveredPeers.add(peerAddress)) {
-						logger.info("Peer discovered and resolved: {} ({}) at {}. Attempting to connect.", peerAddress, info.getName(),
-								info.getApplication());
-						// 自动连接到新发现的节点
-						webSocketHandler.connectToPeer(peerAddress)
-							.subscribe(
-								null, // onComplete: do nothing
-								error -> logger.error("Failed to connect to peer {} after discovery: {}", peerAddress, error.getMessage())
-							);
-					} else {
-						logger.info("Peer {} ({}) already discovered.", peerAddress, info.getName());
-					}
-				} else {
-					logger.warn("Could not resolve host address for service: {}. IPv4 addresses: {}, IPv6 addresses: {}, Other addresses: {}", 
-								info.getName(), info.getInet4Addresses().length, info.getInet6Addresses().length, info.getInetAddresses().length);
+				PeerAdvertisement advertisement = PeerAdvertisement.from(info);
+				if (!isCompatible(info, advertisement)) {
+					return;
+				}
+				String known = resolvedServices.get(info.getName());
+				if (known != null) {
+					logger.info("Peer {} ({}) already discovered.", known, info.getName());
+					return;
 				}
+				List<InetAddress> candidates = PeerAddressSelector.candidates(info);
+				if (candidates.isEmpty()) {
+					logger.warn("Could not resolve host address for service: {}. IPv4 addresses: {}, IPv6 addresses: {}, Other addresses: {}",
+							info.getName(), info.getInet4Addresses().length, info.getInet6Addresses().length, info.getInetAddresses().length);
+					return;
+				}
+				if (!probingServices.add(info.getName())) {
+					return; // 通过另一个网卡解析到的同一服务正在探测
+				}
+				// 网卡较多时部分地址不可达（docker网桥、VPN），同时探测所有地址，使用第一个连接成功的
+				addressSelector.select(candidates, info.getPort())
+						.doFinally(signal -> probingServices.remove(info.getName()))
+						.subscribe(peerAddress -> {
+							resolvedServices.put(info.getName(), peerAddress);
+							peerDiscovered(peerAddress, info.getName(), advertisement.nodeId());
+						}, error -> logger.warn("Failed to probe addresses of {}: {}", info.getName(), error.getMessage()),
+								() -> {
+									if (!resolvedServices.containsKey(info.getName())) {
+										logger.warn("None of the addresses of {} are reachable: {}", info.getName(), candidates);
+									}
+								});
 			} else {
 				if (info == null) {
 					logger.warn("Service resolved but ServiceInfo is null for: {}", event.getName());
@@ -158,14 +413,27 @@ public class MDNSService {
 			}
 		}
 
-		private String constructPeerAddress(ServiceInfo info) {
-			// 优先使用IPv4地址
-			if (info.getInet4Addresses().length > 0) {
-				return info.getInet4Addresses()[0].getHostAddress() + ":" + info.getPort();
-			} else if (info.getInetAddresses().length > 0) { // 如果没有IPv4，尝试其他地址
-				return info.getInetAddresses()[0].getHostAddress() + ":" + info.getPort();
+		/**
+		 * 根据TXT记录跳过协议版本过低的节点和通过其他网卡发现的本节点，并记录对端公布的配置摘要
+		 */
+		private boolean isCompatible(ServiceInfo info, PeerAdvertisement advertisement) {
+			if (advertisement.protocolVersion() < minProtocolVersion) {
+				logger.info("Ignoring peer {}: protocol version {} is older than the required {}.", info.getName(),
+						advertisement.protocolVersion(), minProtocolVersion);
+				return false;
+			}
+			String nodeId = advertisement.nodeId();
+			if (nodeId == null) {
+				return true; // 旧版本节点
+			}
+			if (nodeId.equals(nodeIdentity.nodeId())) {
+				logger.info("Service {} is this node on another interface. Ignoring.", info.getName());
+				return false;
 			}
-			return null; // 无法构建地址
+			webSocketHandler.onPeerAdvertised(nodeId, advertisement.configDigest());
+			logger.debug("Peer {} advertises node {}, protocol {}, encodings {}, config {}", info.getName(), nodeId,
+					advertisement.protocolVersion(), advertisement.encodings(), advertisement.configDigest());
+			return true;
 		}
 	}
 }
\ No newline at end of file
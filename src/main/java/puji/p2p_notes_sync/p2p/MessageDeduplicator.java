@@ -0,0 +1,105 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import puji.p2p_notes_sync.p2p.dto.P2PMessage;
+
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 按消息ID去重。记录时间窗口内见过的消息ID（数量有上限，最早的先淘汰），
+ * 经多跳转发、重复连接或重试而再次到达的消息在安排任何处理之前就被丢弃。
+ * <p>
+ * 只按本节点收到消息的时间计算窗口，不使用消息中的时间戳：它来自发送方的时钟，
+ * 时钟落后的节点发出的消息会被误判为过期。转发有跳数限制，重复的副本在窗口内早已到达。
+ * 没有消息ID的消息（来自旧版本节点）无法去重，总是交付。
+ */
+@Component
+public class MessageDeduplicator {
+
+	private final long windowMillis;
+	private final int maxEntries;
+	private final LongSupplier clock;
+	private final Counter duplicates;
+
+	// 消息ID -> 首次见到的时间，按插入顺序（即时间顺序）排列
+	private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+	@Autowired
+	public MessageDeduplicator(MeterRegistry meterRegistry,
+			@Value("${p2p.dedup.window:10m}") Duration window,
+			@Value("${p2p.dedup.max-entries:20000}") int maxEntries) {
+		this(meterRegistry, window, maxEntries, System::currentTimeMillis);
+	}
+
+	MessageDeduplicator(MeterRegistry meterRegistry, Duration window, int maxEntries, LongSupplier clock) {
+		this.windowMillis = window.toMillis();
+		this.maxEntries = Math.max(1, maxEntries);
+		this.clock = clock;
+		this.duplicates = Counter.builder("p2p.messages.dropped").tag("reason", "duplicate")
+				.description("Inbound P2P messages dropped before dispatch").register(meterRegistry);
+	}
+
+	/**
+	 * 记录本节点发出的消息，使它被转发回来时直接丢弃
+	 */
+	public void markSent(P2PMessage message) {
+		if (message.getMessageId() != null) {
+			firstSeen(message.getMessageId());
+		}
+	}
+
+	/**
+	 * 判断入站消息是否应该处理：第一次见到时返回true，并记录其ID
+	 */
+	public boolean shouldProcess(P2PMessage message) {
+		if (message.getMessageId() == null) {
+			return true;
+		}
+		if (!firstSeen(message.getMessageId())) {
+			duplicates.increment();
+			return false;
+		}
+		return true;
+	}
+
+	int size() {
+		synchronized (seen) {
+			return seen.size();
+		}
+	}
+
+	private boolean firstSeen(String messageId) {
+		long now = clock.getAsLong();
+		synchronized (seen) {
+			evict(now);
+			if (seen.containsKey(messageId)) {
+				return false;
+			}
+			seen.put(messageId, now);
+			if (seen.size() > maxEntries) {
+				Iterator<String> eldest = seen.keySet().iterator();
+				eldest.next();
+				eldest.remove();
+			}
+			return true;
+		}
+	}
+
+	private void evict(long now) {
+		Iterator<Map.Entry<String, Long>> iterator = seen.entrySet().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().getValue() <= windowMillis) {
+				break;
+			}
+			iterator.remove();
+		}
+	}
+}
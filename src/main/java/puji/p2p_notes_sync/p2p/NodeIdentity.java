@@ -0,0 +1,60 @@
+package puji.p2p_notes_sync.p2p;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.UUID;
+
+/**
+ * 本节点的稳定标识。首次启动时随机生成并保存在数据目录的 node_id 中，之后重启保持不变，
+ * 使其他节点可以按节点（而不是按地址或会话）识别同一个对端。
+ */
+@Component
+public class NodeIdentity {
+
+	private static final Logger logger = LoggerFactory.getLogger(NodeIdentity.class);
+	private static final String NODE_ID_FILE_NAME = "node_id";
+
+	private final String nodeId;
+
+	@Autowired
+	public NodeIdentity(@Value("${p2p.data-dir:data}") String dataDir) {
+		this(Paths.get("").toAbsolutePath().resolve(dataDir).resolve(NODE_ID_FILE_NAME));
+	}
+
+	NodeIdentity(Path nodeIdFile) {
+		this.nodeId = loadOrCreate(nodeIdFile);
+		logger.info("Local P2P node id: {}", nodeId);
+	}
+
+	public String nodeId() {
+		return nodeId;
+	}
+
+	private static String loadOrCreate(Path nodeIdFile) {
+		try {
+			if (Files.exists(nodeIdFile)) {
+				String existing = Files.readString(nodeIdFile, StandardCharsets.UTF_8).trim();
+				if (!existing.isEmpty()) {
+					return existing;
+				}
+			}
+			String generated = UUID.randomUUID().toString();
+			Files.createDirectories(nodeIdFile.getParent());
+			Files.writeString(nodeIdFile, generated, StandardCharsets.UTF_8);
+			return generated;
+		} catch (IOException e) {
+			// 无法持久化时仍然可以工作，只是重启后其他节点会把本节点当作新节点
+			logger.error("Could not read or persist node id at {}: {}", nodeIdFile, e.getMessage(), e);
+			return UUID.randomUUID().toString();
+		}
+	}
+}
@@ -1,12 +1,22 @@
 package puji.p2p_notes_sync.p2p;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
 import puji.p2p_notes_sync.config.RepositoryConfig; // 从你的项目导入
+import puji.p2p_notes_sync.p2p.dto.CommitHeadAnnouncement;
 import puji.p2p_notes_sync.p2p.dto.RepoConfigP2PNotification;
 import puji.p2p_notes_sync.p2p.dto.RepoSyncP2PRequest;
+import puji.p2p_notes_sync.p2p.dto.SyncResult;
+import puji.p2p_notes_sync.service.RepositoryPushedEvent;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.UUID;
 
 @Service
 public class P2PCoordinatorService {
@@ -14,11 +24,19 @@ public class P2PCoordinatorService {
 	private static final Logger logger = LoggerFactory.getLogger(P2PCoordinatorService.class);
 
 	private final P2PWebSocketHandlerReactive p2pWebSocketHandler;
+	private final PendingReplies pendingReplies;
+	private final Timer syncPropagation;
 	// private final MDNSService mdnsservice; // 如果需要主动连接，可能需要它
 
 	@Autowired
-	public P2PCoordinatorService(P2PWebSocketHandlerReactive p2pWebSocketHandler /* , MDNSService mdnsservice */) {
+	public P2PCoordinatorService(P2PWebSocketHandlerReactive p2pWebSocketHandler, PendingReplies pendingReplies,
+			MeterRegistry meterRegistry /* , MDNSService mdnsservice */) {
 		this.p2pWebSocketHandler = p2pWebSocketHandler;
+		this.pendingReplies = pendingReplies;
+		this.syncPropagation = Timer.builder("p2p.sync.propagation")
+				.description("Time from broadcasting a sync request until a peer reports its pull result")
+				.publishPercentileHistogram()
+				.register(meterRegistry);
 		// this.mdnsservice = mdnsservice;
 	}
 
@@ -91,4 +109,55 @@ public class P2PCoordinatorService {
 		RepoSyncP2PRequest request = new RepoSyncP2PRequest(repoUrlOrAlias);
 		p2pWebSocketHandler.broadcastMessage(request);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * 向其他节点请求同步，并按到达顺序发出各节点的同步结果和端到端耗时。
+	 * 每个节点只计一次；流在超时后结束，没有应答的节点不会出现在结果中。
+	 *
+	 * @param repoUrlOrAlias 要同步的仓库URL或别名
+	 * @param timeout        等待应答的最长时间
+	 */
+	public Flux<PeerSyncOutcome> requestSyncWithAcks(String repoUrlOrAlias, Duration timeout) {
+		return Flux.defer(() -> {
+			RepoSyncP2PRequest request = new RepoSyncP2PRequest(repoUrlOrAlias);
+			request.setMessageId(UUID.randomUUID().toString());
+			long sentAt = System.nanoTime();
+			// 先登记再发送，避免应答早于登记到达
+			Flux<PeerSyncOutcome> outcomes = pendingReplies.register(request.getMessageId())
+					.ofType(SyncResult.class)
+					.map(result -> toOutcome(result, System.nanoTime() - sentAt))
+					.distinct(PeerSyncOutcome::nodeId)
+					.take(timeout);
+			logger.info("P2P: Broadcasting SYNC request {} for repository {} and waiting up to {} for results",
+					request.getMessageId(), repoUrlOrAlias, timeout);
+			p2pWebSocketHandler.broadcastMessage(request);
+			return outcomes;
+		});
+	}
+
+	/**
+	 * 当前连接的对端节点数，作为等待应答数的默认值
+	 */
+	public int connectedPeerCount() {
+		return p2pWebSocketHandler.connectedNodeCount();
+	}
+
+	private PeerSyncOutcome toOutcome(SyncResult result, long roundTripNanos) {
+		syncPropagation.record(Duration.ofNanos(roundTripNanos));
+		return new PeerSyncOutcome(result.getNodeId(), result.getStatus(), result.isSuccessful(), result.getMessage(),
+				result.getDurationMillis(), Duration.ofNanos(roundTripNanos).toMillis());
+	}
+
+	/**
+	 * 本地推送成功（手动提交或文件监听自动提交）后，向其他节点通告分支的新提交，已有该提交的节点不需要pull。
+	 * 使用Git URL而不是别名，因为不同节点上同一仓库的别名可能不同；不支持通告的旧版本节点改为收到同步请求。
+	 */
+	@EventListener
+	public void onRepositoryPushed(RepositoryPushedEvent event) {
+		logger.info("P2P: Announcing {} of repository {} on branch {}", event.commitId(), event.config().alias(),
+				event.branch());
+		CommitHeadAnnouncement announcement = new CommitHeadAnnouncement(event.config().gitUrl(),
+				event.config().alias(), event.branch(), event.commitId());
+		p2pWebSocketHandler.broadcastMessage(announcement, new RepoSyncP2PRequest(event.config().gitUrl()));
+	}
+}
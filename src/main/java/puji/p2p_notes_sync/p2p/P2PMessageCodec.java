@@ -0,0 +1,169 @@
+package puji.p2p_notes_sync.p2p;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.buffer.ByteBufUtil;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import puji.p2p_notes_sync.p2p.dto.P2PMessage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * P2P消息的编解码。JSON编码使用文本帧，CBOR编码使用二进制帧；解码时按帧类型选择格式，
+ * 因此同一连接上两种帧可以混用，不支持CBOR的旧节点始终收到JSON。
+ * <p>
+ * 出站消息直接序列化到池化的Netty {@link ByteBuf}，广播时所有会话共享同一块内存（各自持有一个
+ * retainedDuplicate），由Netty在写出后释放，不会为每个对端复制或重新编码。
+ */
+@Component
+public class P2PMessageCodec {
+
+	private final ObjectMapper jsonMapper;
+	private final ObjectMapper cborMapper;
+	private final List<WireEncoding> supportedEncodings;
+	private final ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+	private final Map<WireEncoding, DistributionSummary> inboundSizes = new EnumMap<>(WireEncoding.class);
+	private final Map<WireEncoding, DistributionSummary> outboundSizes = new EnumMap<>(WireEncoding.class);
+
+	public P2PMessageCodec(ObjectMapper objectMapper, MeterRegistry meterRegistry,
+			@Value("${p2p.wire.encodings:cbor,json}") List<String> encodings) {
+		this.jsonMapper = objectMapper;
+		// 复制Spring配置的ObjectMapper（模块、未知属性处理等保持一致），只替换底层格式
+		this.cborMapper = objectMapper.copyWith(new CBORFactory());
+		this.supportedEncodings = parseEncodings(encodings);
+		for (WireEncoding encoding : WireEncoding.values()) {
+			inboundSizes.put(encoding, frameSizeSummary(meterRegistry, encoding, "inbound"));
+			outboundSizes.put(encoding, frameSizeSummary(meterRegistry, encoding, "outbound"));
+		}
+	}
+
+	/**
+	 * 本节点支持的编码，按偏好排序，JSON总是包含在内
+	 */
+	public List<WireEncoding> supportedEncodings() {
+		return supportedEncodings;
+	}
+
+	public List<String> supportedEncodingIds() {
+		return supportedEncodings.stream().map(WireEncoding::id).toList();
+	}
+
+	/**
+	 * 根据对端HELLO中声明的编码选择发送给它的编码：取本节点偏好中第一个对端也支持的，否则使用JSON
+	 */
+	public WireEncoding negotiate(List<String> peerEncodings) {
+		if (peerEncodings == null || peerEncodings.isEmpty()) {
+			return WireEncoding.JSON;
+		}
+		for (WireEncoding encoding : supportedEncodings) {
+			if (peerEncodings.stream().anyMatch(id -> encoding.id().equalsIgnoreCase(id))) {
+				return encoding;
+			}
+		}
+		return WireEncoding.JSON;
+	}
+
+	/**
+	 * 把消息序列化到新分配的池化缓冲区。调用方持有返回的缓冲区（引用计数为1），用完后必须释放。
+	 */
+	public ByteBuf encode(P2PMessage message, WireEncoding encoding) throws IOException {
+		ByteBuf buffer = allocator.buffer();
+		try (OutputStream output = new ByteBufOutputStream(buffer)) {
+			mapperFor(encoding).writeValue(output, message);
+			return buffer;
+		} catch (IOException | RuntimeException e) {
+			buffer.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * 把已编码的消息包装为对应类型的WebSocket帧，不复制数据。payload的所有权转移给返回的帧，由发送方释放。
+	 */
+	public WebSocketMessage toWebSocketMessage(WebSocketSession session, ByteBuf payload, WireEncoding encoding) {
+		outboundSizes.get(encoding).record(payload.readableBytes());
+		WebSocketMessage.Type type = encoding == WireEncoding.JSON ? WebSocketMessage.Type.TEXT
+				: WebSocketMessage.Type.BINARY;
+		return new WebSocketMessage(type, wrap(session.bufferFactory(), payload));
+	}
+
+	/**
+	 * 心跳ping帧，payload的所有权转移给返回的帧
+	 */
+	public WebSocketMessage toPingMessage(WebSocketSession session, ByteBuf payload) {
+		return new WebSocketMessage(WebSocketMessage.Type.PING, wrap(session.bufferFactory(), payload));
+	}
+
+	private static DataBuffer wrap(DataBufferFactory bufferFactory, ByteBuf payload) {
+		if (bufferFactory instanceof NettyDataBufferFactory nettyBufferFactory) {
+			return nettyBufferFactory.wrap(payload);
+		}
+		// 非Netty的运行时只能复制一份
+		try {
+			return bufferFactory.wrap(ByteBufUtil.getBytes(payload));
+		} finally {
+			payload.release();
+		}
+	}
+
+	/**
+	 * 按帧类型解码消息；控制帧（ping/pong）返回null。必须在帧的缓冲区被释放之前调用。
+	 */
+	public P2PMessage decode(WebSocketMessage message) throws IOException {
+		WireEncoding encoding = switch (message.getType()) {
+			case TEXT -> WireEncoding.JSON;
+			case BINARY -> WireEncoding.CBOR;
+			default -> null;
+		};
+		if (encoding == null) {
+			return null;
+		}
+		inboundSizes.get(encoding).record(message.getPayload().readableByteCount());
+		// 直接从帧缓冲区读取，避免先转换为String
+		try (InputStream input = message.getPayload().asInputStream()) {
+			return mapperFor(encoding).readValue(input, P2PMessage.class);
+		}
+	}
+
+	private ObjectMapper mapperFor(WireEncoding encoding) {
+		return encoding == WireEncoding.CBOR ? cborMapper : jsonMapper;
+	}
+
+	private static List<WireEncoding> parseEncodings(List<String> encodings) {
+		List<WireEncoding> result = new ArrayList<>();
+		for (String id : encodings) {
+			WireEncoding.fromId(id.trim()).filter(encoding -> !result.contains(encoding)).ifPresent(result::add);
+		}
+		if (!result.contains(WireEncoding.JSON)) {
+			result.add(WireEncoding.JSON); // 与旧节点通信的兜底编码
+		}
+		return List.copyOf(result);
+	}
+
+	private static DistributionSummary frameSizeSummary(MeterRegistry meterRegistry, WireEncoding encoding,
+			String direction) {
+		return DistributionSummary.builder("p2p.wire.frame.size")
+				.description("Size of P2P WebSocket frames")
+				.baseUnit("bytes")
+				.tag("encoding", encoding.id())
+				.tag("direction", direction)
+				.register(meterRegistry);
+	}
+}
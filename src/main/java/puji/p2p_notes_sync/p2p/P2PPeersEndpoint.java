@@ -0,0 +1,26 @@
+package puji.p2p_notes_sync.p2p;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * actuator端点：列出当前所有P2P连接的存活状态（最近一次收到数据的时间、心跳往返时间、出站队列深度）。
+ */
+@Component
+@Endpoint(id = "p2ppeers")
+public class P2PPeersEndpoint {
+
+	private final P2PWebSocketHandlerReactive webSocketHandler;
+
+	public P2PPeersEndpoint(P2PWebSocketHandlerReactive webSocketHandler) {
+		this.webSocketHandler = webSocketHandler;
+	}
+
+	@ReadOperation
+	public List<PeerLiveness> peers() {
+		return webSocketHandler.peerLiveness();
+	}
+}
@@ -1,28 +1,55 @@
 package puji.p2p_notes_sync.p2p;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.socket.CloseStatus;
 import org.springframework.web.reactive.socket.WebSocketHandler;
 import org.springframework.web.reactive.socket.WebSocketMessage;
 import org.springframework.web.reactive.socket.WebSocketSession;
 import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers; // 导入 Schedulers
+import reactor.core.scheduler.Schedulers;
 
 import puji.p2p_notes_sync.config.RepositoryConfig;
+import puji.p2p_notes_sync.p2p.dto.CommitHeadAnnouncement;
+import puji.p2p_notes_sync.p2p.dto.ConfigDigest;
+import puji.p2p_notes_sync.p2p.dto.ConfigEntries;
 import puji.p2p_notes_sync.p2p.dto.P2PMessage;
+import puji.p2p_notes_sync.p2p.dto.PeerHello;
 import puji.p2p_notes_sync.p2p.dto.RepoConfigP2PNotification;
 import puji.p2p_notes_sync.p2p.dto.RepoSyncP2PRequest;
+import puji.p2p_notes_sync.p2p.dto.SyncResult;
 import puji.p2p_notes_sync.service.ConfigService;
+import puji.p2p_notes_sync.service.GitOperationResult;
 import puji.p2p_notes_sync.service.GitService;
+import puji.p2p_notes_sync.service.GitUrls;
 
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 
 @Component
 public class P2PWebSocketHandlerReactive implements WebSocketHandler {
@@ -32,86 +59,488 @@ public class P2PWebSocketHandlerReactive implements WebSocketHandler {
 	// and clientSessions
 	// For simplicity, let's assume that broadcastMessage will handle the sending
 	// logic
-	private final Map<String, WebSocketSession> serverSessions = new ConcurrentHashMap<>(); // Sessions received as
-																							// server
-	private final Map<String, WebSocketSession> clientSessions = new ConcurrentHashMap<>(); // Sessions that are
-																							// actively connected as
-																							// clients
+	private final Map<String, PeerSession> serverSessions = new ConcurrentHashMap<>(); // Sessions received as
+																						// server
+	private final Map<String, PeerSession> clientSessions = new ConcurrentHashMap<>(); // Sessions that are
+																						// actively connected as
+																						// clients
 
-	private final ObjectMapper objectMapper;
+	// P2P协议版本，随HELLO发送。2: 支持配置对账 (CONFIG_DIGEST / CONFIG_ENTRIES)；3: 应答同步请求 (SYNC_RESULT)；
+	// 4: 提交通告 (COMMIT_HEAD)
+	static final int PROTOCOL_VERSION = 4;
+	private static final int RECONCILIATION_PROTOCOL_VERSION = 2;
+	private static final int SYNC_RESULT_PROTOCOL_VERSION = 3;
+	private static final int COMMIT_HEAD_PROTOCOL_VERSION = 4;
+
+	private final P2PMessageCodec codec;
+	private final NodeIdentity nodeIdentity;
 	private final ConfigService configService;
 	private final GitService gitService;
+	private final GossipRouter gossipRouter;
+	private final MessageDeduplicator deduplicator;
+	private final PeerConnectionManager connectionManager;
+	private final ConfigReconciler configReconciler;
+	private final PendingReplies pendingReplies;
+	private final CommitHeadSync commitHeadSync;
+	private final InboundDispatcher inboundDispatcher;
+	private final PeerCache peerCache;
+	private final MeterRegistry meterRegistry;
 	private final ReactorNettyWebSocketClient webSocketClient = new ReactorNettyWebSocketClient();
+	private final Map<PeerSession.OfferResult, Counter> overflowCounters = new EnumMap<>(PeerSession.OfferResult.class);
+	private final Counter heartbeatEvictions;
+	// 节点ID -> 通过mDNS公布的配置摘要，连接建立时判断是否需要立即对账
+	private final Map<String, String> advertisedConfigDigests = new ConcurrentHashMap<>();
+
+	@Value("${p2p.heartbeat.timeout-ms:30000}") // 超过这么久没有收到对端任何帧（包括pong）时主动关闭连接
+	private long heartbeatTimeoutMillis = 30000;
+
+	@Value("${p2p.outbound.queue-capacity:256}") // 每个连接出站队列的容量（帧数）
+	private int outboundQueueCapacity = 256;
+
+	@Value("${p2p.outbound.overflow-policy:DROP_OLDEST}") // 出站队列已满时的处理方式: DROP_OLDEST, DROP_NEWEST, DISCONNECT
+	private PeerSession.OverflowPolicy outboundOverflowPolicy = PeerSession.OverflowPolicy.DROP_OLDEST;
+
+	@Value("${p2p.pending-repositories.clone-depth:0}") // P2P自动添加仓库的浅克隆深度，0表示完整历史
+	private int pendingCloneDepth;
+
+	@Value("${p2p.pending-repositories.single-branch:false}") // P2P自动添加仓库是否只克隆默认分支
+	private boolean pendingSingleBranch;
 
 	@Autowired
-	public P2PWebSocketHandlerReactive(ObjectMapper objectMapper, ConfigService configService, GitService gitService) {
-		this.objectMapper = objectMapper;
+	public P2PWebSocketHandlerReactive(P2PMessageCodec codec, NodeIdentity nodeIdentity, ConfigService configService,
+			GitService gitService, GossipRouter gossipRouter, MessageDeduplicator deduplicator,
+			PeerConnectionManager connectionManager, ConfigReconciler configReconciler, PendingReplies pendingReplies,
+			CommitHeadSync commitHeadSync, InboundDispatcher inboundDispatcher, PeerCache peerCache,
+			MeterRegistry meterRegistry) {
+		this.codec = codec;
+		this.nodeIdentity = nodeIdentity;
 		this.configService = configService;
 		this.gitService = gitService;
+		this.gossipRouter = gossipRouter;
+		this.deduplicator = deduplicator;
+		this.connectionManager = connectionManager;
+		this.configReconciler = configReconciler;
+		this.pendingReplies = pendingReplies;
+		this.commitHeadSync = commitHeadSync;
+		this.inboundDispatcher = inboundDispatcher;
+		this.peerCache = peerCache;
+		this.meterRegistry = meterRegistry;
+		for (PeerSession.OfferResult result : new PeerSession.OfferResult[] { PeerSession.OfferResult.DROPPED_OLDEST,
+				PeerSession.OfferResult.DROPPED_NEWEST, PeerSession.OfferResult.OVERFLOW_DISCONNECT }) {
+			overflowCounters.put(result, Counter.builder("p2p.outbound.overflow")
+					.tag("action", result.name().toLowerCase())
+					.description("Outbound P2P frames affected by a full per-peer queue")
+					.register(meterRegistry));
+		}
+		this.heartbeatEvictions = Counter.builder("p2p.peer.evictions")
+				.description("P2P connections closed because the peer stopped answering heartbeats")
+				.register(meterRegistry);
 	}
 
-	// Private assistive method for distributing and processing p2 p messages
-	private void dispatchP2PMessage(P2PMessage p2pMessage, WebSocketSession session) {
+	// 配置相关的消息（CONFIG_REPO通知和对账）都修改同一份配置，共用一个通道按顺序处理；
+	// 修改配置的消息同时占用所涉及仓库的通道，之后对这些仓库的同步请求不会越过它（见 configLanes）
+	private static final String CONFIG_LANE = "config";
+
+	/**
+	 * 分发一条入站消息。阻塞的处理（配置修改、pull）交给 {@link InboundDispatcher}，
+	 * 返回的Mono在消息入队后完成；队列已满时延迟完成，入站流随之停止读取。
+	 */
+	private Mono<Void> dispatchP2PMessage(P2PMessage p2pMessage, PeerSession peer) {
+		WebSocketSession session = peer.session();
 		String sessionId = (session != null) ? session.getId() : "N/A (client-side initiated or unknown)";
-		if (p2pMessage instanceof RepoConfigP2PNotification notification) {
+		// 在安排任何处理（pull、修改配置）和转发之前去重
+		if (!deduplicator.shouldProcess(p2pMessage)) {
+			logger.debug("Dropping already handled message {} (origin {}) from session {}",
+					p2pMessage.getMessageId(), p2pMessage.getOriginNodeId(), sessionId);
+			return Mono.empty();
+		}
+		// 先转发再处理，处理（如pull）可能较慢，不应延迟消息在网络中的传播
+		forwardGossip(peer, p2pMessage);
+		if (p2pMessage.getInReplyTo() != null) {
+			// 应答只交给等待它的请求；gossip模式下经过本节点转发的其他节点的应答在这里忽略
+			if (!pendingReplies.complete(p2pMessage)) {
+				logger.debug("Ignoring reply {} to a request that is not pending here", p2pMessage);
+			}
+		} else if (p2pMessage instanceof RepoConfigP2PNotification notification) {
 			logger.info("Dispatching RepoConfigP2PNotification from session {}: {}", sessionId, notification);
-			// ConfigService 的方法可能是阻塞的，使用 Schedulers.boundedElastic()
-			Mono.fromRunnable(() -> handleConfigNotification(notification))
-					.subscribeOn(Schedulers.boundedElastic())
-					.doOnError(e -> logger.error("Error in handleConfigNotification for session {}: {}", sessionId,
-							e.getMessage(), e))
-					.subscribe();
+			// ConfigService 的方法可能是阻塞的
+			return inboundDispatcher.submit(peer.id(),
+					configLanes(Stream.of(notification.getRepoAlias(), notification.getOldRepoAlias(),
+							notification.getRepoUrl())),
+					() -> handleConfigNotification(notification));
+		} else if (p2pMessage instanceof ConfigDigest digest) {
+			logger.debug("Received config digest from {}: {}", peer, digest);
+			return inboundDispatcher.submit(peer.id(), CONFIG_LANE, () -> handleConfigDigest(peer, digest));
+		} else if (p2pMessage instanceof ConfigEntries configEntries) {
+			logger.info("Received config entries from {}: {}", peer, configEntries);
+			List<ConfigEntries.Entry> entries = configEntries.getEntries() != null ? configEntries.getEntries()
+					: List.of();
+			return inboundDispatcher.submit(peer.id(),
+					configLanes(entries.stream().flatMap(entry -> Stream.of(entry.alias(), entry.gitUrl()))),
+					() -> handleConfigEntries(peer, configEntries));
+		} else if (p2pMessage instanceof CommitHeadAnnouncement announcement) {
+			logger.info("Received commit head announcement from {}: {}", peer, announcement);
+			// 与同步请求使用同一个仓库通道；同一仓库分支排队中的旧通告由CommitHeadSync跳过
+			Runnable task = commitHeadSync.onAnnouncement(announcement);
+			if (task != null) {
+				return inboundDispatcher.submit(peer.id(), repositoryLane(announcement.getRepoUrl()), task);
+			}
 		} else if (p2pMessage instanceof RepoSyncP2PRequest request) {
 			logger.info("Dispatching RepoSyncP2PRequest from session {}: {}", sessionId, request);
-			// GitService 的方法可能是阻塞的
-			Mono.fromRunnable(() -> handleSyncRequest(request, session)) // session may be useful for the context of
-																			// synchronous requests
-					.subscribeOn(Schedulers.boundedElastic())
-					.doOnError(e -> logger.error("Error in handleSyncRequest for session {}: {}", sessionId,
-							e.getMessage(), e))
-					.subscribe();
+			// GitService 的方法可能是阻塞的；同一仓库的同步请求按顺序处理，不同仓库之间并行
+			return inboundDispatcher.submit(peer.id(), repositoryLane(request.getRepoUrlOrAlias()),
+					() -> handleSyncRequest(request, peer));
 		} else {
 			logger.warn("Received unknown P2PMessage type from session {}: {}", sessionId,
 					p2pMessage.getClass().getName());
 		}
+		return Mono.empty();
+	}
+
+	/**
+	 * 修改配置的消息的通道：配置通道，加上按别名和URL涉及的每个仓库的通道
+	 */
+	private List<String> configLanes(Stream<String> repoUrlsOrAliases) {
+		List<String> lanes = new ArrayList<>();
+		lanes.add(CONFIG_LANE);
+		repoUrlsOrAliases.filter(Objects::nonNull).map(this::repositoryLane).forEach(lanes::add);
+		return lanes;
+	}
+
+	/**
+	 * 仓库的处理通道：别名和URL指向同一仓库时使用同一个通道
+	 */
+	private String repositoryLane(String repoUrlOrAlias) {
+		String gitUrl = configService.getRepositoryConfigByAlias(repoUrlOrAlias)
+				.map(RepositoryConfig::gitUrl)
+				.orElse(String.valueOf(repoUrlOrAlias));
+		return "repo:" + GitUrls.normalize(gitUrl);
 	}
 
 	@Override
 	public Mono<Void> handle(WebSocketSession session) {
-		serverSessions.put(session.getId(), session);
+		String remoteAddress = String.valueOf(session.getHandshakeInfo().getRemoteAddress());
+		PeerSession peer = newPeerSession(session, PeerSession.Direction.INBOUND, remoteAddress);
+		serverSessions.put(session.getId(), peer);
 		logger.info("P2P WebSocket connection established (server-side): {} from {}", session.getId(),
-				session.getHandshakeInfo().getRemoteAddress());
-
-		Mono<Void> input = session.receive()
-				.map(WebSocketMessage::getPayloadAsText)
-				.doOnNext(payload -> {
-					logger.debug("P2P WebSocket message received (server-side) from {}: {}", session.getId(), payload);
-					try {
-						P2PMessage p2pMessage = objectMapper.readValue(payload, P2PMessage.class);
-						dispatchP2PMessage(p2pMessage, session); // Calling the distribution method
-					} catch (JsonProcessingException e) {
-						logger.error("Failed to parse P2PMessage (server-side) from {}: {}", session.getId(), payload,
-								e);
-					} catch (Exception e) { // Catch a general exception
-						logger.error("Error processing P2P message (server-side) from {}: {}", session.getId(), payload,
-								e);
-					}
-				})
-				.then();
+				remoteAddress);
 
 		// Under normal circumstances, the server should also be able to send messages,
 		// but the broadcast logic is usually called externally.
-		// If the server needs to actively send messages to a connected client, you can
-		// add the session.send(...) logic here
-		// Here we mainly deal with inbound messages and connection closure
-
-		return input.doFinally(signalType -> {
+		return runSession(peer).doFinally(signalType -> {
 			logger.info("P2P WebSocket connection closed (server-side): {} with signal: {}", session.getId(),
 					signalType);
 			serverSessions.remove(session.getId());
 		});
 	}
 
+	private PeerSession newPeerSession(WebSocketSession session, PeerSession.Direction direction,
+			String peerAddress) {
+		return new PeerSession(session, direction, peerAddress, outboundQueueCapacity, outboundOverflowPolicy);
+	}
+
+	/**
+	 * 运行一个连接：出站队列由唯一一次 session.send 按顺序发送，入站帧逐个处理。
+	 * 连接建立后先发送HELLO，协商之后使用的编码；入站结束（对端关闭）时结束出站流。
+	 */
+	private Mono<Void> runSession(PeerSession peer) {
+		WebSocketSession session = peer.session();
+		Gauge queueDepth = Gauge.builder("p2p.outbound.queue.depth", peer, PeerSession::queueDepth)
+				.tag("peer", peer.peerAddress())
+				.tag("direction", peer.direction().name().toLowerCase())
+				.tag("session", session.getId())
+				.description("Frames waiting in the outbound queue of a P2P connection")
+				.register(meterRegistry);
+		Timer rttTimer = Timer.builder("p2p.peer.rtt")
+				.tag("peer", peer.peerAddress())
+				.tag("direction", peer.direction().name().toLowerCase())
+				.tag("session", session.getId())
+				.description("Round-trip time of WebSocket heartbeats")
+				.publishPercentileHistogram()
+				.minimumExpectedValue(Duration.ofMillis(1))
+				.maximumExpectedValue(Duration.ofMillis(heartbeatTimeoutMillis))
+				.register(meterRegistry);
+		peer.setRttTimer(rttTimer);
+
+		sendHello(peer);
+		Mono<Void> output = session.send(peer.outbound()
+				.map(frame -> frame.ping() ? codec.toPingMessage(session, frame.transfer())
+						: codec.toWebSocketMessage(session, frame.transfer(), frame.encoding())))
+				.doOnError(e -> logger.warn("Outbound stream to {} failed: {}", peer, e.getMessage()))
+				// 发送被取消时sink丢弃的帧
+				.doOnDiscard(PeerSession.OutboundFrame.class, PeerSession.OutboundFrame::release);
+		// 帧在decode时同步解析（缓冲区在onNext返回后释放），之后逐条提交处理：
+		// concatMap不预取，入站队列已满时不再向receive()请求数据，对端的发送由TCP流控阻塞。
+		// 暂停读取期间pong也读不到，因此这段时间不做心跳超时检测（见 PeerSession#pausingInput）
+		Mono<Void> input = session.receive()
+				.<P2PMessage>handle((message, sink) -> {
+					P2PMessage p2pMessage = handleInboundMessage(peer, message);
+					if (p2pMessage != null) {
+						sink.next(p2pMessage);
+					}
+				})
+				.concatMap(p2pMessage -> peer.pausingInput(dispatchP2PMessage(p2pMessage, peer))
+						.onErrorResume(e -> {
+							logger.error("Error dispatching {} from {}: {}", p2pMessage, peer, e.getMessage(), e);
+							return Mono.empty();
+						}), 0)
+				.doFinally(signalType -> peer.completeOutbound())
+				.then();
+
+		// 被心跳检测判定为失联时直接结束，不等待半开连接上永远不会到来的数据
+		return Mono.when(output, input).takeUntilOther(peer.evicted()).doFinally(signalType -> {
+			rememberPeer(peer);
+			connectionManager.unregister(peer);
+			peer.completeOutbound();
+			peer.releaseQueued();
+			meterRegistry.remove(queueDepth);
+			meterRegistry.remove(rttTimer);
+		});
+	}
+
+	/**
+	 * 将已编码的帧放入连接的出站队列，并处理队列已满的情况
+	 */
+	private void enqueue(PeerSession peer, PeerSession.OutboundFrame frame) {
+		PeerSession.OfferResult result = peer.offer(frame);
+		switch (result) {
+			case QUEUED, CLOSED -> {
+			}
+			case DROPPED_OLDEST, DROPPED_NEWEST -> {
+				overflowCounters.get(result).increment();
+				logger.debug("Outbound queue of {} is full, {}", peer, result);
+			}
+			case OVERFLOW_DISCONNECT -> {
+				overflowCounters.get(result).increment();
+				logger.warn("Outbound queue of {} is full, closing the connection.", peer);
+				peer.session().close(CloseStatus.POLICY_VIOLATION.withReason("Outbound queue overflow"))
+						.onErrorResume(e -> Mono.empty())
+						.subscribe();
+			}
+		}
+	}
+
+	/**
+	 * 解码一条入站消息。pong和HELLO在此处理，其他消息返回给调用方交给dispatchP2PMessage。
+	 * 必须在帧缓冲区释放之前（即在receive()的onNext中）调用。
+	 */
+	private P2PMessage handleInboundMessage(PeerSession peer, WebSocketMessage message) {
+		peer.markSeen();
+		if (message.getType() == WebSocketMessage.Type.PONG) {
+			handlePong(peer, message);
+			return null;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("P2P WebSocket {} frame received from {} ({} bytes)", message.getType(), peer,
+					message.getPayload().readableByteCount());
+		}
+		try {
+			P2PMessage p2pMessage = codec.decode(message);
+			if (p2pMessage instanceof PeerHello hello) {
+				handleHello(peer, hello);
+				return null;
+			}
+			return p2pMessage;
+		} catch (JsonProcessingException e) {
+			logger.error("Failed to parse P2PMessage from {}: {}", peer, e.getMessage(), e);
+		} catch (Exception e) { // Catch a general exception
+			logger.error("Error processing P2P message from {}: {}", peer, e.getMessage(), e);
+		}
+		return null;
+	}
+
+	/**
+	 * gossip模式下把第一次收到的消息转发给 fanout 个随机对端（不包括发来的那个）
+	 */
+	private void forwardGossip(PeerSession source, P2PMessage message) {
+		if (!gossipRouter.prepareForward(message)) {
+			return;
+		}
+		List<PeerSession> targets = gossipRouter.selectForwardTargets(broadcastTargets(), source);
+		logger.debug("Forwarding message {} (ttl {}) to {} peer(s)", message.getMessageId(), message.getTtl(),
+				targets.size());
+		sendToPeers(message, targets);
+	}
+
+	/**
+	 * 心跳的pong帧原样带回ping中的发送时间（Reactor Netty自动回复ping，旧版本节点也一样）
+	 */
+	private void handlePong(PeerSession peer, WebSocketMessage message) {
+		if (message.getPayload().readableByteCount() != Long.BYTES) {
+			return;
+		}
+		byte[] payload = new byte[Long.BYTES];
+		message.getPayload().read(payload);
+		long sentAt = ByteBuffer.wrap(payload).getLong();
+		long rtt = System.nanoTime() - sentAt;
+		if (rtt >= 0 && rtt < TimeUnit.MILLISECONDS.toNanos(heartbeatTimeoutMillis) * 2) {
+			peer.recordRtt(rtt);
+		}
+	}
+
+	/**
+	 * 定期向每个连接发送ping，并关闭超过超时时间没有收到任何帧的连接。
+	 * 笔记本休眠或离开VPN后TCP连接可能保持半开，发给它的消息只会堆积在出站队列中。
+	 */
+	@Scheduled(fixedDelayString = "${p2p.heartbeat.interval-ms:10000}", initialDelayString = "${p2p.heartbeat.interval-ms:10000}")
+	public void sendHeartbeats() {
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatTimeoutMillis);
+		for (PeerSession peer : openPeers()) {
+			if (peer.isUnresponsive(timeoutNanos)) {
+				logger.warn("P2P: No frames from {} for {} ms, closing the connection.", peer,
+						TimeUnit.NANOSECONDS.toMillis(peer.nanosSinceLastSeen()));
+				heartbeatEvictions.increment();
+				peer.evict();
+				continue;
+			}
+			ByteBuf payload = ByteBufAllocator.DEFAULT.buffer(Long.BYTES).writeLong(System.nanoTime());
+			enqueue(peer, PeerSession.OutboundFrame.ping(payload));
+		}
+	}
+
+	/**
+	 * 所有连接的存活状态表
+	 */
+	public List<PeerLiveness> peerLiveness() {
+		List<PeerSession> peers = new ArrayList<>(serverSessions.values());
+		peers.addAll(clientSessions.values());
+		return peers.stream()
+				.map(peer -> new PeerLiveness(
+						peer.id(),
+						peer.direction().name(),
+						peer.peerAddress(),
+						peer.remoteNodeId(),
+						peer.encoding().id(),
+						peer.connectedAt(),
+						TimeUnit.NANOSECONDS.toMillis(peer.nanosSinceLastSeen()),
+						toMillis(peer.lastRttNanos()),
+						toMillis(peer.smoothedRttNanos()),
+						peer.queueDepth()))
+				.toList();
+	}
+
+	private static Double toMillis(long nanos) {
+		return nanos < 0 ? null : nanos / 1_000_000.0;
+	}
+
+	private void handleHello(PeerSession peer, PeerHello hello) {
+		peer.setRemoteNodeId(hello.getNodeId());
+		peer.setProtocolVersion(hello.getProtocolVersion());
+		peer.setEncoding(codec.negotiate(hello.getEncodings()));
+		logger.info("P2P: HELLO from {} (protocol {}, encodings {}), sending {} from now on", peer,
+				hello.getProtocolVersion(), hello.getEncodings(), peer.encoding());
+		rememberPeer(peer);
+		// 每个节点只保留一条连接；连接到本节点自身时返回这条连接本身
+		PeerSession redundant = connectionManager.register(peer);
+		if (redundant != null) {
+			redundant.evict();
+		}
+		if (redundant != peer) {
+			String advertised = hello.getNodeId() != null ? advertisedConfigDigests.remove(hello.getNodeId()) : null;
+			if (advertised != null && advertised.equals(configReconciler.rootHash())) {
+				// mDNS公布的配置摘要与本地一致，省去一次对账往返；公布之后的变更由定期对账补上
+				logger.debug("P2P: Config of {} already matches ours, skipping the initial reconciliation.", peer);
+				return;
+			}
+			// 连接建立后立即对账，补上离线期间错过的配置变更
+			sendConfigDigest(peer);
+		}
+	}
+
+	/**
+	 * 把主动连接成功的地址记入 {@link PeerCache}，重启后直接连接。写文件，不在事件循环线程上执行。
+	 */
+	private void rememberPeer(PeerSession peer) {
+		String nodeId = peer.remoteNodeId();
+		if (peer.direction() != PeerSession.Direction.OUTBOUND || nodeId == null
+				|| nodeId.equals(nodeIdentity.nodeId())) {
+			return;
+		}
+		Double rttMillis = toMillis(peer.smoothedRttNanos());
+		Schedulers.boundedElastic().schedule(() -> peerCache.seen(peer.peerAddress(), nodeId, rttMillis));
+	}
+
+	/**
+	 * 记录对端通过mDNS公布的配置摘要，与该节点建立连接时使用
+	 */
+	public void onPeerAdvertised(String nodeId, String configDigest) {
+		if (configDigest != null) {
+			advertisedConfigDigests.put(nodeId, configDigest);
+		} else {
+			advertisedConfigDigests.remove(nodeId);
+		}
+	}
+
+	/**
+	 * 是否已经与该节点建立了连接（任一方向）
+	 */
+	public boolean isNodeConnected(String nodeId) {
+		return connectionManager.isNodeConnected(nodeId);
+	}
+
+	/**
+	 * 定期与每个对端对账配置，修复丢失的CONFIG_REPO通知（例如gossip未覆盖的节点或网络分区）
+	 */
+	@Scheduled(fixedDelayString = "${p2p.anti-entropy.interval-ms:60000}", initialDelayString = "${p2p.anti-entropy.interval-ms:60000}")
+	public void reconcileConfigs() {
+		broadcastTargets().forEach(this::sendConfigDigest);
+	}
+
+	private void sendConfigDigest(PeerSession peer) {
+		// 旧版本节点不认识对账消息，由sendToPeers跳过
+		sendToPeers(configReconciler.digest(), List.of(peer));
+	}
+
+	private void handleConfigDigest(PeerSession peer, ConfigDigest digest) {
+		ConfigEntries reply = configReconciler.onDigest(digest);
+		if (reply != null) {
+			logger.info("P2P: Config differs from {}: sending {} entries, requesting {}", peer,
+					reply.getEntries().size(), reply.getWanted().size());
+			sendToPeers(reply, List.of(peer));
+		}
+	}
+
+	private void handleConfigEntries(PeerSession peer, ConfigEntries configEntries) {
+		for (ConfigEntries.Entry entry : configReconciler.accept(configEntries.getEntries())) {
+			applyConfigEntry(entry);
+			configReconciler.recordApplied(entry); // 应用失败时不记录，下一轮对账重试
+		}
+		if (configEntries.getWanted() != null && !configEntries.getWanted().isEmpty()) {
+			// 回复中不再带wanted，对账在这里结束
+			sendToPeers(new ConfigEntries(configReconciler.entriesFor(configEntries.getWanted()), null),
+					List.of(peer));
+		}
+	}
+
+	/**
+	 * 把对账得到的较新条目转换为对应的CONFIG_REPO操作，与实时通知走相同的处理逻辑
+	 */
+	private void applyConfigEntry(ConfigEntries.Entry entry) {
+		Optional<RepositoryConfig> local = configService.getRepositoryConfigByAlias(entry.alias());
+		if (entry.removed()) {
+			if (local.isPresent()) {
+				handleConfigNotification(
+						new RepoConfigP2PNotification(RepoConfigP2PNotification.Action.REMOVE, entry.alias(), null));
+			}
+		} else if (local.isEmpty()) {
+			handleConfigNotification(
+					new RepoConfigP2PNotification(RepoConfigP2PNotification.Action.ADD, entry.alias(), entry.gitUrl()));
+		} else if (!entry.gitUrl().equals(local.get().gitUrl())) {
+			handleConfigNotification(new RepoConfigP2PNotification(RepoConfigP2PNotification.Action.UPDATE,
+					entry.alias(), entry.alias(), entry.gitUrl()));
+		}
+	}
+
+	private void sendHello(PeerSession peer) {
+		PeerHello hello = new PeerHello(nodeIdentity.nodeId(), PROTOCOL_VERSION, codec.supportedEncodingIds());
+		// HELLO总是使用JSON文本帧，旧节点也能解析（并忽略未知的消息类型）
+		try {
+			enqueue(peer, new PeerSession.OutboundFrame(codec.encode(hello, WireEncoding.JSON), WireEncoding.JSON));
+		} catch (IOException e) {
+			logger.error("Failed to serialize HELLO for {}: {}", peer, e.getMessage());
+		}
+	}
+
 	private void handleConfigNotification(RepoConfigP2PNotification notification) {
 		String alias = notification.getRepoAlias();
 		if (notification.getAction() == RepoConfigP2PNotification.Action.ADD) {
@@ -119,7 +548,7 @@ public class P2PWebSocketHandlerReactive implements WebSocketHandler {
 			// additions or conflicts
 			if (configService.getRepositoryConfigByAlias(alias).isEmpty()) {
 				RepositoryConfig newConfig = new RepositoryConfig(alias, notification.getRepoUrl(),
-						"p2p_pending/" + alias, null /* 密钥 */);
+						"p2p_pending/" + alias, null /* 密钥 */, pendingCloneOptions());
 				boolean added = configService.addRepositoryConfig(newConfig); // Assume this method is synchronously
 																				// blocked
 				if (added) {
@@ -162,7 +591,9 @@ public class P2PWebSocketHandlerReactive implements WebSocketHandler {
 								newAlias, // 使用新别名
 								notification.getRepoUrl(), // 使用远程传来的新URL
 								existingConfig.localPath(), // 保留本地路径
-								existingConfig.token() // 保留本地token
+								existingConfig.token(), // 保留本地token
+								existingConfig.cloneOptions(), // 保留本地克隆选项
+								existingConfig.autoCommit() // 保留本地自动提交选项
 						);
 
 						// 使用旧别名删除旧配置
@@ -190,7 +621,9 @@ public class P2PWebSocketHandlerReactive implements WebSocketHandler {
 											newAlias,
 											notification.getRepoUrl(), // 使用远程传来的新URL
 											existingConfig.localPath(), // 保留本地路径
-											existingConfig.token() // 保留本地token
+											existingConfig.token(), // 保留本地token
+											existingConfig.cloneOptions(), // 保留本地克隆选项
+											existingConfig.autoCommit() // 保留本地自动提交选项
 									);
 
 									boolean updated = configService.updateRepositoryConfig(newAlias, updatedConfig);
@@ -211,7 +644,8 @@ public class P2PWebSocketHandlerReactive implements WebSocketHandler {
 												newAlias,
 												notification.getRepoUrl(),
 												"p2p_pending/" + newAlias,
-												null);
+												null,
+												pendingCloneOptions());
 										boolean added = configService.addRepositoryConfig(newConfig);
 										if (added) {
 											logger.info(
@@ -224,113 +658,248 @@ public class P2PWebSocketHandlerReactive implements WebSocketHandler {
 		}
 	}
 
-	private void handleSyncRequest(RepoSyncP2PRequest request, WebSocketSession session) {
+	/**
+	 * 通过P2P通知自动添加的仓库（p2p_pending/下）使用的默认克隆选项，降低新节点首次克隆的时间和磁盘占用。
+	 */
+	private RepositoryConfig.CloneOptions pendingCloneOptions() {
+		if (pendingCloneDepth <= 0 && !pendingSingleBranch) {
+			return null;
+		}
+		return new RepositoryConfig.CloneOptions(pendingCloneDepth > 0 ? pendingCloneDepth : null,
+				pendingSingleBranch, null, null);
+	}
+
+	private void handleSyncRequest(RepoSyncP2PRequest request, PeerSession peer) {
 		String repoId = request.getRepoUrlOrAlias();
-		logger.info("Handling sync request for repo: {} from session {}", repoId,
-				(session != null ? session.getId() : "N/A"));
-		configService.getRepositoryConfigByAlias(repoId)
-				.or(() -> configService.getAllRepositoryConfigs().stream()
-						.filter(cfg -> cfg.gitUrl().equalsIgnoreCase(repoId))
-						.findFirst())
-				.ifPresentOrElse(
-						config -> {
-							logger.info("P2P: Executing sync for repository '{}' due to P2P request.", config.alias());
-							String result = gitService.pullRepository(config); // Assume this method is synchronously
-																				// blocked
-							logger.info("P2P: Sync result for repository '{}': {}", config.alias(), result);
-							// 可选：通过session将同步结果反馈给请求方
-							// if (session != null && session.isOpen()) {
-							// session.send(Mono.just(session.textMessage("Sync for " + config.alias() + "
-							// result: " + result))).subscribe();
-							// }
-						},
-						() -> logger.warn("P2P: Received sync request for unknown repository '{}'", repoId));
+		logger.info("Handling sync request for repo: {} from {}", repoId, peer);
+		long start = System.nanoTime();
+		GitOperationResult result = configService.getRepositoryConfigByAliasOrGitUrl(repoId)
+				.map(config -> {
+					logger.info("P2P: Executing sync for repository '{}' due to P2P request.", config.alias());
+					GitOperationResult pullResult = gitService.pull(config); // Assume this method is synchronously
+																			// blocked
+					logger.info("P2P: Sync result for repository '{}': {}", config.alias(), pullResult.message());
+					return pullResult;
+				})
+				.orElseGet(() -> {
+					logger.warn("P2P: Received sync request for unknown repository '{}'", repoId);
+					// 没有配置该仓库的节点不需要追赶，应答SKIPPED，请求方不必等到超时
+					return new GitOperationResult(GitOperationResult.Status.SKIPPED,
+							"Repository not configured on this node");
+				});
+		// 请求方据此获知各节点是否已拉取以及耗时
+		SyncResult reply = new SyncResult(nodeIdentity.nodeId(), repoId, result.status().name(),
+				result.isSuccessful(), result.message(), Duration.ofNanos(System.nanoTime() - start).toMillis());
+		replyTo(peer, request, reply);
+	}
+
+	/**
+	 * 向请求的发起节点发送应答。发起节点直接相连时只发给它；gossip模式下请求可能经过多跳转发，
+	 * 应答同样以gossip广播，由发起节点按inReplyTo认领。没有messageId的请求（旧版本节点）不应答。
+	 */
+	private void replyTo(PeerSession source, P2PMessage request, P2PMessage reply) {
+		if (request.getMessageId() == null) {
+			return;
+		}
+		reply.setInReplyTo(request.getMessageId());
+		PeerSession origin = request.getOriginNodeId() != null
+				? connectionManager.sessionFor(request.getOriginNodeId())
+				: source;
+		if (origin != null) {
+			sendToPeers(reply, List.of(origin));
+		} else if (gossipRouter.enabled()) {
+			broadcastMessage(reply);
+		} else {
+			logger.debug("Not replying to {}: origin {} is not connected", request.getMessageId(),
+					request.getOriginNodeId());
+		}
 	}
 
+	/**
+	 * 连接到对端并在断开后自动重连（见 {@link PeerConnectionManager}），直到调用 {@link #forgetPeer(String)}
+	 */
 	public Mono<Void> connectToPeer(String peerAddress /* 主机：端口 */) {
+		connectionManager.want(peerAddress);
 		// Avoid repeated connections
-		if (clientSessions.containsKey(peerAddress) && clientSessions.get(peerAddress).isOpen()) {
+		if (isConnectedTo(peerAddress)) {
 			logger.debug("Already connected or connecting to peer {}", peerAddress);
 			return Mono.empty();
 		}
+		return dial(peerAddress);
+	}
+
+	/**
+	 * 只尝试连接一次，失败或断开后不重连（例如启动时连接缓存中可能已经失效的地址）
+	 */
+	public Mono<Void> connectOnce(String peerAddress) {
+		if (isConnectedTo(peerAddress)) {
+			return Mono.empty();
+		}
+		return dial(peerAddress);
+	}
+
+	/**
+	 * 不再需要连接该地址（例如mDNS报告服务下线），停止重连。已有的连接保持，失联时由心跳检测关闭。
+	 */
+	public void forgetPeer(String peerAddress) {
+		connectionManager.forget(peerAddress);
+	}
+
+	/**
+	 * 正在等待重连的地址数量，gossip模式下计入active view
+	 */
+	public int pendingReconnectCount() {
+		return connectionManager.pendingReconnects();
+	}
+
+	private void redial(String peerAddress) {
+		dial(peerAddress).subscribe(null, error -> {
+			// 已在dial中记录
+		});
+	}
+
+	private Mono<Void> dial(String peerAddress) {
 
 		URI wsUri = URI.create("ws://" + peerAddress + "/p2p");
 		logger.info("Attempting to connect to peer at {}", wsUri);
 
 		// 此特定客户连接的WebSockethandler
 		WebSocketHandler clientConnectionHandler = clientSession -> {
-			clientSessions.put(peerAddress, clientSession); // Use peerAddress as key
+			PeerSession peer = newPeerSession(clientSession, PeerSession.Direction.OUTBOUND, peerAddress);
+			clientSessions.put(peerAddress, peer); // Use peerAddress as key
 			logger.info("Successfully connected to peer (client-side): {}, session ID: {}", peerAddress,
 					clientSession.getId());
 
-			Mono<Void> clientInput = clientSession.receive()
-					.map(WebSocketMessage::getPayloadAsText)
-					.doOnNext(payload -> {
-						logger.debug("Message received from peer server {}: {}", peerAddress, payload);
-						try {
-							P2PMessage p2pMessage = objectMapper.readValue(payload, P2PMessage.class);
-							dispatchP2PMessage(p2pMessage, clientSession); // Calling the distribution method
-						} catch (JsonProcessingException e) {
-							logger.error("Failed to parse P2PMessage from peer server {}: {}", peerAddress, payload, e);
-						} catch (Exception e) {
-							logger.error("Error processing P2P message from peer server {}: {}", peerAddress, payload,
-									e);
-						}
-					})
-					.then();
-
-			// If the client needs to send a message immediately after connecting, you can
-			// add clientSession.send(...)
-			// Mono<Void> initialSend =
-			// clientSession.send(Mono.just(clientSession.textMessage("Hello from
-			// client!"));
-			// return initialSend.then(clientInput);
-
-			return clientInput.doFinally(signalType -> {
+			return runSession(peer).doFinally(signalType -> {
 				logger.info("Client connection to peer {} closed with signal {}", peerAddress, signalType);
-				clientSessions.remove(peerAddress);
+				clientSessions.remove(peerAddress, peer);
 			});
 		};
 
 		return webSocketClient.execute(wsUri, clientConnectionHandler)
-				.doOnError(e -> {
-					logger.error("Error connecting to peer: {}, Error: {}", wsUri, e.getMessage());
-					clientSessions.remove(peerAddress); // Also remove when the connection fails to avoid inconsistent
-														// status
-				});
+				.doOnError(e -> logger.error("Error connecting to peer: {}, Error: {}", wsUri, e.getMessage()))
+				// 连接结束或失败后，如果仍需要该地址则按退避时间重连
+				.doFinally(signalType -> connectionManager.connectionEnded(peerAddress, this::redial));
+	}
+
+	/**
+	 * 本节点当前主动建立（client-side）且仍然打开的连接数，即gossip模式下active view的大小
+	 */
+	public int openOutboundSessionCount() {
+		return (int) clientSessions.values().stream().filter(PeerSession::isOpen).count();
+	}
+
+	public boolean isConnectedTo(String peerAddress) {
+		PeerSession peer = clientSessions.get(peerAddress);
+		return peer != null && peer.isOpen();
+	}
+
+	/**
+	 * 广播和转发的目标：每个节点只取一条连接，保证每条消息对每个节点只发送一次
+	 */
+	private List<PeerSession> broadcastTargets() {
+		return connectionManager.onePerNode(openPeers());
+	}
+
+	private List<PeerSession> openPeers() {
+		List<PeerSession> peers = new ArrayList<>(serverSessions.size() + clientSessions.size());
+		serverSessions.values().stream().filter(PeerSession::isOpen).forEach(peers::add);
+		clientSessions.values().stream().filter(PeerSession::isOpen).forEach(peers::add);
+		return peers;
+	}
+
+	/**
+	 * 当前连接的对端节点数（每个节点只计一次）
+	 */
+	public int connectedNodeCount() {
+		return broadcastTargets().size();
 	}
 
 	public void broadcastMessage(P2PMessage message) {
-		try {
-			String messageJson = objectMapper.writeValueAsString(message);
-			logger.info("Attempting to broadcast message to {} server sessions and {} client sessions: {}",
-					serverSessions.size(), clientSessions.size(), messageJson);
-
-			// Broadcast to sessions connected to this server
-			serverSessions.values().forEach(session -> {
-				if (session.isOpen()) {
-					session.send(Mono.just(session.textMessage(messageJson)))
-							.doOnError(e -> logger.error("Error sending broadcast to server session {}: {}",
-									session.getId(), e.getMessage(), e))
-							.onErrorResume(e -> Mono.empty()) // Ignore individual send failures and continue with
-																// others
-							.subscribe();
-				}
-			});
+		broadcastMessage(message, null);
+	}
 
-			// Broadcast the session to which this node is connected as a client
-			clientSessions.values().forEach(session -> {
-				if (session.isOpen()) {
-					session.send(Mono.just(session.textMessage(messageJson)))
-							.doOnError(e -> logger.error("Error sending broadcast to client session {}: {}",
-									session.getId(), e.getMessage(), e))
-							.onErrorResume(e -> Mono.empty())
-							.subscribe();
-				}
-			});
+	/**
+	 * 广播消息；不支持该消息类型的旧版本对端改为收到 legacyFallback（为null时不发送）
+	 */
+	public void broadcastMessage(P2PMessage message, P2PMessage legacyFallback) {
+		logger.info("Attempting to broadcast message to {} server sessions and {} client sessions: {}",
+				serverSessions.size(), clientSessions.size(), message);
+		List<PeerSession> targets = broadcastTargets();
+		stampOrigin(message);
+		sendToPeers(message, targets);
+		if (legacyFallback != null) {
+			int required = requiredProtocolVersion(message);
+			List<PeerSession> legacyPeers = targets.stream().filter(peer -> peer.protocolVersion() < required)
+					.toList();
+			if (!legacyPeers.isEmpty()) {
+				stampOrigin(legacyFallback);
+				sendToPeers(legacyFallback, legacyPeers);
+			}
+		}
+	}
 
-		} catch (JsonProcessingException e) {
-			logger.error("Failed to serialize message for broadcast", e);
+	private void stampOrigin(P2PMessage message) {
+		if (message.getMessageId() == null) {
+			// 需要等待应答的请求由调用方预先设置messageId（见 PendingReplies）
+			message.setMessageId(UUID.randomUUID().toString());
+		}
+		message.setOriginNodeId(nodeIdentity.nodeId());
+		message.setTimestamp(System.currentTimeMillis());
+		deduplicator.markSent(message); // 经其他节点转发回来时直接丢弃
+		if (gossipRouter.enabled()) {
+			// gossip模式：发起节点发给所有已连接的对端（数量受active view限制），之后由收到者继续转发
+			gossipRouter.stampOrigin(message);
+		}
+	}
+
+	/**
+	 * 对端能够解析该消息所需的最低协议版本（见 PROTOCOL_VERSION），版本更低的对端不会收到它
+	 */
+	private static int requiredProtocolVersion(P2PMessage message) {
+		if (message instanceof CommitHeadAnnouncement) {
+			return COMMIT_HEAD_PROTOCOL_VERSION;
+		}
+		if (message instanceof SyncResult) {
+			return SYNC_RESULT_PROTOCOL_VERSION;
+		}
+		if (message instanceof ConfigDigest || message instanceof ConfigEntries) {
+			return RECONCILIATION_PROTOCOL_VERSION;
+		}
+		return 0;
+	}
+
+	/**
+	 * 把消息发给指定的对端。每种编码只序列化一次到池化缓冲区，所有使用该编码的会话共享它（各自持有一个retainedDuplicate），
+	 * 每个连接的帧在写出或被丢弃时释放，这里的初始引用在分发完成后释放。
+	 */
+	private void sendToPeers(P2PMessage message, Collection<PeerSession> peers) {
+		Map<WireEncoding, ByteBuf> encoded = new EnumMap<>(WireEncoding.class);
+		int required = requiredProtocolVersion(message);
+		try {
+			peers.stream().filter(peer -> peer.protocolVersion() >= required)
+					.forEach(peer -> sendEncoded(peer, message, encoded));
+		} finally {
+			encoded.values().forEach(ByteBuf::release);
+		}
+	}
+
+	private void sendEncoded(PeerSession peer, P2PMessage message, Map<WireEncoding, ByteBuf> encoded) {
+		if (!peer.isOpen()) {
+			return;
+		}
+		WireEncoding encoding = peer.encoding();
+		ByteBuf payload = encoded.get(encoding);
+		if (payload == null) {
+			try {
+				payload = codec.encode(message, encoding);
+			} catch (IOException e) {
+				logger.error("Failed to serialize message for broadcast ({})", encoding, e);
+				return;
+			}
+			encoded.put(encoding, payload);
 		}
+		// 只入队，不在这里发送：同一连接上的消息保持顺序，慢的对端也不会阻塞其他对端
+		enqueue(peer, new PeerSession.OutboundFrame(payload.retainedDuplicate(), encoding));
 	}
-}
\ No newline at end of file
+}
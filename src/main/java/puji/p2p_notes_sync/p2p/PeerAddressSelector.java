@@ -0,0 +1,76 @@
+package puji.p2p_notes_sync.p2p;
+
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import javax.jmdns.ServiceInfo;
+
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 为mDNS发现的节点选择可达的地址。
+ * <p>
+ * 节点通过多个网卡（docker网桥、VPN、Wi-Fi）公布服务时会带有多个地址，其中一些从本机无法到达，
+ * 直接连接会一直等到超时。这里同时向所有候选地址发起TCP连接，使用第一个连接成功的地址，其余的探测随之取消。
+ */
+final class PeerAddressSelector {
+
+	private final int probeTimeoutMillis;
+
+	PeerAddressSelector(Duration probeTimeout) {
+		this.probeTimeoutMillis = (int) Math.max(1, probeTimeout.toMillis());
+	}
+
+	/**
+	 * 服务公布的候选地址：IPv4在前，其后是IPv6（不包括需要指定网卡的link-local地址）
+	 */
+	static List<InetAddress> candidates(ServiceInfo info) {
+		Set<InetAddress> candidates = new LinkedHashSet<>(List.of(info.getInet4Addresses()));
+		for (InetAddress address : info.getInetAddresses()) {
+			if (!(address instanceof Inet6Address) || !address.isLinkLocalAddress()) {
+				candidates.add(address);
+			}
+		}
+		return new ArrayList<>(candidates);
+	}
+
+	/**
+	 * 连接对端使用的 "主机:端口"，IPv6地址加方括号
+	 */
+	static String peerAddress(InetAddress address, int port) {
+		String host = address.getHostAddress();
+		return (address instanceof Inet6Address ? "[" + host + "]" : host) + ":" + port;
+	}
+
+	/**
+	 * 并行探测候选地址，返回第一个能建立TCP连接的地址（"主机:端口"）；只有一个候选时不探测，全部不可达时为空
+	 */
+	Mono<String> select(List<InetAddress> candidates, int port) {
+		if (candidates.isEmpty()) {
+			return Mono.empty();
+		}
+		if (candidates.size() == 1) {
+			return Mono.just(peerAddress(candidates.get(0), port));
+		}
+		return Mono.firstWithValue(candidates.stream().map(address -> probe(address, port)).toList())
+				.onErrorResume(NoSuchElementException.class, e -> Mono.empty());
+	}
+
+	private Mono<String> probe(InetAddress address, int port) {
+		return Mono.fromCallable(() -> {
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress(address, port), probeTimeoutMillis);
+			}
+			return peerAddress(address, port);
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+}
@@ -0,0 +1,57 @@
+package puji.p2p_notes_sync.p2p;
+
+import javax.jmdns.ServiceInfo;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 节点通过mDNS TXT记录公布的信息，发现对端时不需要先建立WebSocket连接就能知道它是谁、是否兼容、配置是否一致。
+ * 旧版本节点的TXT记录没有这些属性，对应字段为null（协议版本为0）。
+ *
+ * @param nodeId          节点ID（见 {@link NodeIdentity}）
+ * @param protocolVersion P2P协议版本（与HELLO中的相同）
+ * @param encodings       支持的消息编码，按偏好排序
+ * @param configDigest    本地仓库配置集合的摘要（见 {@link ConfigReconciler#rootHash()}）
+ */
+record PeerAdvertisement(String nodeId, int protocolVersion, List<String> encodings, String configDigest) {
+
+	static final String TXT_VERSION = "txtvers";
+	static final String NODE_ID = "node";
+	static final String PROTOCOL_VERSION = "proto";
+	static final String ENCODINGS = "enc";
+	static final String CONFIG_DIGEST = "cfg";
+
+	Map<String, String> toProperties() {
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put(TXT_VERSION, "1"); // DNS-SD约定txtvers放在第一个
+		properties.put(NODE_ID, nodeId);
+		properties.put(PROTOCOL_VERSION, Integer.toString(protocolVersion));
+		properties.put(ENCODINGS, String.join(",", encodings));
+		properties.put(CONFIG_DIGEST, configDigest);
+		return properties;
+	}
+
+	static PeerAdvertisement from(ServiceInfo info) {
+		String encodings = info.getPropertyString(ENCODINGS);
+		return new PeerAdvertisement(
+				blankToNull(info.getPropertyString(NODE_ID)),
+				parseVersion(info.getPropertyString(PROTOCOL_VERSION)),
+				encodings == null || encodings.isBlank() ? List.of() : Arrays.asList(encodings.split(",")),
+				blankToNull(info.getPropertyString(CONFIG_DIGEST)));
+	}
+
+	private static int parseVersion(String value) {
+		try {
+			return value == null ? 0 : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static String blankToNull(String value) {
+		return value == null || value.isBlank() ? null : value;
+	}
+}
@@ -0,0 +1,144 @@
+package puji.p2p_notes_sync.p2p;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * 曾经成功连接过的对端，保存在 data/known_peers.json 中。
+ * <p>
+ * 重启后不必等待mDNS通告（通常需要数秒，组播被阻断时永远不会到来），启动时直接并行连接这些地址，
+ * 大约一个往返后就能开始同步。只记录本节点主动连接的地址（对端主动连接时看到的是临时端口），
+ * 超过 max-age 没有连接成功过的条目被淘汰。
+ */
+@Component
+public class PeerCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(PeerCache.class);
+	private static final String PEERS_FILE_NAME = "known_peers.json";
+
+	/**
+	 * 已知的对端
+	 *
+	 * @param address    连接地址 (主机:端口)
+	 * @param nodeId     对端的节点ID
+	 * @param lastSeen   最近一次连接上或连接结束的时间（毫秒）
+	 * @param rttMillis  最近测得的平滑心跳往返时间，尚未测得时为null
+	 */
+	record KnownPeer(String address, String nodeId, long lastSeen, Double rttMillis) {
+	}
+
+	private final Path peersFile;
+	private final long maxAgeMillis;
+	private final int maxEntries;
+	private final LongSupplier clock;
+	private final ObjectMapper objectMapper;
+
+	// 地址 -> 条目，由this同步
+	private final Map<String, KnownPeer> peers = new LinkedHashMap<>();
+
+	@Autowired
+	public PeerCache(@Value("${p2p.peer-cache.max-age:7d}") Duration maxAge,
+			@Value("${p2p.peer-cache.max-entries:64}") int maxEntries,
+			@Value("${p2p.data-dir:data}") String dataDir) {
+		this(Paths.get("").toAbsolutePath().resolve(dataDir).resolve(PEERS_FILE_NAME), maxAge, maxEntries,
+				System::currentTimeMillis);
+	}
+
+	PeerCache(Path peersFile, Duration maxAge, int maxEntries, LongSupplier clock) {
+		this.peersFile = peersFile;
+		this.maxAgeMillis = maxAge.toMillis();
+		this.maxEntries = Math.max(1, maxEntries);
+		this.clock = clock;
+		this.objectMapper = new ObjectMapper();
+		this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
+	}
+
+	@PostConstruct
+	public synchronized void init() {
+		if (!Files.exists(peersFile)) {
+			return;
+		}
+		try {
+			List<KnownPeer> loaded = objectMapper.readValue(peersFile.toFile(), new TypeReference<List<KnownPeer>>() {
+			});
+			loaded.forEach(peer -> peers.put(peer.address(), peer));
+			if (prune()) {
+				save();
+			}
+			logger.info("Loaded {} known peer(s) from {}", peers.size(), peersFile);
+		} catch (IOException e) {
+			logger.error("Error loading known peers from {}: {}", peersFile, e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * 启动时要连接的对端：最近连接过的在前，往返时间短的优先
+	 */
+	public synchronized List<KnownPeer> warmPeers() {
+		prune();
+		return peers.values().stream()
+				.sorted(Comparator.comparingLong(KnownPeer::lastSeen).reversed()
+						.thenComparing(peer -> peer.rttMillis() == null ? Double.MAX_VALUE : peer.rttMillis()))
+				.toList();
+	}
+
+	/**
+	 * 记录一次成功的主动连接（HELLO之后）或连接的结束
+	 *
+	 * @param rttMillis 平滑心跳往返时间，尚未测得时为null（保留之前记录的值）
+	 */
+	public synchronized void seen(String address, String nodeId, Double rttMillis) {
+		if (address == null || nodeId == null) {
+			return;
+		}
+		KnownPeer previous = peers.remove(address);
+		Double rtt = rttMillis != null ? rttMillis : previous != null ? previous.rttMillis() : null;
+		peers.put(address, new KnownPeer(address, nodeId, clock.getAsLong(), rtt));
+		prune();
+		save();
+	}
+
+	/**
+	 * 淘汰过期的条目，条目过多时淘汰最久没有见到的
+	 */
+	private boolean prune() {
+		long cutoff = clock.getAsLong() - maxAgeMillis;
+		boolean changed = peers.values().removeIf(peer -> peer.lastSeen() < cutoff);
+		if (peers.size() > maxEntries) {
+			List<KnownPeer> oldestFirst = new ArrayList<>(peers.values());
+			oldestFirst.sort(Comparator.comparingLong(KnownPeer::lastSeen));
+			oldestFirst.subList(0, peers.size() - maxEntries).forEach(peer -> peers.remove(peer.address()));
+			changed = true;
+		}
+		return changed;
+	}
+
+	private void save() {
+		try {
+			Files.createDirectories(peersFile.getParent());
+			objectMapper.writeValue(peersFile.toFile(), new ArrayList<>(peers.values()));
+		} catch (IOException e) {
+			logger.error("Error saving known peers to {}: {}", peersFile, e.getMessage(), e);
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+import jakarta.annotation.PreDestroy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+
+/**
+ * 按节点ID（见 {@link NodeIdentity}）管理到每个对端的逻辑连接。
+ * <p>
+ * 双方都通过mDNS发现对方时会各自主动连接，同一对节点之间出现两条连接。收到HELLO后按确定性规则只保留一条：
+ * 保留由节点ID较小的一方主动建立的连接，双方独立计算得到相同的结果，因此关闭的是同一条连接。
+ * <p>
+ * 本节点主动连接的地址在断开后按带抖动的指数退避重新连接，直到该地址不再需要（例如mDNS报告服务下线）。
+ * 如果该地址对应的节点已经通过其他连接在线（例如上一条连接因去重被关闭），则不再为该地址安排重连，
+ * 既不计入等待重连的数量，也不周期性地检查；等那个节点的连接结束时才重新为该地址安排重连。
+ */
+@Component
+public class PeerConnectionManager {
+
+	private static final Logger logger = LoggerFactory.getLogger(PeerConnectionManager.class);
+
+	private final String localNodeId;
+	private final Duration initialDelay;
+	private final Duration maxDelay;
+	private final Counter duplicateConnections;
+	private final Counter reconnectAttempts;
+
+	// 每个节点当前使用的连接
+	private final Map<String, PeerSession> sessionsByNodeId = new ConcurrentHashMap<>();
+	// 本节点希望保持连接的地址（主动连接过且尚未被移除）及其重连状态
+	private final Map<String, Reconnect> wantedAddresses = new ConcurrentHashMap<>();
+	// 仍然需要、但对应节点已通过其他连接在线而暂停重连的地址
+	private final Map<String, Parked> parkedAddresses = new ConcurrentHashMap<>();
+
+	public PeerConnectionManager(NodeIdentity nodeIdentity, MeterRegistry meterRegistry,
+			@Value("${p2p.reconnect.initial-delay:1s}") Duration initialDelay,
+			@Value("${p2p.reconnect.max-delay:60s}") Duration maxDelay) {
+		this.localNodeId = nodeIdentity.nodeId();
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+		this.duplicateConnections = Counter.builder("p2p.peer.duplicate-connections")
+				.description("Redundant connections to an already connected node that were closed")
+				.register(meterRegistry);
+		this.reconnectAttempts = Counter.builder("p2p.peer.reconnects")
+				.description("Reconnect attempts to peers whose connection dropped")
+				.register(meterRegistry);
+	}
+
+	/**
+	 * 连接收到HELLO后登记到对应节点。
+	 *
+	 * @return 需要关闭的多余连接（可能是新连接本身），没有冲突时返回null
+	 */
+	PeerSession register(PeerSession peer) {
+		String nodeId = peer.remoteNodeId();
+		if (nodeId == null) {
+			return null;
+		}
+		if (nodeId.equals(localNodeId)) {
+			// 连接到了自己（例如种子节点列表或mDNS把本节点的另一个地址当作对端）：断开且不再重连该地址
+			logger.info("P2P: {} is this node itself, closing the connection.", peer);
+			if (peer.direction() == PeerSession.Direction.OUTBOUND) {
+				forget(peer.peerAddress());
+			}
+			return peer;
+		}
+		if (peer.direction() == PeerSession.Direction.OUTBOUND) {
+			wantedAddresses.computeIfPresent(peer.peerAddress(), (address, reconnect) -> reconnect.connected(nodeId));
+		}
+		PeerSession[] loser = new PeerSession[1];
+		sessionsByNodeId.compute(nodeId, (id, existing) -> {
+			if (existing == null || existing == peer || !existing.isOpen()) {
+				return peer;
+			}
+			PeerSession keep = preferred(existing, peer);
+			loser[0] = keep == existing ? peer : existing;
+			return keep;
+		});
+		if (loser[0] != null) {
+			duplicateConnections.increment();
+			logger.info("P2P: Duplicate connection to node {}: keeping {}, closing {}", nodeId,
+					loser[0] == peer ? sessionsByNodeId.get(nodeId) : peer, loser[0]);
+		}
+		return loser[0];
+	}
+
+	/**
+	 * 连接结束时调用
+	 */
+	void unregister(PeerSession peer) {
+		String nodeId = peer.remoteNodeId();
+		if (nodeId != null && sessionsByNodeId.remove(nodeId, peer)) {
+			resumeParked(nodeId);
+		}
+	}
+
+	/**
+	 * 从打开的连接中选出每个节点的唯一连接；尚未收到HELLO或来自旧版本节点（没有节点ID）的连接全部保留
+	 */
+	List<PeerSession> onePerNode(Collection<PeerSession> openPeers) {
+		List<PeerSession> result = new ArrayList<>(openPeers.size());
+		for (PeerSession peer : openPeers) {
+			String nodeId = peer.remoteNodeId();
+			if (nodeId == null || sessionsByNodeId.get(nodeId) == peer) {
+				result.add(peer);
+			}
+		}
+		return result;
+	}
+
+	boolean isNodeConnected(String nodeId) {
+		return sessionFor(nodeId) != null;
+	}
+
+	/**
+	 * 到该节点当前使用的连接，未连接时返回null
+	 */
+	PeerSession sessionFor(String nodeId) {
+		PeerSession peer = nodeId != null ? sessionsByNodeId.get(nodeId) : null;
+		return peer != null && peer.isOpen() ? peer : null;
+	}
+
+	/**
+	 * 标记需要保持连接的地址
+	 */
+	void want(String peerAddress) {
+		parkedAddresses.remove(peerAddress);
+		wantedAddresses.computeIfAbsent(peerAddress, address -> new Reconnect());
+	}
+
+	/**
+	 * 不再需要连接该地址，取消等待中的重连
+	 */
+	void forget(String peerAddress) {
+		parkedAddresses.remove(peerAddress);
+		Reconnect reconnect = wantedAddresses.remove(peerAddress);
+		if (reconnect != null) {
+			reconnect.cancel();
+			logger.debug("P2P: Stopped reconnecting to {}", peerAddress);
+		}
+	}
+
+	/**
+	 * 正在等待重连的地址数量
+	 */
+	int pendingReconnects() {
+		return (int) wantedAddresses.values().stream().filter(Reconnect::isPending).count();
+	}
+
+	/**
+	 * 主动建立的连接结束（或连接失败）后调用：如果仍需要该地址，按退避时间安排重连。
+	 *
+	 * @param dialer 实际发起连接的方法，其完成时应再次调用本方法
+	 */
+	void connectionEnded(String peerAddress, Consumer<String> dialer) {
+		Reconnect reconnect = wantedAddresses.get(peerAddress);
+		if (reconnect != null && !reconnect.parkIfConnectedElsewhere(peerAddress, dialer)) {
+			reconnect.schedule(peerAddress, dialer);
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		parkedAddresses.clear();
+		wantedAddresses.values().forEach(Reconnect::cancel);
+		wantedAddresses.clear();
+	}
+
+	/**
+	 * 节点的连接结束后，为因该连接而暂停的地址重新安排重连
+	 */
+	private void resumeParked(String nodeId) {
+		parkedAddresses.forEach((peerAddress, parked) -> {
+			if (parked.nodeId().equals(nodeId) && parkedAddresses.remove(peerAddress, parked)) {
+				logger.debug("P2P: Connection to node {} ended, resuming reconnects to {}", nodeId, peerAddress);
+				wantedAddresses.computeIfAbsent(peerAddress, address -> new Reconnect().connected(nodeId));
+				connectionEnded(peerAddress, parked.dialer());
+			}
+		});
+	}
+
+	/**
+	 * 同一节点的两条连接中保留哪一条：优先保留由节点ID较小的一方主动建立的连接；
+	 * 发起方相同时（例如同一节点的两个地址）保留先建立的连接。
+	 */
+	private PeerSession preferred(PeerSession existing, PeerSession candidate) {
+		boolean existingPreferred = dialledByLowerNode(existing);
+		boolean candidatePreferred = dialledByLowerNode(candidate);
+		if (existingPreferred != candidatePreferred) {
+			return existingPreferred ? existing : candidate;
+		}
+		return existing;
+	}
+
+	private boolean dialledByLowerNode(PeerSession peer) {
+		String dialer = peer.direction() == PeerSession.Direction.OUTBOUND ? localNodeId : peer.remoteNodeId();
+		String other = peer.direction() == PeerSession.Direction.OUTBOUND ? peer.remoteNodeId() : localNodeId;
+		return dialer.compareTo(other) < 0;
+	}
+
+	/**
+	 * 带抖动的指数退避：第n次重连等待 min(max, initial * 2^n) 的一半加上随机的另一半，
+	 * 避免网络恢复后所有节点同时重连。
+	 */
+	static long backoffMillis(int attempt, long initialMillis, long maxMillis, double random) {
+		long ceiling = Math.min(maxMillis, initialMillis << Math.min(attempt, 30));
+		return ceiling / 2 + (long) (random * (ceiling - ceiling / 2));
+	}
+
+	private record Parked(String nodeId, Consumer<String> dialer) {
+	}
+
+	private final class Reconnect {
+
+		private int attempt;
+		private String nodeId; // 该地址最近一次连接上的节点
+		private Disposable pending;
+
+		synchronized Reconnect connected(String nodeId) {
+			this.attempt = 0;
+			this.nodeId = nodeId;
+			return this;
+		}
+
+		synchronized boolean isPending() {
+			return pending != null && !pending.isDisposed();
+		}
+
+		synchronized void schedule(String peerAddress, Consumer<String> dialer) {
+			if (isPending()) {
+				return;
+			}
+			long delay = backoffMillis(attempt, initialDelay.toMillis(), maxDelay.toMillis(),
+					ThreadLocalRandom.current().nextDouble());
+			attempt++;
+			logger.info("P2P: Reconnecting to {} in {} ms (attempt {})", peerAddress, delay, attempt);
+			pending = Mono.delay(Duration.ofMillis(delay)).subscribe(tick -> fire(peerAddress, dialer));
+		}
+
+		private void fire(String peerAddress, Consumer<String> dialer) {
+			synchronized (this) {
+				pending = null;
+				if (wantedAddresses.get(peerAddress) != this) {
+					return; // 已被移除
+				}
+			}
+			if (parkIfConnectedElsewhere(peerAddress, dialer)) {
+				return;
+			}
+			reconnectAttempts.increment();
+			dialer.accept(peerAddress);
+		}
+
+		/**
+		 * 该地址上的节点已经通过另一条连接在线时，移除本重连状态并暂停该地址，
+		 * 由 {@link #unregister(PeerSession)} 在那条连接结束时重新创建
+		 *
+		 * @return 是否已暂停
+		 */
+		boolean parkIfConnectedElsewhere(String peerAddress, Consumer<String> dialer) {
+			String knownNodeId;
+			synchronized (this) {
+				knownNodeId = nodeId;
+			}
+			if (!isNodeConnected(knownNodeId)) {
+				return false;
+			}
+			cancel();
+			if (!wantedAddresses.remove(peerAddress, this)) {
+				return true; // 已被移除
+			}
+			parkedAddresses.put(peerAddress, new Parked(knownNodeId, dialer));
+			logger.debug("P2P: Node {} at {} is connected through another session, not reconnecting.",
+					knownNodeId, peerAddress);
+			if (!isNodeConnected(knownNodeId)) {
+				resumeParked(knownNodeId); // 那条连接恰好在此期间结束
+			}
+			return true;
+		}
+
+		synchronized void cancel() {
+			if (pending != null) {
+				pending.dispose();
+				pending = null;
+			}
+		}
+	}
+}
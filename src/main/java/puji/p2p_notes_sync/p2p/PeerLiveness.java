@@ -0,0 +1,30 @@
+package puji.p2p_notes_sync.p2p;
+
+import java.time.Instant;
+
+/**
+ * 一个P2P连接的存活状态，通过actuator端点 {@code /actuator/p2ppeers} 暴露。
+ *
+ * @param sessionId          WebSocket会话ID
+ * @param direction          INBOUND（对端连接本节点）或 OUTBOUND（本节点连接对端）
+ * @param peerAddress        对端地址
+ * @param nodeId             对端在HELLO中声明的节点ID，旧版本节点为null
+ * @param encoding           发送给对端使用的编码
+ * @param connectedAt        连接建立时间
+ * @param lastSeenMillisAgo  距离最近一次收到对端任何帧（包括pong）的毫秒数
+ * @param lastRttMillis      最近一次心跳往返时间，尚未测得时为null
+ * @param smoothedRttMillis  平滑后的心跳往返时间，尚未测得时为null
+ * @param outboundQueueDepth 出站队列中等待发送的帧数
+ */
+public record PeerLiveness(
+		String sessionId,
+		String direction,
+		String peerAddress,
+		String nodeId,
+		String encoding,
+		Instant connectedAt,
+		long lastSeenMillisAgo,
+		Double lastRttMillis,
+		Double smoothedRttMillis,
+		int outboundQueueDepth) {
+}
@@ -0,0 +1,319 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.Timer;
+import io.netty.buffer.ByteBuf;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Instant;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 一条与对端节点的WebSocket连接，以及在该连接上协商得到的状态。
+ * <p>
+ * 每个连接只有一个出站队列，由一次长期存在的 {@code session.send(outbound())} 按顺序发送；
+ * 对端较慢时Netty停止向队列请求数据，队列达到容量后按 {@link OverflowPolicy} 处理新消息，内存占用有上限。
+ */
+final class PeerSession {
+
+	enum Direction {
+		INBOUND, // 对端连接到本节点 (server-side)
+		OUTBOUND // 本节点主动连接对端 (client-side)
+	}
+
+	/**
+	 * 出站队列已满时的处理方式
+	 */
+	enum OverflowPolicy {
+		DROP_OLDEST, // 丢弃队列中最早的消息，保留新消息
+		DROP_NEWEST, // 丢弃新消息
+		DISCONNECT // 关闭连接，由对端重新连接后通过同步补齐
+	}
+
+	enum OfferResult {
+		QUEUED, DROPPED_OLDEST, DROPPED_NEWEST, OVERFLOW_DISCONNECT, CLOSED
+	}
+
+	/**
+	 * 已编码、等待发送的一帧。payload是本帧独占的一个引用（通常是共享缓冲区的retainedDuplicate，
+	 * 与其他连接的帧共用同一个引用计数），发送时通过 {@link #transfer()} 交给Netty释放；帧被丢弃时必须调用
+	 * {@link #release()}。ping帧的payload是心跳的发送时间。
+	 * <p>
+	 * 引用计数是共享的，无法从payload判断本帧的引用是否已经交出，因此由帧自己记录：
+	 * transfer和release合计只有第一次生效，重复调用不会减掉属于其他帧的引用。
+	 */
+	static final class OutboundFrame {
+
+		private final ByteBuf payload;
+		private final WireEncoding encoding;
+		private final boolean ping;
+		private final AtomicBoolean handedOff = new AtomicBoolean();
+
+		OutboundFrame(ByteBuf payload, WireEncoding encoding) {
+			this(payload, encoding, false);
+		}
+
+		private OutboundFrame(ByteBuf payload, WireEncoding encoding, boolean ping) {
+			this.payload = payload;
+			this.encoding = encoding;
+			this.ping = ping;
+		}
+
+		static OutboundFrame ping(ByteBuf payload) {
+			return new OutboundFrame(payload, null, true);
+		}
+
+		WireEncoding encoding() {
+			return encoding;
+		}
+
+		boolean ping() {
+			return ping;
+		}
+
+		/**
+		 * 取出payload用于发送，引用的所有权随之转移，之后的 {@link #release()} 不再生效
+		 */
+		ByteBuf transfer() {
+			if (!handedOff.compareAndSet(false, true)) {
+				throw new IllegalStateException("Outbound frame was already sent or released");
+			}
+			return payload;
+		}
+
+		void release() {
+			if (handedOff.compareAndSet(false, true)) {
+				payload.release();
+			}
+		}
+	}
+
+	private final WebSocketSession session;
+	private final Direction direction;
+	private final String peerAddress;
+	private final OverflowPolicy overflowPolicy;
+	// 同时作为unicast sink的缓冲区，以便查询深度和在DROP_OLDEST时移除队首
+	private final BlockingQueue<OutboundFrame> queue;
+	private final Sinks.Many<OutboundFrame> outbound;
+	private boolean outboundClosed; // 由this同步
+
+	// 收到对端HELLO之前使用JSON，以兼容不发送HELLO的旧节点
+	private volatile WireEncoding encoding = WireEncoding.JSON;
+	private volatile String remoteNodeId;
+	private volatile int protocolVersion; // 对端HELLO中的协议版本，0表示未收到HELLO
+
+	// 存活状态：任何入站帧（包括pong）都刷新lastSeen，超过心跳超时没有入站帧的连接会被主动关闭
+	private final Instant connectedAt = Instant.now();
+	private volatile long lastSeenNanos = System.nanoTime();
+	// 本节点的入站处理队列已满、暂停读取这个连接时为true：对端的帧（包括pong）停留在TCP缓冲区中，沉默不代表失联
+	private volatile boolean inputPaused;
+	private volatile long lastRttNanos = -1;
+	private volatile long smoothedRttNanos = -1;
+	private volatile Timer rttTimer;
+	private final Sinks.Empty<Void> evicted = Sinks.empty();
+
+	PeerSession(WebSocketSession session, Direction direction, String peerAddress, int queueCapacity,
+			OverflowPolicy overflowPolicy) {
+		this.session = session;
+		this.direction = direction;
+		this.peerAddress = peerAddress;
+		this.overflowPolicy = overflowPolicy;
+		this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+		this.outbound = Sinks.many().unicast().onBackpressureBuffer(queue);
+	}
+
+	/**
+	 * 将一帧加入出站队列。多个线程可能同时广播，因此入队需要同步（unicast sink不允许并发emit）。
+	 * 队列只在这里写入，消费者只会取走元素，所以检查剩余容量之后入队一定成功。
+	 * 帧的所有权总是转移给本方法：没有入队的帧（以及被挤出的最早的帧）会在这里释放。
+	 */
+	synchronized OfferResult offer(OutboundFrame frame) {
+		if (outboundClosed) {
+			frame.release();
+			return OfferResult.CLOSED;
+		}
+		OfferResult result = OfferResult.QUEUED;
+		if (queue.remainingCapacity() == 0) {
+			switch (overflowPolicy) {
+				case DROP_NEWEST -> {
+					frame.release();
+					return OfferResult.DROPPED_NEWEST;
+				}
+				case DISCONNECT -> {
+					frame.release();
+					completeOutbound();
+					return OfferResult.OVERFLOW_DISCONNECT;
+				}
+				case DROP_OLDEST -> {
+					OutboundFrame oldest = queue.poll();
+					if (oldest != null) {
+						oldest.release();
+					}
+					result = OfferResult.DROPPED_OLDEST;
+				}
+			}
+		}
+		if (outbound.tryEmitNext(frame).isFailure()) {
+			frame.release();
+			return OfferResult.CLOSED;
+		}
+		return result;
+	}
+
+	/**
+	 * 出站帧流，只能订阅一次
+	 */
+	Flux<OutboundFrame> outbound() {
+		return outbound.asFlux();
+	}
+
+	/**
+	 * 不再接受新的出站帧，已入队的帧发送完后出站流结束
+	 */
+	synchronized void completeOutbound() {
+		if (!outboundClosed) {
+			outboundClosed = true;
+			outbound.tryEmitComplete();
+		}
+	}
+
+	/**
+	 * 连接结束后释放仍在队列中、不会再被发送的帧
+	 */
+	void releaseQueued() {
+		OutboundFrame frame;
+		while ((frame = queue.poll()) != null) {
+			frame.release();
+		}
+	}
+
+	Instant connectedAt() {
+		return connectedAt;
+	}
+
+	void markSeen() {
+		lastSeenNanos = System.nanoTime();
+	}
+
+	long nanosSinceLastSeen() {
+		return System.nanoTime() - lastSeenNanos;
+	}
+
+	/**
+	 * 包装一条入站消息的入队：等待入队期间不再读取连接，也不做存活检测；
+	 * 恢复读取时视为刚收到帧（被挡住的正是对端发来的消息）
+	 */
+	Mono<Void> pausingInput(Mono<Void> admission) {
+		return admission
+				.doOnSubscribe(subscription -> inputPaused = true)
+				.doFinally(signalType -> {
+					inputPaused = false;
+					markSeen();
+				});
+	}
+
+	/**
+	 * 超过timeout没有收到任何帧，并且不是因为本节点暂停了读取
+	 */
+	boolean isUnresponsive(long timeoutNanos) {
+		return !inputPaused && nanosSinceLastSeen() > timeoutNanos;
+	}
+
+	void setRttTimer(Timer rttTimer) {
+		this.rttTimer = rttTimer;
+	}
+
+	/**
+	 * 记录一次心跳往返时间。平滑值与TCP的SRTT相同，按1/8的权重更新。
+	 */
+	void recordRtt(long rttNanos) {
+		lastRttNanos = rttNanos;
+		long previous = smoothedRttNanos;
+		smoothedRttNanos = previous < 0 ? rttNanos : previous + (rttNanos - previous) / 8;
+		Timer timer = rttTimer;
+		if (timer != null) {
+			timer.record(rttNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	long lastRttNanos() {
+		return lastRttNanos;
+	}
+
+	long smoothedRttNanos() {
+		return smoothedRttNanos;
+	}
+
+	/**
+	 * 主动结束这个连接（例如心跳超时）。连接的处理流程订阅 {@link #evicted()}，收到信号后结束，
+	 * Reactor Netty随之关闭底层连接；半开的TCP连接也能这样清理，而不必等待对端的close帧。
+	 */
+	void evict() {
+		completeOutbound();
+		evicted.tryEmitEmpty();
+	}
+
+	Mono<Void> evicted() {
+		return evicted.asMono();
+	}
+
+	int queueDepth() {
+		return queue.size();
+	}
+
+	WebSocketSession session() {
+		return session;
+	}
+
+	String id() {
+		return session.getId();
+	}
+
+	Direction direction() {
+		return direction;
+	}
+
+	String peerAddress() {
+		return peerAddress;
+	}
+
+	boolean isOpen() {
+		return session.isOpen();
+	}
+
+	WireEncoding encoding() {
+		return encoding;
+	}
+
+	void setEncoding(WireEncoding encoding) {
+		this.encoding = encoding;
+	}
+
+	String remoteNodeId() {
+		return remoteNodeId;
+	}
+
+	void setRemoteNodeId(String remoteNodeId) {
+		this.remoteNodeId = remoteNodeId;
+	}
+
+	int protocolVersion() {
+		return protocolVersion;
+	}
+
+	void setProtocolVersion(int protocolVersion) {
+		this.protocolVersion = protocolVersion;
+	}
+
+	@Override
+	public String toString() {
+		return "PeerSession{" + direction + " " + peerAddress + ", session=" + session.getId()
+				+ (remoteNodeId != null ? ", node=" + remoteNodeId : "") + ", encoding=" + encoding + ", queued="
+				+ queue.size() + '}';
+	}
+}
@@ -0,0 +1,32 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import puji.p2p_notes_sync.service.GitOperationResult;
+
+/**
+ * 一个对端对同步请求的应答
+ */
+public record PeerSyncOutcome(
+		@Schema(description = "执行同步的节点ID") String nodeId,
+
+		@Schema(description = "同步结果状态 (CLONED, UPDATED, UP_TO_DATE, SKIPPED, FAILED等)") String status,
+
+		@Schema(description = "同步是否没有出错（未配置该仓库的节点返回SKIPPED，没有出错但也没有同步）") boolean successful,
+
+		@Schema(description = "Git操作的结果描述") String message,
+
+		@Schema(description = "对端执行pull的耗时（毫秒，包括排队等待）") long pullDurationMillis,
+
+		@Schema(description = "从发出请求到收到应答的端到端耗时（毫秒）") long roundTripMillis) {
+
+	/**
+	 * 对端确实持有该仓库并已同步（拉取、克隆或本来就是最新）；SKIPPED表示对端没有这个仓库，不算确认
+	 */
+	public boolean acknowledged() {
+		return successful && !skipped();
+	}
+
+	public boolean skipped() {
+		return GitOperationResult.Status.SKIPPED.name().equals(status);
+	}
+}
@@ -0,0 +1,22 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.util.List;
+
+/**
+ * 请求对端同步并等待应答的汇总结果
+ */
+public record PeerSyncReport(
+		@Schema(description = "请求同步的仓库URL") String repoUrl,
+
+		@Schema(description = "需要的成功应答数") int requiredAcks,
+
+		@Schema(description = "收到的成功应答数（对端已拉取、克隆或本来就是最新）") int successfulAcks,
+
+		@Schema(description = "没有配置该仓库的节点的应答数（SKIPPED，不计入成功应答）") int skippedReplies,
+
+		@Schema(description = "是否在截止时间前收到了足够的成功应答") boolean complete,
+
+		@Schema(description = "按到达顺序排列的各对端应答") List<PeerSyncOutcome> outcomes) {
+}
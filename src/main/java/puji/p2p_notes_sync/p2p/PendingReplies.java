@@ -0,0 +1,49 @@
+package puji.p2p_notes_sync.p2p;
+
+import org.springframework.stereotype.Component;
+import puji.p2p_notes_sync.p2p.dto.P2PMessage;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 等待应答的P2P请求。发起请求前按messageId登记，带有对应inReplyTo的入站消息交给登记者，
+ * 而不再按普通消息分发。订阅结束（超时、取消或收到足够的应答）时自动注销。
+ */
+@Component
+public class PendingReplies {
+
+	private final Map<String, Sinks.Many<P2PMessage>> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * 登记一个请求，返回其应答流。应在发送请求之前调用，且调用方应限制流的时长。
+	 */
+	public Flux<P2PMessage> register(String requestId) {
+		Sinks.Many<P2PMessage> sink = Sinks.many().unicast().onBackpressureBuffer();
+		pending.put(requestId, sink);
+		return sink.asFlux().doFinally(signalType -> pending.remove(requestId, sink));
+	}
+
+	/**
+	 * 把应答交给等待它的请求
+	 *
+	 * @return 该消息是否为某个等待中的请求的应答
+	 */
+	public boolean complete(P2PMessage reply) {
+		Sinks.Many<P2PMessage> sink = reply.getInReplyTo() != null ? pending.get(reply.getInReplyTo()) : null;
+		if (sink == null) {
+			return false;
+		}
+		// 多个连接线程可能同时收到应答
+		synchronized (sink) {
+			sink.tryEmitNext(reply);
+		}
+		return true;
+	}
+
+	int size() {
+		return pending.size();
+	}
+}
@@ -0,0 +1,33 @@
+package puji.p2p_notes_sync.p2p;
+
+import java.util.Optional;
+
+/**
+ * P2P消息在WebSocket上的编码方式。JSON使用文本帧，CBOR使用二进制帧；接收方按帧类型解码。
+ */
+public enum WireEncoding {
+	JSON("json"),
+	CBOR("cbor");
+
+	private final String id;
+
+	WireEncoding(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * 在HELLO消息中交换的编码标识
+	 */
+	public String id() {
+		return id;
+	}
+
+	public static Optional<WireEncoding> fromId(String id) {
+		for (WireEncoding encoding : values()) {
+			if (encoding.id.equalsIgnoreCase(id)) {
+				return Optional.of(encoding);
+			}
+		}
+		return Optional.empty();
+	}
+}
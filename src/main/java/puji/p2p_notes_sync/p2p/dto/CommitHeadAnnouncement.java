@@ -0,0 +1,70 @@
+package puji.p2p_notes_sync.p2p.dto;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+// 推送成功后通告仓库分支的新提交，收到的节点本地已有该提交时不需要pull
+// 使用Git URL标识仓库，因为不同节点上同一仓库的别名可能不同
+@JsonTypeName("COMMIT_HEAD") // 必须与P2PMessage中定义的name匹配
+public class CommitHeadAnnouncement extends P2PMessage {
+	private String repoUrl; // 仓库URL
+	private String repoAlias; // 发送方的仓库别名（仅用于日志）
+	private String branch; // 被推送的分支名 (例如 "main")
+	private String commitId; // 推送后分支指向的提交SHA
+
+	public CommitHeadAnnouncement() {
+	}
+
+	public CommitHeadAnnouncement(String repoUrl, String repoAlias, String branch, String commitId) {
+		this.repoUrl = repoUrl;
+		this.repoAlias = repoAlias;
+		this.branch = branch;
+		this.commitId = commitId;
+	}
+
+	@Override
+	public String getType() {
+		return "COMMIT_HEAD";
+	}
+
+	public String getRepoUrl() {
+		return repoUrl;
+	}
+
+	public void setRepoUrl(String repoUrl) {
+		this.repoUrl = repoUrl;
+	}
+
+	public String getRepoAlias() {
+		return repoAlias;
+	}
+
+	public void setRepoAlias(String repoAlias) {
+		this.repoAlias = repoAlias;
+	}
+
+	public String getBranch() {
+		return branch;
+	}
+
+	public void setBranch(String branch) {
+		this.branch = branch;
+	}
+
+	public String getCommitId() {
+		return commitId;
+	}
+
+	public void setCommitId(String commitId) {
+		this.commitId = commitId;
+	}
+
+	@Override
+	public String toString() {
+		return "CommitHeadAnnouncement{" +
+				"repoUrl='" + repoUrl + '\'' +
+				", repoAlias='" + repoAlias + '\'' +
+				", branch='" + branch + '\'' +
+				", commitId='" + commitId + '\'' +
+				'}';
+	}
+}
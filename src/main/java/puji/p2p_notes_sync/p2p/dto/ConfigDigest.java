@@ -0,0 +1,61 @@
+package puji.p2p_notes_sync.p2p.dto;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import java.util.List;
+
+// 仓库配置集合的摘要，连接建立后和定期发给对端，用于反熵（anti-entropy）对账
+// 只包含每个条目的哈希和版本，不包含URL等内容；rootHash相同时对端不需要做任何事
+@JsonTypeName("CONFIG_DIGEST") // 必须与P2PMessage中定义的name匹配
+public class ConfigDigest extends P2PMessage {
+
+	/**
+	 * 一个仓库配置条目的摘要
+	 *
+	 * @param key     条目的键（小写的仓库别名）
+	 * @param hash    条目内容（别名、URL、是否已删除）的哈希
+	 * @param version 条目的版本，较大者为新
+	 */
+	public record Entry(String key, long hash, long version) {
+	}
+
+	private String rootHash; // 所有条目内容的哈希，与版本无关
+	private List<Entry> entries;
+
+	public ConfigDigest() {
+	}
+
+	public ConfigDigest(String rootHash, List<Entry> entries) {
+		this.rootHash = rootHash;
+		this.entries = entries;
+	}
+
+	@Override
+	public String getType() {
+		return "CONFIG_DIGEST";
+	}
+
+	public String getRootHash() {
+		return rootHash;
+	}
+
+	public void setRootHash(String rootHash) {
+		this.rootHash = rootHash;
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	public void setEntries(List<Entry> entries) {
+		this.entries = entries;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigDigest{" +
+				"rootHash='" + rootHash + '\'' +
+				", entries=" + (entries != null ? entries.size() : 0) +
+				'}';
+	}
+}
@@ -0,0 +1,65 @@
+package puji.p2p_notes_sync.p2p.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import java.util.List;
+
+// 对账中实际传输的仓库配置条目：收到摘要的一方发送本地较新的条目，并列出需要对方发送的条目
+// 注意：与 RepoConfigP2PNotification 一样不包含Git Token和本地路径
+@JsonTypeName("CONFIG_ENTRIES") // 必须与P2PMessage中定义的name匹配
+public class ConfigEntries extends P2PMessage {
+
+	/**
+	 * 一个仓库配置条目
+	 *
+	 * @param alias   仓库别名
+	 * @param gitUrl  仓库URL（已删除的条目为null）
+	 * @param version 条目的版本
+	 * @param removed 是否为删除标记（tombstone），用于传播删除
+	 */
+	public record Entry(String alias, String gitUrl, long version, boolean removed) {
+	}
+
+	private List<Entry> entries; // 发送方较新的条目
+
+	@JsonInclude(JsonInclude.Include.NON_EMPTY)
+	private List<String> wanted; // 接收方较新、需要其回传的条目的键
+
+	public ConfigEntries() {
+	}
+
+	public ConfigEntries(List<Entry> entries, List<String> wanted) {
+		this.entries = entries;
+		this.wanted = wanted;
+	}
+
+	@Override
+	public String getType() {
+		return "CONFIG_ENTRIES";
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+	public void setEntries(List<Entry> entries) {
+		this.entries = entries;
+	}
+
+	public List<String> getWanted() {
+		return wanted;
+	}
+
+	public void setWanted(List<String> wanted) {
+		this.wanted = wanted;
+	}
+
+	@Override
+	public String toString() {
+		return "ConfigEntries{" +
+				"entries=" + entries +
+				", wanted=" + wanted +
+				'}';
+	}
+}
@@ -1,5 +1,7 @@
 package puji.p2p_notes_sync.p2p.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
@@ -8,13 +10,78 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 )
 @JsonSubTypes({
 		@JsonSubTypes.Type(value = RepoConfigP2PNotification.class, name = "CONFIG_REPO"),
-		@JsonSubTypes.Type(value = RepoSyncP2PRequest.class, name = "REQUEST_SYNC")
+		@JsonSubTypes.Type(value = RepoSyncP2PRequest.class, name = "REQUEST_SYNC"),
+		@JsonSubTypes.Type(value = PeerHello.class, name = "HELLO"),
+		@JsonSubTypes.Type(value = ConfigDigest.class, name = "CONFIG_DIGEST"),
+		@JsonSubTypes.Type(value = ConfigEntries.class, name = "CONFIG_ENTRIES"),
+		@JsonSubTypes.Type(value = SyncResult.class, name = "SYNC_RESULT"),
+		@JsonSubTypes.Type(value = CommitHeadAnnouncement.class, name = "COMMIT_HEAD")
 // 未来可以添加更多消息类型
 })
 public abstract class P2PMessage {
-	// 可以包含所有消息共有的字段，比如发送者ID，时间戳等
-	// private String senderId;
-	// private long timestamp;
+	// 所有消息共有的字段，由发起节点在发送前填写，转发时保持不变。旧版本节点发出的消息中这些字段为null
 
+	// 全局唯一的消息ID，用于丢弃经转发、重复连接或重试而再次收到的消息
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String messageId;
+
+	// 发起节点的ID（见 NodeIdentity）
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String originNodeId;
+
+	// 发起时间（epoch毫秒）
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Long timestamp;
+
+	// gossip模式下剩余的转发跳数，每转发一次减1
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private Integer ttl;
+
+	// 应答消息对应的请求的messageId，请求方据此把应答交给等待它的调用者
+	@JsonInclude(JsonInclude.Include.NON_NULL)
+	private String inReplyTo;
+
+	public String getMessageId() {
+		return messageId;
+	}
+
+	public void setMessageId(String messageId) {
+		this.messageId = messageId;
+	}
+
+	public String getOriginNodeId() {
+		return originNodeId;
+	}
+
+	public void setOriginNodeId(String originNodeId) {
+		this.originNodeId = originNodeId;
+	}
+
+	public Long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(Long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public Integer getTtl() {
+		return ttl;
+	}
+
+	public void setTtl(Integer ttl) {
+		this.ttl = ttl;
+	}
+
+	public String getInReplyTo() {
+		return inReplyTo;
+	}
+
+	public void setInReplyTo(String inReplyTo) {
+		this.inReplyTo = inReplyTo;
+	}
+
+	// 类型标识已由 @JsonTypeInfo 写入，这里忽略getter以免"type"字段被重复序列化
+	@JsonIgnore
 	public abstract String getType(); // 子类需要实现此方法以匹配 @JsonSubTypes.Type 中的 name
 }
\ No newline at end of file
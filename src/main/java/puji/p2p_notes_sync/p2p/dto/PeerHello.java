@@ -0,0 +1,61 @@
+package puji.p2p_notes_sync.p2p.dto;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+import java.util.List;
+
+// 连接建立后双方首先发送的握手消息（始终使用JSON文本帧），用于交换节点标识和支持的编码
+// 旧版本节点不认识此消息类型，会忽略它并继续使用JSON
+@JsonTypeName("HELLO") // 必须与P2PMessage中定义的name匹配
+public class PeerHello extends P2PMessage {
+	private String nodeId; // 发送方节点的稳定标识
+	private int protocolVersion; // 发送方的P2P协议版本
+	private List<String> encodings; // 发送方支持的编码，按偏好排序 (例如 ["cbor", "json"])
+
+	public PeerHello() {
+	}
+
+	public PeerHello(String nodeId, int protocolVersion, List<String> encodings) {
+		this.nodeId = nodeId;
+		this.protocolVersion = protocolVersion;
+		this.encodings = encodings;
+	}
+
+	@Override
+	public String getType() {
+		return "HELLO";
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public int getProtocolVersion() {
+		return protocolVersion;
+	}
+
+	public void setProtocolVersion(int protocolVersion) {
+		this.protocolVersion = protocolVersion;
+	}
+
+	public List<String> getEncodings() {
+		return encodings;
+	}
+
+	public void setEncodings(List<String> encodings) {
+		this.encodings = encodings;
+	}
+
+	@Override
+	public String toString() {
+		return "PeerHello{" +
+				"nodeId='" + nodeId + '\'' +
+				", protocolVersion=" + protocolVersion +
+				", encodings=" + encodings +
+				'}';
+	}
+}
@@ -0,0 +1,91 @@
+package puji.p2p_notes_sync.p2p.dto;
+
+import com.fasterxml.jackson.annotation.JsonTypeName;
+
+// 对 REQUEST_SYNC 的应答：收到同步请求的节点完成pull后发回请求方（inReplyTo为请求的messageId）
+@JsonTypeName("SYNC_RESULT") // 必须与P2PMessage中定义的name匹配
+public class SyncResult extends P2PMessage {
+	private String nodeId; // 执行同步的节点
+	private String repoUrlOrAlias; // 请求中的仓库URL或别名
+	private String status; // GitOperationResult.Status 的名称
+	private boolean successful;
+	private String message; // Git操作的结果描述
+	private long durationMillis; // 该节点上pull的耗时（包括排队等待）
+
+	public SyncResult() {
+	}
+
+	public SyncResult(String nodeId, String repoUrlOrAlias, String status, boolean successful, String message,
+			long durationMillis) {
+		this.nodeId = nodeId;
+		this.repoUrlOrAlias = repoUrlOrAlias;
+		this.status = status;
+		this.successful = successful;
+		this.message = message;
+		this.durationMillis = durationMillis;
+	}
+
+	@Override
+	public String getType() {
+		return "SYNC_RESULT";
+	}
+
+	public String getNodeId() {
+		return nodeId;
+	}
+
+	public void setNodeId(String nodeId) {
+		this.nodeId = nodeId;
+	}
+
+	public String getRepoUrlOrAlias() {
+		return repoUrlOrAlias;
+	}
+
+	public void setRepoUrlOrAlias(String repoUrlOrAlias) {
+		this.repoUrlOrAlias = repoUrlOrAlias;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public boolean isSuccessful() {
+		return successful;
+	}
+
+	public void setSuccessful(boolean successful) {
+		this.successful = successful;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public long getDurationMillis() {
+		return durationMillis;
+	}
+
+	public void setDurationMillis(long durationMillis) {
+		this.durationMillis = durationMillis;
+	}
+
+	@Override
+	public String toString() {
+		return "SyncResult{" +
+				"nodeId='" + nodeId + '\'' +
+				", repoUrlOrAlias='" + repoUrlOrAlias + '\'' +
+				", status=" + status +
+				", durationMillis=" + durationMillis +
+				", inReplyTo='" + getInReplyTo() + '\'' +
+				'}';
+	}
+}
@@ -1,6 +1,7 @@
 package puji.p2p_notes_sync.service;
 
 import puji.p2p_notes_sync.config.RepositoryConfig;
+import puji.p2p_notes_sync.util.WriteBehindFile;
 // import puji.p2p_notes_sync.p2p.P2PCoordinatorService; // service层同级，应该放到controller进行
 
 import com.fasterxml.jackson.core.type.TypeReference;
@@ -8,37 +9,87 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Optional;
 
 @Service
 public class ConfigService {
 
 	private static final Logger logger = LoggerFactory.getLogger(ConfigService.class);
-	private static final String CONFIG_DIR = "data";
 	private static final String CONFIG_FILE_NAME = "repository_config.json";
 	private Path configFilePath;
 
 	private final ObjectMapper objectMapper;
+	private final ApplicationEventPublisher eventPublisher;
 	// private final P2PCoordinatorService p2pCoordinatorService; // 用于P2P广播
 
-	private List<RepositoryConfig> repositoryConfigs = new ArrayList<>();
+	/**
+	 * 配置列表及其索引的不可变快照。
+	 * <p>
+	 * 每次修改都在同步块内构建新快照并通过volatile引用发布，读取方无需加锁，
+	 * 也不会看到修改到一半的列表；按别名、按URL的查找都是O(1)。
+	 *
+	 * @param configs  全部配置（按添加顺序）
+	 * @param byAlias  规范化别名 -> 配置，别名重复时保留第一个
+	 * @param byGitUrl 规范化URL -> 配置（同一URL可能被克隆到多个本地路径）
+	 */
+	private record Snapshot(List<RepositoryConfig> configs, Map<String, RepositoryConfig> byAlias,
+			Map<String, List<RepositoryConfig>> byGitUrl) {
 
-	public ConfigService() {
+		static Snapshot of(List<RepositoryConfig> configs) {
+			Map<String, RepositoryConfig> byAlias = new HashMap<>();
+			Map<String, List<RepositoryConfig>> byGitUrl = new HashMap<>();
+			for (RepositoryConfig config : configs) {
+				if (config.alias() != null) {
+					byAlias.putIfAbsent(normalize(config.alias()), config);
+				}
+				if (config.gitUrl() != null) {
+					byGitUrl.computeIfAbsent(GitUrls.normalize(config.gitUrl()), key -> new ArrayList<>())
+							.add(config);
+				}
+			}
+			Map<String, List<RepositoryConfig>> frozenByGitUrl = new HashMap<>();
+			byGitUrl.forEach((url, list) -> frozenByGitUrl.put(url, List.copyOf(list)));
+			return new Snapshot(List.copyOf(configs), Map.copyOf(byAlias), Map.copyOf(frozenByGitUrl));
+		}
+	}
+
+	private volatile Snapshot snapshot = Snapshot.of(List.of());
+
+	// 延迟写盘：一段时间内的多次修改（例如P2P批量复制配置）合并为一次写入
+	private final WriteBehindFile<Snapshot> configWriter;
+
+	@Autowired
+	public ConfigService(ApplicationEventPublisher eventPublisher,
+			@Value("${p2p.config.write-delay:200ms}") Duration writeDelay,
+			@Value("${p2p.data-dir:data}") String dataDir) {
+		this(eventPublisher, Paths.get("").toAbsolutePath().resolve(dataDir).resolve(CONFIG_FILE_NAME), writeDelay);
+	}
+
+	ConfigService(ApplicationEventPublisher eventPublisher, Path configFilePath, Duration writeDelay) {
+		this.eventPublisher = eventPublisher;
 		this.objectMapper = new ObjectMapper();
 		this.objectMapper.enable(SerializationFeature.INDENT_OUTPUT);
-
-		Path projectRoot = Paths.get("").toAbsolutePath();
-		this.configFilePath = projectRoot.resolve(CONFIG_DIR).resolve(CONFIG_FILE_NAME);
+		this.configFilePath = configFilePath;
+		this.configWriter = new WriteBehindFile<>(configFilePath, writeDelay, "config-writer", () -> snapshot,
+				current -> objectMapper.writeValueAsBytes(current.configs()));
 
 		try {
 			Files.createDirectories(this.configFilePath.getParent());
@@ -57,54 +108,84 @@ public class ConfigService {
 		File configFile = configFilePath.toFile();
 		if (configFile.exists() && configFile.length() > 0) { // 检查文件是否为空
 			try {
-				repositoryConfigs = objectMapper.readValue(configFile, new TypeReference<List<RepositoryConfig>>() {
-				});
-				logger.info("Configurations loaded successfully for {} repositories from {}", repositoryConfigs.size(),
+				List<RepositoryConfig> loaded = objectMapper.readValue(configFile,
+						new TypeReference<List<RepositoryConfig>>() {
+						});
+				snapshot = Snapshot.of(loaded);
+				logger.info("Configurations loaded successfully for {} repositories from {}", loaded.size(),
 						configFilePath);
 			} catch (IOException e) {
 				logger.error("Error loading configurations from {}: {}", configFilePath, e.getMessage(), e);
-				repositoryConfigs = new ArrayList<>(); // 出错则使用空列表
+				snapshot = Snapshot.of(List.of()); // 出错则使用空列表
 				logger.warn("Falling back to empty configuration list.");
 			}
 		} else {
 			logger.warn("Configuration file {} not found or is empty. Initializing with an empty list.",
 					configFilePath);
-			repositoryConfigs = new ArrayList<>();
+			snapshot = Snapshot.of(List.of());
 			// saveConfigs(); // 首次可以不保存空列表，等用户添加
 			createEmptyConfigFile(); // 创建一个包含空数组的配置文件
 		}
+		// 刚加载的内容视为已保存：文件损坏时不会在关闭时被空列表覆盖
+		configWriter.markPersisted(snapshot);
 	}
 
 	private synchronized void createEmptyConfigFile() {
 		try {
-			// 确保父目录存在
-			Files.createDirectories(configFilePath.getParent());
-
 			// 写入空JSON数组
-			objectMapper.writeValue(configFilePath.toFile(), new ArrayList<>());
+			configWriter.writeAtomically(objectMapper.writeValueAsBytes(List.of()));
 			logger.info("Created empty configuration file with [] at {}", configFilePath);
 		} catch (IOException e) {
 			logger.error("Failed to create empty configuration file at {}: {}", configFilePath, e.getMessage(), e);
 		}
 	}
 
-	private synchronized void saveConfigs() {
-		try {
-			objectMapper.writeValue(configFilePath.toFile(), repositoryConfigs);
-			logger.info("Configurations saved successfully to {}", configFilePath);
-		} catch (IOException e) {
-			logger.error("Error saving configurations to {}: {}", configFilePath, e.getMessage(), e);
-		}
+	/**
+	 * 安排一次延迟写盘；已有待执行的写入时什么也不做，那次写入会带上这次修改
+	 */
+	private void saveConfigs() {
+		configWriter.schedule();
+	}
+
+	/**
+	 * 立即把当前配置写入文件（没有未保存的修改时不写）
+	 */
+	public void flush() {
+		configWriter.flush();
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		configWriter.close();
 	}
 
 	public List<RepositoryConfig> getAllRepositoryConfigs() {
-		return new ArrayList<>(repositoryConfigs); // 返回副本以防外部修改
+		return snapshot.configs(); // 不可变快照，外部无法修改
 	}
 
 	public Optional<RepositoryConfig> getRepositoryConfigByAlias(String alias) {
-		return repositoryConfigs.stream()
-				.filter(config -> config.alias().equalsIgnoreCase(alias))
-				.findFirst();
+		if (alias == null) {
+			return Optional.empty();
+		}
+		return Optional.ofNullable(snapshot.byAlias().get(normalize(alias)));
+	}
+
+	/**
+	 * 按Git URL（按 {@link GitUrls#normalize} 规范化后比较）查找配置；同一URL可能被克隆到多个本地路径，因此返回列表
+	 */
+	public List<RepositoryConfig> getRepositoryConfigsByGitUrl(String gitUrl) {
+		if (gitUrl == null) {
+			return List.of();
+		}
+		return snapshot.byGitUrl().getOrDefault(GitUrls.normalize(gitUrl), List.of());
+	}
+
+	/**
+	 * 先按别名、再按Git URL查找配置（P2P消息中的仓库标识可能是其中任意一种）
+	 */
+	public Optional<RepositoryConfig> getRepositoryConfigByAliasOrGitUrl(String aliasOrUrl) {
+		return getRepositoryConfigByAlias(aliasOrUrl)
+				.or(() -> getRepositoryConfigsByGitUrl(aliasOrUrl).stream().findFirst());
 	}
 
 	public synchronized boolean addRepositoryConfig(RepositoryConfig newRepoConfig) {
@@ -116,8 +197,11 @@ public class ConfigService {
 			logger.warn("Repository with alias '{}' already exists. Cannot add.", newRepoConfig.alias());
 			return false; // 别名已存在
 		}
-		repositoryConfigs.add(newRepoConfig);
+		List<RepositoryConfig> configs = new ArrayList<>(snapshot.configs());
+		configs.add(newRepoConfig);
+		snapshot = Snapshot.of(configs);
 		saveConfigs();
+		publishChange(RepositoryConfigChangedEvent.ChangeType.ADDED, null, newRepoConfig);
 		// p2pCoordinatorService.broadcastNewRepositoryConfiguration(newRepoConfig); // 广播新配置
 		// 这里可以选择是否立即同步新添加的仓库
 		// p2pCoordinatorService.broadcastSyncRequest(newRepoConfig.gitUrl());
@@ -126,9 +210,13 @@ public class ConfigService {
 	}
 
 	public synchronized boolean removeRepositoryConfig(String alias) {
-		boolean removed = repositoryConfigs.removeIf(config -> config.alias().equalsIgnoreCase(alias));
+		Optional<RepositoryConfig> existing = getRepositoryConfigByAlias(alias);
+		List<RepositoryConfig> configs = new ArrayList<>(snapshot.configs());
+		boolean removed = configs.removeIf(config -> config.alias().equalsIgnoreCase(alias));
 		if (removed) {
+			snapshot = Snapshot.of(configs);
 			saveConfigs();
+			publishChange(RepositoryConfigChangedEvent.ChangeType.REMOVED, existing.orElse(null), null);
 			logger.info("Repository '{}' removed.", alias);
 			// p2pCoordinatorService.broadcastRemovedRepositoryConfiguration(alias); // 广播删除配置
 			// 这里可以选择是否立即同步删除的仓库
@@ -156,10 +244,13 @@ public class ConfigService {
 			return false;
 		}
 
-		for (int i = 0; i < repositoryConfigs.size(); i++) {
-			if (repositoryConfigs.get(i).alias().equalsIgnoreCase(alias)) {
-				repositoryConfigs.set(i, updatedRepoConfig);
+		List<RepositoryConfig> configs = new ArrayList<>(snapshot.configs());
+		for (int i = 0; i < configs.size(); i++) {
+			if (configs.get(i).alias().equalsIgnoreCase(alias)) {
+				RepositoryConfig previous = configs.set(i, updatedRepoConfig);
+				snapshot = Snapshot.of(configs);
 				saveConfigs();
+				publishChange(RepositoryConfigChangedEvent.ChangeType.UPDATED, previous, updatedRepoConfig);
 				// p2pCoordinatorService.broadcastNewRepositoryConfiguration(updatedRepoConfig); // 广播更新配置
 				// 这里可以选择是否立即同步更新的仓库
 				// p2pCoordinatorService.broadcastSyncRequest(updatedRepoConfig.gitUrl());
@@ -170,4 +261,13 @@ public class ConfigService {
 		logger.warn("Repository with alias '{}' not found for update.", alias);
 		return false;
 	}
+
+	private static String normalize(String key) {
+		return key.toLowerCase(Locale.ROOT);
+	}
+
+	private void publishChange(RepositoryConfigChangedEvent.ChangeType changeType, RepositoryConfig previous,
+			RepositoryConfig current) {
+		eventPublisher.publishEvent(new RepositoryConfigChangedEvent(changeType, previous, current));
+	}
 }
\ No newline at end of file
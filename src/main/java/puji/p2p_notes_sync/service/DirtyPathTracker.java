@@ -0,0 +1,140 @@
+package puji.p2p_notes_sync.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 记录每个仓库工作区中自上次提交以来可能发生变化的路径（相对于工作区根目录，使用 {@code /} 分隔）。
+ * <p>
+ * 路径由 {@link RepositoryWatchService} 的文件事件提供。只有在"可信"状态下才能用它代替完整的 {@code git status}：
+ * 监听开始后必须先完成一次完整status作为基线；事件队列溢出、记录的路径超过上限时重新变为不可信，
+ * 下一次提交会回退到完整status并重新建立基线。记录的路径可能多于实际变化（例如pull改写的文件），
+ * 多出的路径会在提交时被限定范围的status排除，因此只会多做少量工作，不会漏掉更改。
+ */
+@Component
+public class DirtyPathTracker {
+
+	private static final Logger logger = LoggerFactory.getLogger(DirtyPathTracker.class);
+
+	private final Map<String, State> states = new ConcurrentHashMap<>();
+
+	@Value("${p2p.git.dirty-tracking.max-paths:10000}") // 超过此数量时放弃增量记录，回退到完整status
+	private int maxPaths = 10000;
+
+	/**
+	 * 一次取出的变化路径
+	 *
+	 * @param trusted 是否可以只检查这些路径；为false时必须执行完整status
+	 * @param paths   取出的路径
+	 * @param epoch   取出时的失效计数，用于判断基线建立期间是否发生过失效
+	 */
+	public record Snapshot(boolean trusted, Set<String> paths, long epoch) {
+
+		static final Snapshot UNTRACKED = new Snapshot(false, Set.of(), -1);
+	}
+
+	/**
+	 * 开始记录仓库的变化路径。必须在注册文件监听之前调用，初始状态为不可信。
+	 */
+	public void startTracking(String localPath) {
+		states.put(RepositoryPaths.normalize(localPath), new State());
+	}
+
+	public void stopTracking(String localPath) {
+		states.remove(RepositoryPaths.normalize(localPath));
+	}
+
+	public void markDirty(String localPath, String relativePath) {
+		State state = states.get(RepositoryPaths.normalize(localPath));
+		if (state == null) {
+			return;
+		}
+		synchronized (state) {
+			// 不可信时也要记录：完整status进行期间发生的变化可能已被遍历错过，基线建立后要靠这些路径补上
+			state.paths.add(relativePath);
+			if (state.paths.size() > maxPaths) {
+				logger.info("More than {} changed paths tracked for {}, falling back to a full status.", maxPaths,
+						localPath);
+				invalidate(state);
+			}
+		}
+	}
+
+	/**
+	 * 丢弃已记录的路径并标记为不可信（例如文件事件溢出时）
+	 */
+	public void invalidate(String localPath) {
+		State state = states.get(RepositoryPaths.normalize(localPath));
+		if (state != null) {
+			synchronized (state) {
+				invalidate(state);
+			}
+		}
+	}
+
+	/**
+	 * 取出并清空当前记录的路径。提交失败时应调用 {@link #restore(String, Snapshot)} 放回。
+	 */
+	public Snapshot drain(String localPath) {
+		State state = states.get(RepositoryPaths.normalize(localPath));
+		if (state == null) {
+			return Snapshot.UNTRACKED;
+		}
+		synchronized (state) {
+			Snapshot snapshot = new Snapshot(state.trusted, Set.copyOf(state.paths), state.epoch);
+			state.paths.clear();
+			return snapshot;
+		}
+	}
+
+	/**
+	 * 将取出但没有成功提交的路径放回
+	 */
+	public void restore(String localPath, Snapshot snapshot) {
+		State state = states.get(RepositoryPaths.normalize(localPath));
+		if (state == null) {
+			return;
+		}
+		synchronized (state) {
+			if (state.trusted && state.epoch == snapshot.epoch()) {
+				state.paths.addAll(snapshot.paths());
+			}
+		}
+	}
+
+	/**
+	 * 完整status（及随后的提交）完成后调用：如果期间没有发生失效，则之后可以只检查记录的路径。
+	 * 完整status期间产生的文件事件已经记录在集合中，因此不会丢失。
+	 */
+	public void markBaseline(String localPath, Snapshot snapshot) {
+		State state = states.get(RepositoryPaths.normalize(localPath));
+		if (state == null) {
+			return;
+		}
+		synchronized (state) {
+			if (!state.trusted && state.epoch == snapshot.epoch()) {
+				state.trusted = true;
+				logger.debug("Dirty path tracking is now trusted for {}", localPath);
+			}
+		}
+	}
+
+	private static void invalidate(State state) {
+		state.trusted = false;
+		state.paths.clear();
+		state.epoch++;
+	}
+
+	private static final class State {
+		private final Set<String> paths = new HashSet<>();
+		private boolean trusted;
+		private long epoch;
+	}
+}
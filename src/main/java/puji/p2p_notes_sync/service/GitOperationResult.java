@@ -0,0 +1,33 @@
+package puji.p2p_notes_sync.service;
+
+/**
+ * Git clone/pull 操作的结构化结果，调用方无需再通过匹配结果字符串来判断成败。
+ *
+ * @param status  结果状态
+ * @param message 面向用户的结果描述（与原先返回的字符串一致）
+ */
+public record GitOperationResult(Status status, String message) {
+
+	public enum Status {
+		/** 本地不存在仓库，已完成克隆 */
+		CLONED,
+		/** 拉取到了新的提交 */
+		UPDATED,
+		/** 已提交（如有更改）并推送 */
+		PUSHED,
+		/** 本地已是最新 */
+		UP_TO_DATE,
+		/** 未执行任何操作（例如目标目录已存在，跳过克隆） */
+		SKIPPED,
+		/** 操作失败 */
+		FAILED
+	}
+
+	public boolean isSuccessful() {
+		return status != Status.FAILED;
+	}
+
+	static GitOperationResult of(Status status, String message) {
+		return new GitOperationResult(status, message);
+	}
+}
@@ -0,0 +1,36 @@
+package puji.p2p_notes_sync.service;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * Git操作（clone/pull/push）的进度事件，通过SSE流式推送给客户端。
+ * 操作过程中发出若干 PROGRESS 事件，结束时发出一个 RESULT 事件。
+ */
+public record GitProgressEvent(
+		@Schema(description = "事件类型") Type type,
+
+		@Schema(description = "JGit当前任务名称，例如 \"Receiving objects\"、\"Resolving deltas\"", example = "Receiving objects") String task,
+
+		@Schema(description = "当前任务已完成的工作单元数（JGit以对象/增量等为单位，而非字节）") int completed,
+
+		@Schema(description = "当前任务的总工作单元数，未知时为0") int total,
+
+		@Schema(description = "当前任务完成百分比，总量未知时为null") Integer percent,
+
+		@Schema(description = "操作结果状态，仅RESULT事件有值") GitOperationResult.Status status,
+
+		@Schema(description = "操作结果信息，仅RESULT事件有值") String message) {
+
+	public enum Type {
+		PROGRESS, RESULT
+	}
+
+	static GitProgressEvent progress(String task, int completed, int total) {
+		Integer percent = total > 0 ? (int) Math.min(100, completed * 100L / total) : null;
+		return new GitProgressEvent(Type.PROGRESS, task, completed, total, percent, null, null);
+	}
+
+	static GitProgressEvent result(GitOperationResult result) {
+		return new GitProgressEvent(Type.RESULT, null, 0, 0, null, result.status(), result.message());
+	}
+}
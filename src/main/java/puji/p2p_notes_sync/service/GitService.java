@@ -1,24 +1,50 @@
 package puji.p2p_notes_sync.service;
 
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.CloneCommand;
 import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.PullCommand;
 import org.eclipse.jgit.api.PullResult;
 import org.eclipse.jgit.api.RemoteAddCommand;
+import org.eclipse.jgit.api.TransportConfigCallback;
 import org.eclipse.jgit.api.Status; // 新增导入 for checking if there are changes
+import org.eclipse.jgit.api.StatusCommand;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.BranchConfig;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent; // 新增导入
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
-import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.FilterSpec;
+import org.eclipse.jgit.errors.InvalidObjectIdException;
 import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
 import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import puji.p2p_notes_sync.config.RepositoryConfig;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
 
 import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
@@ -26,6 +52,22 @@ public class GitService {
 
 	private static final Logger logger = LoggerFactory.getLogger(GitService.class);
 
+	private final RepositoryHandleCache repositoryHandleCache;
+	private final RepositoryOperationQueue operationQueue;
+	private final DirtyPathTracker dirtyPathTracker;
+	private final ApplicationEventPublisher eventPublisher;
+
+	@Value("${p2p.git.pull.ls-remote-precheck:true}") // pull前先用ls-remote判断远程是否有变化
+	private boolean lsRemotePrecheck = true;
+
+	public GitService(RepositoryHandleCache repositoryHandleCache, RepositoryOperationQueue operationQueue,
+			DirtyPathTracker dirtyPathTracker, ApplicationEventPublisher eventPublisher) {
+		this.repositoryHandleCache = repositoryHandleCache;
+		this.operationQueue = operationQueue;
+		this.dirtyPathTracker = dirtyPathTracker;
+		this.eventPublisher = eventPublisher;
+	}
+
 	private UsernamePasswordCredentialsProvider getCredentialsProvider(String token) {
 		// 对于许多Git服务商（如GitHub, GitLab），PAT通常用作密码，用户名可以是任意非空字符串或特定值。
 		// "PRIVATE-TOKEN" 或 "oauth2" 是常见的占位用户名，或者直接使用实际用户名。
@@ -37,108 +79,439 @@ public class GitService {
 		return new UsernamePasswordCredentialsProvider("PRIVATE-TOKEN", token);
 	}
 
-	private Repository openRepository(RepositoryConfig config) throws IOException {
+	private RepositoryHandleCache.Lease openRepository(RepositoryConfig config) throws IOException {
 		File repoDirFile = new File(config.localPath(), ".git");
 		if (!repoDirFile.exists() || !repoDirFile.isDirectory()) {
 			logger.error("Repository at {} does not seem to exist or is not a git repository.", config.localPath());
 			throw new IOException("Git repository not found at " + config.localPath());
 		}
-		return new FileRepositoryBuilder().setGitDir(repoDirFile).readEnvironment().findGitDir().build();
+		// 复用缓存中已打开的句柄，避免重复读取config、refs和pack索引
+		return repositoryHandleCache.acquire(config);
 	}
 
 	public String cloneRepository(RepositoryConfig config) {
+		return clone(config, NullProgressMonitor.INSTANCE).message();
+	}
+
+	private GitOperationResult clone(RepositoryConfig config, ProgressMonitor monitor) {
+		return operationQueue.execute(config.localPath(), RepositoryOperationQueue.OperationType.CLONE,
+				() -> doCloneRepository(config, monitor));
+	}
+
+	/**
+	 * 拉取远程更新。同一仓库排队中的多个pull请求会被合并为一次。
+	 */
+	public String pullRepository(RepositoryConfig config) {
+		return pull(config).message();
+	}
+
+	/**
+	 * 拉取远程更新并返回结构化结果；本地仓库不存在时会先克隆。
+	 */
+	public GitOperationResult pull(RepositoryConfig config) {
+		return pull(config, NullProgressMonitor.INSTANCE);
+	}
+
+	private GitOperationResult pull(RepositoryConfig config, ProgressMonitor monitor) {
+		return operationQueue.execute(config.localPath(), RepositoryOperationQueue.OperationType.PULL,
+				() -> doPullRepository(config, monitor));
+	}
+
+	/**
+	 * 以有限并发拉取多个仓库，每个仓库完成后立即发出其结果，而不是等待最慢的仓库。
+	 *
+	 * @param configs     要同步的仓库配置
+	 * @param parallelism 同时进行的最大拉取数
+	 * @return 按完成顺序发出的各仓库同步结果
+	 */
+	public Flux<RepositorySyncResult> pullRepositories(List<RepositoryConfig> configs, int parallelism) {
+		return Flux.fromIterable(configs)
+				.flatMap(config -> Mono.fromCallable(() -> timedPull(config))
+						.subscribeOn(Schedulers.boundedElastic()), Math.max(1, parallelism));
+	}
+
+	private RepositorySyncResult timedPull(RepositoryConfig config) {
+		long start = System.nanoTime();
+		GitOperationResult result;
+		try {
+			result = pull(config);
+		} catch (RuntimeException e) {
+			logger.error("Unexpected error while pulling {}: {}", config.alias(), e.getMessage(), e);
+			result = GitOperationResult.of(GitOperationResult.Status.FAILED, "Unexpected error: " + e.getMessage());
+		}
+		return new RepositorySyncResult(config.alias(), result.status(), result.isSuccessful(), result.message(),
+				Duration.ofNanos(System.nanoTime() - start).toMillis());
+	}
+
+	/**
+	 * 添加所有更改、提交并推送到远程仓库。
+	 *
+	 * @param config        仓库配置
+	 * @param commitMessage 提交信息
+	 * @param authorName    提交者名称 (如果为null，JGit会尝试使用Git配置)
+	 * @param authorEmail   提交者邮箱 (如果为null，JGit会尝试使用Git配置)
+	 * @return 操作结果信息
+	 */
+	public String addCommitAndPush(RepositoryConfig config, String commitMessage, String authorName,
+			String authorEmail) {
+		return addCommitAndPush(config, commitMessage, authorName, authorEmail, NullProgressMonitor.INSTANCE)
+				.message();
+	}
+
+	/**
+	 * 仅在工作区有更改时添加、提交并推送；工作区干净时不推送，直接返回 UP_TO_DATE。
+	 * 用于文件监听触发的自动提交，避免每次无实际变化的文件事件都访问远程。
+	 */
+	public GitOperationResult commitChangesAndPush(RepositoryConfig config, String commitMessage, String authorName,
+			String authorEmail) {
+		return operationQueue.execute(config.localPath(), RepositoryOperationQueue.OperationType.COMMIT_PUSH,
+				() -> doAddCommitAndPush(config, commitMessage, authorName, authorEmail, NullProgressMonitor.INSTANCE,
+						false));
+	}
+
+	private GitOperationResult addCommitAndPush(RepositoryConfig config, String commitMessage, String authorName,
+			String authorEmail, ProgressMonitor monitor) {
+		return operationQueue.execute(config.localPath(), RepositoryOperationQueue.OperationType.COMMIT_PUSH,
+				() -> doAddCommitAndPush(config, commitMessage, authorName, authorEmail, monitor, true));
+	}
+
+	/**
+	 * 本地分支是否已包含指定提交（提交存在且是分支头或其祖先）。仓库尚未克隆、没有该分支或SHA无效时返回false。
+	 */
+	public boolean containsCommit(RepositoryConfig config, String branch, String commitId) {
+		if (!new File(config.localPath(), ".git").isDirectory()) {
+			return false;
+		}
+		try (RepositoryHandleCache.Lease lease = openRepository(config)) {
+			Repository repository = lease.repository();
+			ObjectId commit = ObjectId.fromString(commitId);
+			Ref branchRef = repository.exactRef(toBranchRef(branch));
+			if (branchRef == null || branchRef.getObjectId() == null || !repository.getObjectDatabase().has(commit)) {
+				return false;
+			}
+			return isMergedInto(repository, commit, branchRef.getObjectId());
+		} catch (IOException | InvalidObjectIdException e) {
+			logger.debug("Could not check for commit {} in {}: {}", commitId, config.localPath(), e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * 克隆仓库，并以事件流的形式返回JGit进度，最后一个事件为操作结果。
+	 */
+	public Flux<GitProgressEvent> cloneWithProgress(RepositoryConfig config) {
+		return streamProgress(monitor -> clone(config, monitor));
+	}
+
+	/**
+	 * 拉取仓库，并以事件流的形式返回JGit进度，最后一个事件为操作结果。
+	 * 如果本次请求被合并进了已排队的pull，则只会收到结果事件。
+	 */
+	public Flux<GitProgressEvent> pullWithProgress(RepositoryConfig config) {
+		return streamProgress(monitor -> pull(config, monitor));
+	}
+
+	/**
+	 * 提交并推送，并以事件流的形式返回推送进度，最后一个事件为操作结果。
+	 */
+	public Flux<GitProgressEvent> addCommitAndPushWithProgress(RepositoryConfig config, String commitMessage,
+			String authorName, String authorEmail) {
+		return streamProgress(monitor -> addCommitAndPush(config, commitMessage, authorName, authorEmail, monitor));
+	}
+
+	private Flux<GitProgressEvent> streamProgress(Function<ProgressMonitor, GitOperationResult> operation) {
+		return Flux.defer(() -> {
+			Sinks.Many<GitProgressEvent> sink = Sinks.many().unicast().onBackpressureBuffer();
+			SinkProgressMonitor monitor = new SinkProgressMonitor(sink);
+			Mono.fromCallable(() -> operation.apply(monitor))
+					.subscribeOn(Schedulers.boundedElastic())
+					.subscribe(result -> {
+						synchronized (monitor) { // 与进度事件的发送互斥，保证结果事件最后发出
+							sink.tryEmitNext(GitProgressEvent.result(result));
+							sink.tryEmitComplete();
+						}
+					}, error -> {
+						synchronized (monitor) {
+							sink.tryEmitError(error);
+						}
+					});
+			return sink.asFlux();
+		});
+	}
+
+	// 以下 do* 方法只在仓库操作队列中执行，同一仓库同一时刻只会有一个在运行
+
+	private GitOperationResult doCloneRepository(RepositoryConfig config, ProgressMonitor monitor) {
 		File localDir = new File(config.localPath());
 		if (localDir.exists()) {
 			logger.info("Directory {} already exists. Skipping clone. Consider pull.", config.localPath());
-			return "Directory already exists. Consider pull.";
+			return GitOperationResult.of(GitOperationResult.Status.SKIPPED, "Directory already exists. Consider pull.");
 		}
 
 		logger.info("Cloning repository {} into {} using JGit", config.gitUrl(), config.localPath());
-		try (Git result = Git.cloneRepository()
+		repositoryHandleCache.invalidate(config.localPath()); // 丢弃可能残留的旧句柄
+		dirtyPathTracker.invalidate(config.localPath()); // 新检出的工作区需要重新建立基线
+		CloneCommand cloneCommand = Git.cloneRepository()
 				.setURI(config.gitUrl())
 				.setDirectory(localDir)
 				.setCredentialsProvider(getCredentialsProvider(config.token())) // 设置凭证
-				.call()) {
+				.setProgressMonitor(monitor);
+		try {
+			applyCloneOptions(cloneCommand, config);
+		} catch (GitAPIException | IOException e) {
+			logger.error("Invalid clone options for {}: {}", config.gitUrl(), e.getMessage(), e);
+			return GitOperationResult.of(GitOperationResult.Status.FAILED,
+					"JGit clone failed: invalid clone options: " + e.getMessage());
+		}
+
+		try (Git result = cloneCommand.call()) {
 			logger.info("Clone successful for {}. Repository cloned to: {}", config.gitUrl(),
 					result.getRepository().getDirectory());
-			return "Clone successful. Repository at: " + result.getRepository().getDirectory();
+			return GitOperationResult.of(GitOperationResult.Status.CLONED,
+					"Clone successful. Repository at: " + result.getRepository().getDirectory());
 		} catch (GitAPIException e) {
 			logger.error("JGit clone failed for {}: {}", config.gitUrl(), e.getMessage(), e);
-			return "JGit clone failed: " + e.getMessage();
+			return GitOperationResult.of(GitOperationResult.Status.FAILED, "JGit clone failed: " + e.getMessage());
 		}
 	}
 
-	public String pullRepository(RepositoryConfig config) {
+	/**
+	 * 根据仓库配置中的克隆选项设置浅克隆深度、单分支和部分克隆过滤器。
+	 */
+	private void applyCloneOptions(CloneCommand cloneCommand, RepositoryConfig config)
+			throws GitAPIException, IOException {
+		RepositoryConfig.CloneOptions options = config.cloneOptions();
+		if (options == null) {
+			return;
+		}
+		if (options.shallow()) {
+			cloneCommand.setDepth(options.depth());
+		}
+		String branch = options.hasBranch() ? toBranchRef(options.branch()) : null;
+		if (options.singleBranchOnly()) {
+			if (branch == null) {
+				branch = resolveRemoteDefaultBranch(config);
+			}
+			if (branch != null) {
+				// 只获取该分支，remote.origin.fetch 也会只包含该分支，之后的pull同样只拉取它
+				cloneCommand.setCloneAllBranches(false).setBranchesToClone(List.of(branch));
+			} else {
+				logger.warn("Could not determine default branch of {}. Cloning all branches.", config.gitUrl());
+			}
+		}
+		if (branch != null) {
+			cloneCommand.setBranch(branch);
+		}
+		TransportConfigCallback filterCallback = filterCallback(options);
+		if (filterCallback != null) {
+			cloneCommand.setTransportConfigCallback(filterCallback);
+		}
+	}
+
+	private TransportConfigCallback filterCallback(RepositoryConfig.CloneOptions options) throws IOException {
+		if (options == null || !options.hasFilter()) {
+			return null;
+		}
+		FilterSpec filterSpec = FilterSpec.fromFilterLine(options.filter().trim());
+		return transport -> transport.setFilterSpec(filterSpec);
+	}
+
+	private String resolveRemoteDefaultBranch(RepositoryConfig config) throws GitAPIException {
+		Map<String, Ref> remoteRefs = Git.lsRemoteRepository()
+				.setRemote(config.gitUrl())
+				.setCredentialsProvider(getCredentialsProvider(config.token()))
+				.callAsMap();
+		Ref head = remoteRefs.get(Constants.HEAD);
+		if (head == null) {
+			return null;
+		}
+		if (head.isSymbolic()) {
+			return head.getTarget().getName();
+		}
+		// 服务端未通告symref时，找一个与HEAD指向同一提交的分支
+		return remoteRefs.values().stream()
+				.filter(ref -> ref.getName().startsWith(Constants.R_HEADS))
+				.filter(ref -> head.getObjectId() != null && head.getObjectId().equals(ref.getObjectId()))
+				.map(Ref::getName)
+				.findFirst()
+				.orElse(null);
+	}
+
+	private static String toBranchRef(String branch) {
+		String trimmed = branch.trim();
+		return trimmed.startsWith(Constants.R_HEADS) ? trimmed : Constants.R_HEADS + trimmed;
+	}
+
+	private GitOperationResult doPullRepository(RepositoryConfig config, ProgressMonitor monitor) {
 		File repoDirFile = new File(config.localPath(), ".git"); // JGit需要指向.git目录或其父目录
-		File workTree = repoDirFile.getParentFile();
 
 		if (!repoDirFile.exists() || !repoDirFile.isDirectory()) {
 			logger.warn("Repository at {} does not seem to exist or is not a git repository. Attempting clone first.",
 					config.localPath());
-			return cloneRepository(config);
+			return doCloneRepository(config, monitor);
 		}
 
 		logger.info("Pulling latest changes for repository at {} using JGit", config.localPath());
-		// 使用 FileRepositoryBuilder 打开现有仓库
-		try (Repository repository = new FileRepositoryBuilder().setGitDir(repoDirFile).readEnvironment().findGitDir()
-				.build();
-				Git git = new Git(repository)) {
+		// 从句柄缓存获取已打开的仓库
+		try (RepositoryHandleCache.Lease lease = openRepository(config);
+				Git git = new Git(lease.repository())) {
 
-			PullResult pullResult = git.pull()
+			if (lsRemotePrecheck) {
+				GitOperationResult unchanged = checkRemoteUnchanged(git, config);
+				if (unchanged != null) {
+					return unchanged;
+				}
+			}
+
+			// 浅克隆仓库的pull会沿用.git/shallow中的边界，只获取新提交而不会补全历史；
+			// 单分支克隆的fetch refspec已限定为该分支。这里只需再带上部分克隆过滤器。
+			PullCommand pullCommand = git.pull()
 					.setCredentialsProvider(getCredentialsProvider(config.token())) // 设置凭证
-					.call();
+					.setProgressMonitor(monitor);
+			TransportConfigCallback filterCallback = filterCallback(config.cloneOptions());
+			if (filterCallback != null) {
+				pullCommand.setTransportConfigCallback(filterCallback);
+			}
+			PullResult pullResult = pullCommand.call();
 
 			if (pullResult.isSuccessful()) {
 				logger.info("JGit pull successful for {}. Merge status: {}", config.localPath(),
 						pullResult.getMergeResult() != null ? pullResult.getMergeResult().getMergeStatus() : "N/A");
-				return "JGit pull successful. Fetch result: " + pullResult.getFetchResult().getMessages() +
-						(pullResult.getMergeResult() != null
-								? " Merge status: " + pullResult.getMergeResult().getMergeStatus()
-								: "");
+				boolean upToDate = pullResult.getMergeResult() != null
+						&& pullResult.getMergeResult().getMergeStatus() == MergeResult.MergeStatus.ALREADY_UP_TO_DATE;
+				return GitOperationResult.of(
+						upToDate ? GitOperationResult.Status.UP_TO_DATE : GitOperationResult.Status.UPDATED,
+						"JGit pull successful. Fetch result: " + pullResult.getFetchResult().getMessages() +
+								(pullResult.getMergeResult() != null
+										? " Merge status: " + pullResult.getMergeResult().getMergeStatus()
+										: ""));
 			} else {
 				logger.error("JGit pull not reported as successful for {}. Fetch result: {}, Merge result: {}",
 						config.localPath(),
 						pullResult.getFetchResult() != null ? pullResult.getFetchResult().getMessages() : "N/A",
 						pullResult.getMergeResult() != null ? pullResult.getMergeResult().getMergeStatus() : "N/A");
-				return "JGit pull not successful. Fetch: "
+				return GitOperationResult.of(GitOperationResult.Status.FAILED, "JGit pull not successful. Fetch: "
 						+ (pullResult.getFetchResult() != null ? pullResult.getFetchResult().getMessages() : "N/A") +
 						" Merge: "
-						+ (pullResult.getMergeResult() != null ? pullResult.getMergeResult().getMergeStatus() : "N/A");
+						+ (pullResult.getMergeResult() != null ? pullResult.getMergeResult().getMergeStatus() : "N/A"));
 			}
 		} catch (IOException e) {
 			logger.error("JGit: Could not open repository at {}: {}", config.localPath(), e.getMessage(), e);
-			return "JGit: Could not open repository: " + e.getMessage();
+			return GitOperationResult.of(GitOperationResult.Status.FAILED,
+					"JGit: Could not open repository: " + e.getMessage());
 		} catch (GitAPIException e) {
 			logger.error("JGit pull API exception for {}: {}", config.localPath(), e.getMessage(), e);
-			return "JGit pull API exception: " + e.getMessage();
+			return GitOperationResult.of(GitOperationResult.Status.FAILED,
+					"JGit pull API exception: " + e.getMessage());
 		}
 	}
 
 	/**
-	 * 添加所有更改、提交并推送到远程仓库。
+	 * pull之前的快速检查：通过ls-remote获取远程分支当前通告的SHA（只有一次引用通告，不进行pack协商），
+	 * 若它与本地远程跟踪分支一致且已包含在HEAD中，则本次pull不会带来任何变化，直接返回结果而不执行fetch和merge，
+	 * 也不触碰工作区。远程跟踪分支由每次fetch更新并保存在仓库中，它就是上次已知的远程SHA，重启后依然有效，
+	 * 不需要另外的内存缓存。
 	 *
-	 * @param config        仓库配置
-	 * @param commitMessage 提交信息
-	 * @param authorName    提交者名称 (如果为null，JGit会尝试使用Git配置)
-	 * @param authorEmail   提交者邮箱 (如果为null，JGit会尝试使用Git配置)
-	 * @return 操作结果信息
+	 * @return 远程未变化时返回 UP_TO_DATE 结果；需要拉取或无法判断时返回 null
 	 */
-	public String addCommitAndPush(RepositoryConfig config, String commitMessage, String authorName,
-			String authorEmail) {
-		try (Repository repository = openRepository(config);
-				Git git = new Git(repository)) {
+	private GitOperationResult checkRemoteUnchanged(Git git, RepositoryConfig config) {
+		Repository repository = git.getRepository();
+		try {
+			BranchConfig branchConfig = new BranchConfig(repository.getConfig(), repository.getBranch());
+			String mergeRef = branchConfig.getMerge();
+			String trackingBranch = branchConfig.getRemoteTrackingBranch();
+			if (mergeRef == null || trackingBranch == null) {
+				return null; // 分离HEAD或未配置上游分支，交给完整pull处理
+			}
+			ObjectId head = repository.resolve(Constants.HEAD);
+			Ref tracking = repository.exactRef(trackingBranch);
+			if (head == null || tracking == null || tracking.getObjectId() == null) {
+				return null;
+			}
+
+			Ref advertised = git.lsRemote()
+					.setRemote(branchConfig.getRemote())
+					.setHeads(true)
+					.setCredentialsProvider(getCredentialsProvider(config.token()))
+					.callAsMap()
+					.get(mergeRef);
+			if (advertised == null || advertised.getObjectId() == null) {
+				return null;
+			}
+			ObjectId remoteId = advertised.getObjectId();
+
+			if (!remoteId.equals(tracking.getObjectId()) || !isMergedInto(repository, remoteId, head)) {
+				return null;
+			}
+			logger.info("Remote {} of {} unchanged at {}. Skipping pull.", mergeRef, config.localPath(),
+					remoteId.abbreviate(7).name());
+			return GitOperationResult.of(GitOperationResult.Status.UP_TO_DATE,
+					"Already up to date. Remote " + Repository.shortenRefName(mergeRef) + " unchanged at "
+							+ remoteId.name());
+		} catch (IOException | GitAPIException e) {
+			logger.debug("ls-remote pre-check failed for {}, falling back to full pull: {}", config.localPath(),
+					e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * 远程分支确实被更新时发布 {@link RepositoryPushedEvent}
+	 */
+	private void publishPushed(RepositoryConfig config, Repository repository, Iterable<PushResult> pushResults)
+			throws IOException {
+		boolean updated = false;
+		for (PushResult result : pushResults) {
+			for (RemoteRefUpdate update : result.getRemoteUpdates()) {
+				updated |= update.getStatus() == RemoteRefUpdate.Status.OK;
+			}
+		}
+		ObjectId head = repository.resolve(Constants.HEAD);
+		if (updated && head != null) {
+			eventPublisher.publishEvent(new RepositoryPushedEvent(config, repository.getBranch(), head.name()));
+		}
+	}
+
+	private static boolean isMergedInto(Repository repository, ObjectId commitId, ObjectId head) throws IOException {
+		if (commitId.equals(head)) {
+			return true;
+		}
+		try (RevWalk revWalk = new RevWalk(repository)) {
+			return revWalk.isMergedInto(revWalk.parseCommit(commitId), revWalk.parseCommit(head));
+		}
+	}
+
+	private GitOperationResult doAddCommitAndPush(RepositoryConfig config, String commitMessage,
+			String authorName, String authorEmail, ProgressMonitor monitor, boolean pushWhenClean) {
+		// 取出文件监听记录的变化路径；可信时只检查和暂存这些路径，耗时与修改量而不是仓库大小成正比
+		DirtyPathTracker.Snapshot dirty = dirtyPathTracker.drain(config.localPath());
+		boolean committed = false;
+		try (RepositoryHandleCache.Lease lease = openRepository(config);
+				Git git = new Git(lease.repository())) {
 
 			// 1. 检查是否有更改
-			Status status = git.status().call();
-			if (status.isClean()) {
+			Status status = dirty.trusted() ? scopedStatus(git, dirty.paths()) : git.status().call();
+			if (status == null || status.isClean()) {
 				logger.info("No changes to commit in repository {}", config.localPath());
+				dirtyPathTracker.markBaseline(config.localPath(), dirty);
+				if (!pushWhenClean) {
+					return GitOperationResult.of(GitOperationResult.Status.UP_TO_DATE, "No changes to commit.");
+				}
 				// 即使没有本地提交，也尝试推送，以防远程分支超前但本地没有拉取（尽管这通常意味着先pull）
 				// 或者本地分支落后于远程，需要先pull。这里简化处理，若无更改也尝试推送。
 				// return "No changes to commit. Attempting push for any upstream differences.";
 			} else {
-				// 2. 添加所有更改 (相当于 git add .)
-				logger.info("Adding changes in repository {}", config.localPath());
-				git.add().addFilepattern(".").call();
+				// 2. 添加更改：增量模式下只暂存status报告的路径（包括删除），否则相当于 git add .
+				if (dirty.trusted()) {
+					logger.info("Adding {} changed path(s) in repository {}", countChanges(status), config.localPath());
+					AddCommand addCommand = git.add();
+					status.getUncommittedChanges().forEach(addCommand::addFilepattern);
+					status.getUntracked().forEach(addCommand::addFilepattern);
+					addCommand.call();
+				} else {
+					logger.info("Adding changes in repository {}", config.localPath());
+					git.add().addFilepattern(".").call();
+				}
 
 				// 3. 提交更改
 				logger.info("Committing changes with message: '{}' in repository {}", commitMessage,
@@ -152,6 +525,9 @@ public class GitService {
 					// JGit会尝试使用Git配置中的user.name和user.email
 					git.commit().setMessage(commitMessage).call();
 				}
+				committed = true;
+				// 完整status找到的更改都已提交，之后可以只检查文件监听记录的路径
+				dirtyPathTracker.markBaseline(config.localPath(), dirty);
 				logger.info("Commit successful in repository {}", config.localPath());
 			}
 
@@ -159,6 +535,7 @@ public class GitService {
 			logger.info("Pushing changes for repository {}", config.localPath());
 			Iterable<PushResult> pushResults = git.push()
 					.setCredentialsProvider(getCredentialsProvider(config.token()))
+					.setProgressMonitor(monitor)
 					.call();
 
 			StringBuilder pushResponse = new StringBuilder("Push results:\n");
@@ -169,15 +546,49 @@ public class GitService {
 			}
 			logger.info("Push command executed for {}. Response: {}", config.localPath(),
 					pushResponse.toString().trim());
-			return "Add, Commit successful.\n" + pushResponse.toString().trim();
+			publishPushed(config, lease.repository(), pushResults);
+			return GitOperationResult.of(GitOperationResult.Status.PUSHED,
+					"Add, Commit successful.\n" + pushResponse.toString().trim());
 
 		} catch (IOException e) {
+			if (!committed) {
+				restoreDirtyPaths(config, dirty);
+			}
 			logger.error("JGit: Could not open or operate on repository at {}: {}", config.localPath(), e.getMessage(),
 					e);
-			return "JGit: Error with repository operation: " + e.getMessage();
+			return GitOperationResult.of(GitOperationResult.Status.FAILED,
+					"JGit: Error with repository operation: " + e.getMessage());
 		} catch (GitAPIException e) {
+			if (!committed) {
+				restoreDirtyPaths(config, dirty);
+			}
 			logger.error("JGit API exception during add/commit/push for {}: {}", config.localPath(), e.getMessage(), e);
-			return "JGit API exception: " + e.getMessage();
+			return GitOperationResult.of(GitOperationResult.Status.FAILED, "JGit API exception: " + e.getMessage());
 		}
 	}
+
+	/**
+	 * 只对给定路径（文件或目录前缀）执行status。路径为空时工作区视为干净，返回null。
+	 */
+	private Status scopedStatus(Git git, Set<String> paths) throws GitAPIException {
+		if (paths.isEmpty()) {
+			return null;
+		}
+		StatusCommand statusCommand = git.status();
+		paths.forEach(statusCommand::addPath);
+		return statusCommand.call();
+	}
+
+	private void restoreDirtyPaths(RepositoryConfig config, DirtyPathTracker.Snapshot dirty) {
+		if (dirty.trusted()) {
+			dirtyPathTracker.restore(config.localPath(), dirty);
+		} else {
+			// 完整status发现的更改没有记录在集合中，下一次提交仍需完整status
+			dirtyPathTracker.invalidate(config.localPath());
+		}
+	}
+
+	private static int countChanges(Status status) {
+		return status.getUncommittedChanges().size() + status.getUntracked().size();
+	}
 }
\ No newline at end of file
@@ -0,0 +1,50 @@
+package puji.p2p_notes_sync.service;
+
+import java.util.Locale;
+
+/**
+ * Git仓库URL相关的工具方法
+ */
+public final class GitUrls {
+
+	private GitUrls() {
+	}
+
+	/**
+	 * 将仓库URL规范化为查找和处理通道的键，使写法不同的同一仓库得到相同的键：
+	 * 协议和主机名不区分大小写，末尾的 "/" 和 ".git" 可有可无。
+	 * 路径保持原样：大多数Git服务的路径区分大小写，"Org/Repo" 与 "org/repo" 可能是两个仓库。
+	 * 支持 scheme://[user@]host[:port]/path 和 scp 形式的 [user@]host:path，其他形式（如本地路径）只去掉后缀。
+	 */
+	public static String normalize(String gitUrl) {
+		String url = gitUrl.trim();
+		while (url.endsWith("/")) {
+			url = url.substring(0, url.length() - 1);
+		}
+		if (url.endsWith(".git")) {
+			url = url.substring(0, url.length() - ".git".length());
+		}
+		int schemeEnd = url.indexOf("://");
+		if (schemeEnd > 0) {
+			int authorityStart = schemeEnd + "://".length();
+			int pathStart = url.indexOf('/', authorityStart);
+			if (pathStart < 0) {
+				pathStart = url.length();
+			}
+			int hostStart = url.lastIndexOf('@', pathStart - 1) + 1; // 用户名保持原样
+			if (hostStart < authorityStart) {
+				hostStart = authorityStart;
+			}
+			return url.substring(0, schemeEnd).toLowerCase(Locale.ROOT) + url.substring(schemeEnd, hostStart)
+					+ url.substring(hostStart, pathStart).toLowerCase(Locale.ROOT) + url.substring(pathStart);
+		}
+		int colon = url.indexOf(':');
+		int slash = url.indexOf('/');
+		if (colon > 0 && (slash < 0 || colon < slash)) {
+			int hostStart = url.lastIndexOf('@', colon) + 1;
+			return url.substring(0, hostStart) + url.substring(hostStart, colon).toLowerCase(Locale.ROOT)
+					+ url.substring(colon);
+		}
+		return url;
+	}
+}
@@ -0,0 +1,13 @@
+package puji.p2p_notes_sync.service;
+
+import puji.p2p_notes_sync.config.RepositoryConfig;
+
+/**
+ * 文件监听触发的自动提交成功推送后发布的应用事件。
+ * 推送本身另外发布 {@link RepositoryPushedEvent}，P2P层据此通知其他节点，service层不需要依赖P2P组件。
+ *
+ * @param config 被提交的仓库配置
+ * @param result 提交并推送的结果
+ */
+public record RepositoryAutoCommittedEvent(RepositoryConfig config, GitOperationResult result) {
+}
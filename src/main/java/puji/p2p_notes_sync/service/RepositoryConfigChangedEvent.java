@@ -0,0 +1,19 @@
+package puji.p2p_notes_sync.service;
+
+import puji.p2p_notes_sync.config.RepositoryConfig;
+
+/**
+ * 仓库配置发生变更时由 {@link ConfigService} 发布的应用事件。
+ * 其他服务（例如仓库句柄缓存）通过监听此事件来清理与旧配置相关的状态，而不需要ConfigService反向依赖它们。
+ *
+ * @param changeType 变更类型
+ * @param previous   变更前的配置 (ADDED 时为 null)
+ * @param current    变更后的配置 (REMOVED 时为 null)
+ */
+public record RepositoryConfigChangedEvent(ChangeType changeType, RepositoryConfig previous,
+		RepositoryConfig current) {
+
+	public enum ChangeType {
+		ADDED, UPDATED, REMOVED
+	}
+}
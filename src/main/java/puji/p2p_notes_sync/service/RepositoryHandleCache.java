@@ -0,0 +1,212 @@
+package puji.p2p_notes_sync.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 已打开的JGit {@link Repository} 句柄缓存。
+ * <p>
+ * 以仓库本地路径为键缓存打开的Repository，避免每次同步、提交都重新读取config、refs和pack索引。
+ * {@link #acquire(RepositoryConfig)} 返回一个租约 ({@link Lease})，使用完毕后必须关闭；
+ * 只有在没有租约使用时，句柄才会因容量上限、空闲超时或配置变更而被真正关闭。
+ */
+@Component
+public class RepositoryHandleCache {
+
+	private static final Logger logger = LoggerFactory.getLogger(RepositoryHandleCache.class);
+
+	private final int maxSize;
+	private final long idleTimeoutNanos;
+
+	// access-order 的 LinkedHashMap，迭代顺序即LRU顺序；所有访问都在 this 上同步
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private final Counter hits;
+	private final Counter misses;
+	private final MeterRegistry meterRegistry;
+
+	public RepositoryHandleCache(MeterRegistry meterRegistry,
+			@Value("${p2p.git.repository-cache.max-size:32}") int maxSize,
+			@Value("${p2p.git.repository-cache.idle-timeout:10m}") Duration idleTimeout) {
+		this.meterRegistry = meterRegistry;
+		this.maxSize = Math.max(1, maxSize);
+		this.idleTimeoutNanos = idleTimeout.toNanos();
+		this.hits = Counter.builder("git.repository.cache.requests").tag("result", "hit")
+				.description("Repository handle cache lookups").register(meterRegistry);
+		this.misses = Counter.builder("git.repository.cache.requests").tag("result", "miss")
+				.description("Repository handle cache lookups").register(meterRegistry);
+		Gauge.builder("git.repository.cache.size", this, RepositoryHandleCache::size)
+				.description("Number of open repository handles").register(meterRegistry);
+	}
+
+	/**
+	 * 获取指定仓库的Repository句柄。调用方必须在使用完毕后关闭返回的租约（推荐 try-with-resources）。
+	 *
+	 * @param config 仓库配置
+	 * @return 仓库句柄租约
+	 * @throws IOException 本地路径下没有Git仓库或打开失败
+	 */
+	public synchronized Lease acquire(RepositoryConfig config) throws IOException {
+		String key = RepositoryPaths.normalize(config.localPath());
+		File gitDir = new File(config.localPath(), ".git");
+		Entry entry = entries.get(key);
+		if (entry != null && !gitDir.isDirectory()) {
+			// 仓库目录在缓存期间被外部删除，丢弃旧句柄
+			detach(entry, "missing");
+			entry = null;
+		}
+
+		if (entry != null) {
+			hits.increment();
+		} else {
+			misses.increment();
+			if (!gitDir.isDirectory()) {
+				throw new IOException("Git repository not found at " + config.localPath());
+			}
+			Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).readEnvironment().findGitDir()
+					.build();
+			entry = new Entry(key, repository);
+			entries.put(key, entry);
+			logger.debug("Opened repository handle for {}", key);
+			evictOverCapacity();
+		}
+
+		entry.leases++;
+		entry.lastAccessNanos = System.nanoTime();
+		return new Lease(entry);
+	}
+
+	/**
+	 * 使指定本地路径对应的缓存句柄失效。正在使用中的句柄会在最后一个租约关闭后再关闭。
+	 *
+	 * @param localPath 仓库本地路径
+	 */
+	public synchronized void invalidate(String localPath) {
+		if (localPath == null) {
+			return;
+		}
+		Entry entry = entries.get(RepositoryPaths.normalize(localPath));
+		if (entry != null) {
+			detach(entry, "invalidated");
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	@EventListener
+	public void onRepositoryConfigChanged(RepositoryConfigChangedEvent event) {
+		if (event.previous() != null) {
+			invalidate(event.previous().localPath());
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${p2p.git.repository-cache.eviction-interval-ms:60000}")
+	public synchronized void evictIdle() {
+		long now = System.nanoTime();
+		List<Entry> idle = new ArrayList<>();
+		for (Entry entry : entries.values()) {
+			if (entry.leases == 0 && now - entry.lastAccessNanos >= idleTimeoutNanos) {
+				idle.add(entry);
+			}
+		}
+		idle.forEach(entry -> detach(entry, "idle"));
+	}
+
+	@PreDestroy
+	public synchronized void closeAll() {
+		new ArrayList<>(entries.values()).forEach(entry -> detach(entry, "shutdown"));
+	}
+
+	private void evictOverCapacity() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (entries.size() > maxSize && iterator.hasNext()) {
+			Entry candidate = iterator.next();
+			if (candidate.leases == 0) {
+				iterator.remove();
+				markEvicted(candidate, "capacity");
+			}
+		}
+		// 如果所有句柄都在使用中，则暂时允许超出容量，待租约释放后由空闲淘汰回收
+	}
+
+	private void detach(Entry entry, String cause) {
+		entries.remove(entry.key);
+		markEvicted(entry, cause);
+	}
+
+	private void markEvicted(Entry entry, String cause) {
+		entry.evicted = true;
+		meterRegistry.counter("git.repository.cache.evictions", "cause", cause).increment();
+		logger.debug("Evicting repository handle for {} ({})", entry.key, cause);
+		if (entry.leases == 0) {
+			entry.repository.close();
+		}
+	}
+
+	private synchronized void release(Entry entry) {
+		entry.leases--;
+		entry.lastAccessNanos = System.nanoTime();
+		if (entry.evicted && entry.leases == 0) {
+			entry.repository.close();
+		}
+	}
+
+	private static final class Entry {
+		private final String key;
+		private final Repository repository;
+		private int leases;
+		private long lastAccessNanos;
+		private boolean evicted;
+
+		private Entry(String key, Repository repository) {
+			this.key = key;
+			this.repository = repository;
+		}
+	}
+
+	/**
+	 * 缓存句柄的租约，关闭时归还句柄（不会直接关闭底层Repository）。
+	 */
+	public final class Lease implements AutoCloseable {
+		private final Entry entry;
+		private boolean released;
+
+		private Lease(Entry entry) {
+			this.entry = entry;
+		}
+
+		public Repository repository() {
+			return entry.repository;
+		}
+
+		@Override
+		public void close() {
+			if (!released) {
+				released = true;
+				release(entry);
+			}
+		}
+	}
+}
@@ -0,0 +1,250 @@
+package puji.p2p_notes_sync.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 后台仓库维护：在仓库空闲时运行JGit gc，把频繁小提交产生的松散对象和多个小pack合并为带bitmap的单个pack，
+ * 并写入commit-graph，使后续fetch、status和提交遍历保持稳定的速度。
+ * <p>
+ * gc通过 {@link RepositoryOperationQueue} 以 MAINTENANCE 类型排队执行，与同一仓库的clone、pull、commit-push互斥。
+ * 定期检查只提交维护任务而不等待其完成（@Scheduled 的线程与心跳、配置对账等任务共用），
+ * 同时排队或运行的定期维护任务数有上限，同一仓库两次维护之间至少间隔 min-interval。
+ */
+@Service
+public class RepositoryMaintenanceService {
+
+	private static final Logger logger = LoggerFactory.getLogger(RepositoryMaintenanceService.class);
+
+	private final ConfigService configService;
+	private final RepositoryHandleCache repositoryHandleCache;
+	private final RepositoryOperationQueue operationQueue;
+
+	// 按规范化的本地路径记录最近一次维护结果，只保存在内存中
+	private final Map<String, LastRun> lastRuns = new ConcurrentHashMap<>();
+	// 已提交、尚未结束的定期维护任务数
+	private final AtomicInteger scheduledRunsInFlight = new AtomicInteger();
+
+	private final Counter successfulRuns;
+	private final Counter failedRuns;
+	private final Timer runTimer;
+
+	@Value("${p2p.git.maintenance.enabled:true}")
+	private boolean enabled = true;
+
+	@Value("${p2p.git.maintenance.idle-period:5m}") // 仓库至少空闲这么久才会被自动维护
+	private Duration idlePeriod = Duration.ofMinutes(5);
+
+	@Value("${p2p.git.maintenance.min-interval:6h}") // 同一仓库两次自动维护的最小间隔
+	private Duration minInterval = Duration.ofHours(6);
+
+	@Value("${p2p.git.maintenance.max-runs-per-cycle:1}")
+	private int maxRunsPerCycle = 1;
+
+	@Value("${p2p.git.maintenance.loose-object-threshold:200}")
+	private long looseObjectThreshold = 200;
+
+	@Value("${p2p.git.maintenance.pack-file-threshold:8}")
+	private long packFileThreshold = 8;
+
+	@Value("${p2p.git.maintenance.write-commit-graph:true}")
+	private boolean writeCommitGraph = true;
+
+	public RepositoryMaintenanceService(ConfigService configService, RepositoryHandleCache repositoryHandleCache,
+			RepositoryOperationQueue operationQueue, MeterRegistry meterRegistry) {
+		this.configService = configService;
+		this.repositoryHandleCache = repositoryHandleCache;
+		this.operationQueue = operationQueue;
+		this.successfulRuns = Counter.builder("git.maintenance.runs").tag("result", "success")
+				.description("Repository maintenance (gc) runs").register(meterRegistry);
+		this.failedRuns = Counter.builder("git.maintenance.runs").tag("result", "failure")
+				.description("Repository maintenance (gc) runs").register(meterRegistry);
+		this.runTimer = Timer.builder("git.maintenance.duration")
+				.description("Time spent in repository maintenance (gc)").register(meterRegistry);
+	}
+
+	/**
+	 * 周期性检查所有仓库，对空闲且对象库需要整理的仓库运行gc。
+	 */
+	@Scheduled(fixedDelayString = "${p2p.git.maintenance.check-interval-ms:300000}", initialDelayString = "${p2p.git.maintenance.initial-delay-ms:120000}")
+	public void runScheduledMaintenance() {
+		if (!enabled) {
+			return;
+		}
+		for (RepositoryConfig config : configService.getAllRepositoryConfigs()) {
+			if (scheduledRunsInFlight.get() >= maxRunsPerCycle) {
+				logger.debug("Maintenance limit of {} concurrent run(s) reached, deferring the rest.",
+						maxRunsPerCycle);
+				break;
+			}
+			if (isDue(config)) {
+				scheduledRunsInFlight.incrementAndGet();
+				// 只提交不等待：gc可能持续很久，不能占住调度线程
+				operationQueue.submit(config.localPath(), RepositoryOperationQueue.OperationType.MAINTENANCE,
+						() -> doMaintenance(config))
+						.whenComplete((result, error) -> scheduledRunsInFlight.decrementAndGet());
+			}
+		}
+	}
+
+	/**
+	 * 立即对指定仓库运行维护（仍然与该仓库的其他Git操作排队互斥），不受空闲和间隔限制。
+	 */
+	public RepositoryMaintenanceStatus runMaintenance(RepositoryConfig config) {
+		operationQueue.execute(config.localPath(), RepositoryOperationQueue.OperationType.MAINTENANCE,
+				() -> doMaintenance(config));
+		return getStatus(config);
+	}
+
+	/**
+	 * 返回仓库最近一次维护的情况以及当前的对象库统计。
+	 */
+	public RepositoryMaintenanceStatus getStatus(RepositoryConfig config) {
+		LastRun lastRun = lastRuns.get(RepositoryPaths.normalize(config.localPath()));
+		Properties stats = new Properties();
+		if (isRepository(config)) {
+			try {
+				stats = readStatistics(config);
+			} catch (IOException | GitAPIException e) {
+				logger.warn("Failed to read repository statistics for {}: {}", config.localPath(), e.getMessage());
+			}
+		}
+		return new RepositoryMaintenanceStatus(
+				config.alias(),
+				lastRun != null ? lastRun.finishedAt() : null,
+				lastRun != null ? lastRun.durationMillis() : null,
+				lastRun != null ? lastRun.successful() : null,
+				lastRun != null ? lastRun.message() : null,
+				stat(stats, "numberOfLooseObjects"),
+				stat(stats, "sizeOfLooseObjects"),
+				stat(stats, "numberOfPackedObjects"),
+				stat(stats, "numberOfPackFiles"),
+				stat(stats, "sizeOfPackedObjects"),
+				stat(stats, "numberOfBitmaps"),
+				stat(stats, "numberOfLooseRefs"),
+				stat(stats, "numberOfPackedRefs"));
+	}
+
+	@EventListener
+	public void onRepositoryConfigChanged(RepositoryConfigChangedEvent event) {
+		if (event.previous() != null) {
+			lastRuns.remove(RepositoryPaths.normalize(event.previous().localPath()));
+		}
+	}
+
+	private boolean isDue(RepositoryConfig config) {
+		if (!isRepository(config)) {
+			return false;
+		}
+		LastRun lastRun = lastRuns.get(RepositoryPaths.normalize(config.localPath()));
+		if (lastRun != null && Duration.between(lastRun.finishedAt(), Instant.now()).compareTo(minInterval) < 0) {
+			return false;
+		}
+		if (!operationQueue.isIdle(config.localPath(), idlePeriod)) {
+			return false;
+		}
+		try {
+			Properties stats = readStatistics(config);
+			long looseObjects = stat(stats, "numberOfLooseObjects");
+			long packFiles = stat(stats, "numberOfPackFiles");
+			boolean due = looseObjects >= looseObjectThreshold || packFiles >= packFileThreshold;
+			if (due) {
+				logger.info("Repository {} needs maintenance: {} loose objects, {} pack files.", config.alias(),
+						looseObjects, packFiles);
+			}
+			return due;
+		} catch (IOException | GitAPIException e) {
+			logger.warn("Failed to read repository statistics for {}: {}", config.localPath(), e.getMessage());
+			return false;
+		}
+	}
+
+	private Void doMaintenance(RepositoryConfig config) {
+		long start = System.nanoTime();
+		boolean successful = false;
+		String message;
+		try (RepositoryHandleCache.Lease lease = repositoryHandleCache.acquire(config);
+				Git git = new Git(lease.repository())) {
+			if (writeCommitGraph) {
+				enableCommitGraph(lease.repository());
+			}
+			// pack.buildBitmaps 默认开启，gc会为新pack写入bitmap索引；开启commit-graph后同时写入commit-graph文件
+			git.gc().setAggressive(false).setPreserveOldPacks(false).call();
+			Properties stats = git.gc().getStatistics();
+			message = String.format("gc finished: %d loose objects, %d packed objects in %d pack file(s), %d bitmap(s)",
+					stat(stats, "numberOfLooseObjects"), stat(stats, "numberOfPackedObjects"),
+					stat(stats, "numberOfPackFiles"), stat(stats, "numberOfBitmaps"));
+			successful = true;
+			logger.info("Maintenance of repository {}: {}", config.alias(), message);
+		} catch (IOException | GitAPIException e) {
+			message = "gc failed: " + e.getMessage();
+			logger.error("Maintenance of repository {} failed: {}", config.alias(), e.getMessage(), e);
+		}
+		long elapsedNanos = System.nanoTime() - start;
+		runTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+		(successful ? successfulRuns : failedRuns).increment();
+		lastRuns.put(RepositoryPaths.normalize(config.localPath()),
+				new LastRun(Instant.now(), TimeUnit.NANOSECONDS.toMillis(elapsedNanos), successful, message));
+		return null;
+	}
+
+	private void enableCommitGraph(Repository repository) throws IOException {
+		StoredConfig repoConfig = repository.getConfig();
+		boolean readEnabled = repoConfig.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_COMMIT_GRAPH, false);
+		boolean writeEnabled = repoConfig.getBoolean(ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, false);
+		if (!readEnabled || !writeEnabled) {
+			repoConfig.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_COMMIT_GRAPH, true);
+			repoConfig.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null, ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH,
+					true);
+			repoConfig.save();
+			logger.debug("Enabled commit-graph for repository at {}", repository.getDirectory());
+		}
+	}
+
+	private Properties readStatistics(RepositoryConfig config) throws IOException, GitAPIException {
+		try (RepositoryHandleCache.Lease lease = repositoryHandleCache.acquire(config);
+				Git git = new Git(lease.repository())) {
+			return git.gc().getStatistics();
+		}
+	}
+
+	private static boolean isRepository(RepositoryConfig config) {
+		return config.localPath() != null && new File(config.localPath(), ".git").isDirectory();
+	}
+
+	private static long stat(Properties stats, String key) {
+		Object value = stats.get(key);
+		if (value instanceof Number number) {
+			return number.longValue();
+		}
+		return value != null ? Long.parseLong(value.toString()) : 0L;
+	}
+
+	private record LastRun(Instant finishedAt, long durationMillis, boolean successful, String message) {
+	}
+}
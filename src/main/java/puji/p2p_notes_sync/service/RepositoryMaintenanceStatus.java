@@ -0,0 +1,36 @@
+package puji.p2p_notes_sync.service;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+import java.time.Instant;
+
+/**
+ * 单个仓库的维护状态：最近一次gc的运行情况以及当前对象库统计。
+ */
+public record RepositoryMaintenanceStatus(
+		@Schema(description = "仓库别名", example = "我的工作笔记") String alias,
+
+		@Schema(description = "最近一次维护完成的时间，本次启动后尚未运行时为null") Instant lastRunAt,
+
+		@Schema(description = "最近一次维护耗时（毫秒）") Long lastRunDurationMillis,
+
+		@Schema(description = "最近一次维护是否成功") Boolean lastRunSuccessful,
+
+		@Schema(description = "最近一次维护的结果信息") String lastRunMessage,
+
+		@Schema(description = "松散对象数量") long looseObjects,
+
+		@Schema(description = "松散对象占用空间（字节）") long looseObjectsSize,
+
+		@Schema(description = "已打包对象数量") long packedObjects,
+
+		@Schema(description = "pack文件数量") long packFiles,
+
+		@Schema(description = "pack文件总大小（字节）") long packedObjectsSize,
+
+		@Schema(description = "pack bitmap 索引数量") long bitmaps,
+
+		@Schema(description = "松散引用数量") long looseRefs,
+
+		@Schema(description = "packed-refs 中的引用数量") long packedRefs) {
+}
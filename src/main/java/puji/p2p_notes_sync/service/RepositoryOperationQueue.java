@@ -0,0 +1,168 @@
+package puji.p2p_notes_sync.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * 按仓库串行执行Git操作的队列。
+ * <p>
+ * 同一仓库（按规范化的本地路径区分）的clone、pull、commit-push严格按提交顺序依次执行，避免并发操作争抢
+ * {@code .git/index.lock}；不同仓库之间仍然并行。排队中尚未开始的pull会吸收之后到达的pull请求，
+ * 因此N个并发的同步请求只会执行一次pull，并共享同一个结果。
+ */
+@Component
+public class RepositoryOperationQueue {
+
+	private static final Logger logger = LoggerFactory.getLogger(RepositoryOperationQueue.class);
+
+	public enum OperationType {
+		CLONE, PULL, COMMIT_PUSH, MAINTENANCE
+	}
+
+	private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+	private final Scheduler scheduler;
+	private final Counter coalescedPulls;
+
+	public RepositoryOperationQueue(MeterRegistry meterRegistry,
+			@Value("${p2p.git.operations.max-parallel:8}") int maxParallel) {
+		// 使用独立的调度器：调用方通常在boundedElastic线程上阻塞等待结果，不能和它们共享线程池
+		this.scheduler = Schedulers.newBoundedElastic(Math.max(1, maxParallel), Integer.MAX_VALUE, "git-ops");
+		this.coalescedPulls = Counter.builder("git.operations.coalesced")
+				.description("Pull requests absorbed by an already pending pull").register(meterRegistry);
+	}
+
+	/**
+	 * 将操作加入指定仓库的队列并阻塞等待其结果。
+	 *
+	 * @param localPath 仓库本地路径
+	 * @param type      操作类型
+	 * @param operation 实际执行的操作
+	 * @return 操作结果（被合并的pull返回合并后那次pull的结果）
+	 */
+	public <T> T execute(String localPath, OperationType type, Supplier<T> operation) {
+		try {
+			return submit(localPath, type, operation).join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException runtimeException) {
+				throw runtimeException;
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * 将操作加入指定仓库的队列，返回在操作完成时完成的Future。
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> CompletableFuture<T> submit(String localPath, OperationType type, Supplier<T> operation) {
+		Lane lane = lanes.computeIfAbsent(RepositoryPaths.normalize(localPath), Lane::new);
+		synchronized (lane) {
+			if (type == OperationType.PULL && lane.pendingPull != null) {
+				coalescedPulls.increment();
+				logger.debug("Coalescing pull for {} into the already pending pull.", lane.key);
+				return (CompletableFuture<T>) lane.pendingPull.future;
+			}
+			Operation<T> op = new Operation<>(type, operation);
+			lane.queue.add(op);
+			if (type == OperationType.PULL) {
+				lane.pendingPull = op;
+			}
+			if (!lane.running) {
+				lane.running = true;
+				scheduler.schedule(() -> drain(lane));
+			}
+			return op.future;
+		}
+	}
+
+	/**
+	 * 判断仓库当前是否空闲：队列中没有待执行或正在执行的操作，且最近一次同步类操作已结束至少 quietPeriod。
+	 * 后台维护（MAINTENANCE）本身不计入活跃时间。
+	 */
+	public boolean isIdle(String localPath, Duration quietPeriod) {
+		Lane lane = lanes.get(RepositoryPaths.normalize(localPath));
+		if (lane == null) {
+			return true;
+		}
+		synchronized (lane) {
+			return !lane.running && System.nanoTime() - lane.lastActivityNanos >= quietPeriod.toNanos();
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.dispose();
+	}
+
+	private void drain(Lane lane) {
+		while (true) {
+			Operation<?> op;
+			synchronized (lane) {
+				op = lane.queue.poll();
+				if (op == null) {
+					lane.running = false;
+					return;
+				}
+				if (op == lane.pendingPull) {
+					// pull开始执行后，新到达的pull需要重新排队，才能看到执行期间远程的新提交
+					lane.pendingPull = null;
+				}
+			}
+			logger.debug("Running {} for repository {}", op.type, lane.key);
+			op.run();
+			if (op.type != OperationType.MAINTENANCE) {
+				synchronized (lane) {
+					lane.lastActivityNanos = System.nanoTime();
+				}
+			}
+		}
+	}
+
+	private static final class Lane {
+		private final String key;
+		private final Deque<Operation<?>> queue = new ArrayDeque<>();
+		private Operation<?> pendingPull;
+		private boolean running;
+		private long lastActivityNanos;
+
+		private Lane(String key) {
+			this.key = key;
+			this.lastActivityNanos = System.nanoTime();
+		}
+	}
+
+	private static final class Operation<T> {
+		private final OperationType type;
+		private final Supplier<T> body;
+		private final CompletableFuture<T> future = new CompletableFuture<>();
+
+		private Operation(OperationType type, Supplier<T> body) {
+			this.type = type;
+			this.body = body;
+		}
+
+		private void run() {
+			try {
+				future.complete(body.get());
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
+			}
+		}
+	}
+}
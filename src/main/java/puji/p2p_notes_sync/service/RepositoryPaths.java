@@ -0,0 +1,19 @@
+package puji.p2p_notes_sync.service;
+
+import java.io.File;
+
+/**
+ * 仓库本地路径相关的工具方法
+ */
+final class RepositoryPaths {
+
+	private RepositoryPaths() {
+	}
+
+	/**
+	 * 将仓库本地路径规范化为绝对路径，用作缓存和队列的键，使 "notes/a" 与 "./notes/a" 指向同一仓库。
+	 */
+	static String normalize(String localPath) {
+		return new File(localPath).getAbsoluteFile().toPath().normalize().toString();
+	}
+}
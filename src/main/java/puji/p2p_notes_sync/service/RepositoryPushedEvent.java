@@ -0,0 +1,14 @@
+package puji.p2p_notes_sync.service;
+
+import puji.p2p_notes_sync.config.RepositoryConfig;
+
+/**
+ * 提交推送成功（远程分支确实被更新）后由 {@link GitService} 发布的应用事件，手动提交和文件监听自动提交都会发布。
+ * P2P层监听此事件向其他节点通告新的提交。
+ *
+ * @param config   被推送的仓库配置
+ * @param branch   被推送的本地分支名
+ * @param commitId 推送后分支指向的提交SHA
+ */
+public record RepositoryPushedEvent(RepositoryConfig config, String branch, String commitId) {
+}
@@ -0,0 +1,18 @@
+package puji.p2p_notes_sync.service;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+
+/**
+ * 单个仓库的同步结果，用于批量同步时逐个流式返回。
+ */
+public record RepositorySyncResult(
+		@Schema(description = "仓库别名", example = "我的工作笔记") String alias,
+
+		@Schema(description = "同步结果状态") GitOperationResult.Status status,
+
+		@Schema(description = "同步是否成功") boolean successful,
+
+		@Schema(description = "Git操作的输出信息") String message,
+
+		@Schema(description = "本仓库同步耗时（毫秒），包含在队列中等待的时间") long durationMillis) {
+}
@@ -0,0 +1,362 @@
+package puji.p2p_notes_sync.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 监听开启了自动提交的仓库工作区，把一段时间内的连续编辑合并为一次提交并推送，成功后发布
+ * {@link RepositoryAutoCommittedEvent} 以通知其他节点同步。
+ * <p>
+ * 使用NIO {@link WatchService} 递归注册工作区目录（忽略 {@code .git} 和 MkDocs 输出目录 {@code site}），
+ * 只有收到文件事件时才会执行一次 {@code git status}，而不是周期性扫描整个工作区。
+ * 最后一次事件之后安静期内没有新事件才会提交；持续编辑时最迟在 max-delay 之后提交一次。
+ */
+@Service
+public class RepositoryWatchService {
+
+	private static final Logger logger = LoggerFactory.getLogger(RepositoryWatchService.class);
+
+	private final ConfigService configService;
+	private final GitService gitService;
+	private final ApplicationEventPublisher eventPublisher;
+	private final DirtyPathTracker dirtyPathTracker;
+
+	// 按规范化的本地路径索引的监听
+	private final Map<String, RepositoryWatch> watches = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService debounceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "repo-watch-debounce");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	@Value("${p2p.watch.enabled:true}")
+	private boolean enabled = true;
+
+	@Value("${p2p.watch.quiet-period:30s}") // 仓库未单独配置时的默认安静期
+	private Duration defaultQuietPeriod = Duration.ofSeconds(30);
+
+	@Value("${p2p.watch.max-delay:5m}") // 持续编辑时，从第一次变化到提交的最长等待时间
+	private Duration maxDelay = Duration.ofMinutes(5);
+
+	@Value("${p2p.watch.ignored-directories:.git,site}") // 相对于工作区根目录忽略的目录
+	private List<String> ignoredDirectories = List.of(".git", "site");
+
+	@Value("${p2p.watch.commit-message:Auto-commit}")
+	private String commitMessage = "Auto-commit";
+
+	public RepositoryWatchService(ConfigService configService, GitService gitService,
+			ApplicationEventPublisher eventPublisher, DirtyPathTracker dirtyPathTracker) {
+		this.configService = configService;
+		this.gitService = gitService;
+		this.eventPublisher = eventPublisher;
+		this.dirtyPathTracker = dirtyPathTracker;
+	}
+
+	/**
+	 * 为所有开启自动提交且已克隆到本地的仓库启动监听。
+	 * 周期性执行，以便覆盖启动之后才克隆的仓库以及因目录被删除而失效的监听。
+	 */
+	@Scheduled(fixedDelayString = "${p2p.watch.reconcile-interval-ms:60000}", initialDelayString = "${p2p.watch.initial-delay-ms:5000}")
+	public void reconcile() {
+		if (!enabled) {
+			return;
+		}
+		for (RepositoryConfig config : configService.getAllRepositoryConfigs()) {
+			if (!config.autoCommitEnabled()) {
+				continue;
+			}
+			String key = RepositoryPaths.normalize(config.localPath());
+			RepositoryWatch existing = watches.get(key);
+			if (existing != null && existing.isValid()) {
+				continue;
+			}
+			if (existing != null) {
+				stop(config.localPath());
+			}
+			start(config);
+		}
+	}
+
+	@EventListener
+	public void onRepositoryConfigChanged(RepositoryConfigChangedEvent event) {
+		if (event.previous() != null) {
+			stop(event.previous().localPath());
+		}
+		if (enabled && event.current() != null && event.current().autoCommitEnabled()) {
+			start(event.current());
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		watches.keySet().forEach(this::stop);
+		debounceExecutor.shutdownNow();
+	}
+
+	private void start(RepositoryConfig config) {
+		Path root = Paths.get(RepositoryPaths.normalize(config.localPath()));
+		if (!Files.isDirectory(root.resolve(".git"))) {
+			logger.debug("Not watching {} yet: no local repository at {}", config.alias(), root);
+			return;
+		}
+		try {
+			RepositoryWatch watch = new RepositoryWatch(config, root);
+			RepositoryWatch previous = watches.put(root.toString(), watch);
+			if (previous != null) {
+				previous.close();
+			}
+			watch.start();
+			logger.info("Watching work tree of repository {} at {} ({} directories)", config.alias(), root,
+					watch.directoryCount());
+		} catch (IOException e) {
+			logger.error("Failed to watch work tree of repository {} at {}: {}", config.alias(), root,
+					e.getMessage(), e);
+		}
+	}
+
+	private void stop(String localPath) {
+		RepositoryWatch watch = watches.remove(RepositoryPaths.normalize(localPath));
+		if (watch != null) {
+			watch.close();
+			logger.info("Stopped watching work tree at {}", watch.root);
+		}
+	}
+
+	private void commit(RepositoryConfig config, int changedPaths) {
+		RepositoryConfig.AutoCommitOptions options = config.autoCommit();
+		String message = commitMessage + ": " + changedPaths + " changed path(s)";
+		GitOperationResult result = gitService.commitChangesAndPush(config, message, options.authorName(),
+				options.authorEmail());
+		switch (result.status()) {
+			case PUSHED -> {
+				logger.info("Auto-committed and pushed repository {}", config.alias());
+				eventPublisher.publishEvent(new RepositoryAutoCommittedEvent(config, result));
+			}
+			case FAILED -> logger.warn("Auto-commit of repository {} failed: {}", config.alias(), result.message());
+			default -> logger.debug("Auto-commit of repository {} found nothing to commit.", config.alias());
+		}
+	}
+
+	private Duration quietPeriodOf(RepositoryConfig config) {
+		Integer seconds = config.autoCommit() != null ? config.autoCommit().quietPeriodSeconds() : null;
+		return (seconds != null && seconds > 0) ? Duration.ofSeconds(seconds) : defaultQuietPeriod;
+	}
+
+	/**
+	 * 单个仓库工作区的监听与去抖状态
+	 */
+	private final class RepositoryWatch {
+		private final RepositoryConfig config;
+		private final Path root;
+		private final WatchService watchService;
+		private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+		private final Thread thread;
+		private volatile boolean closed;
+
+		// 以下字段在 this 上同步
+		private final Set<Path> changedPaths = new HashSet<>();
+		private ScheduledFuture<?> pendingCommit;
+		private long firstChangeNanos;
+		private long generation; // 每次重新计时递增，使已过期但已开始执行的定时任务失效
+
+		private RepositoryWatch(RepositoryConfig config, Path root) throws IOException {
+			this.config = config;
+			this.root = root;
+			this.watchService = root.getFileSystem().newWatchService();
+			this.thread = new Thread(this::run, "repo-watch-" + config.alias());
+			this.thread.setDaemon(true);
+			// 先开始记录再注册监听，保证注册之后的每个变化都能进入变化路径集合
+			dirtyPathTracker.startTracking(root.toString());
+			try {
+				registerTree(root);
+			} catch (IOException e) {
+				dirtyPathTracker.stopTracking(root.toString());
+				watchService.close();
+				throw e;
+			}
+		}
+
+		private void start() {
+			thread.start();
+		}
+
+		private boolean isValid() {
+			return !closed && thread.isAlive() && Files.isDirectory(root);
+		}
+
+		private int directoryCount() {
+			return directories.size();
+		}
+
+		private void close() {
+			closed = true;
+			dirtyPathTracker.stopTracking(root.toString());
+			synchronized (this) {
+				if (pendingCommit != null) {
+					pendingCommit.cancel(false);
+					pendingCommit = null;
+				}
+			}
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				logger.debug("Error closing watch service for {}: {}", root, e.getMessage());
+			}
+		}
+
+		private void run() {
+			while (!closed) {
+				WatchKey key;
+				try {
+					key = watchService.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				} catch (ClosedWatchServiceException e) {
+					return;
+				}
+				Path directory = directories.get(key);
+				for (WatchEvent<?> event : key.pollEvents()) {
+					if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+						// 事件队列溢出，具体哪些文件变化未知，下一次提交回退到完整的 git status
+						logger.debug("Watch events overflowed for {}", root);
+						dirtyPathTracker.invalidate(root.toString());
+						onChange(null);
+						continue;
+					}
+					if (directory == null) {
+						continue;
+					}
+					Path child = directory.resolve((Path) event.context());
+					if (isIgnored(child)) {
+						continue;
+					}
+					if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+							&& Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+						try {
+							registerTree(child);
+						} catch (IOException e) {
+							logger.warn("Failed to watch new directory {}: {}", child, e.getMessage());
+							dirtyPathTracker.invalidate(root.toString());
+						}
+					}
+					// 在注册新目录之后记录：注册前写入其中的文件没有事件，但以目录为前缀的status会覆盖它们
+					dirtyPathTracker.markDirty(root.toString(), toRelativePath(child));
+					onChange(child);
+				}
+				if (!key.reset()) {
+					directories.remove(key);
+				}
+			}
+		}
+
+		private synchronized void onChange(Path path) {
+			if (closed) {
+				return;
+			}
+			long now = System.nanoTime();
+			if (pendingCommit == null) {
+				firstChangeNanos = now;
+			} else {
+				pendingCommit.cancel(false);
+			}
+			if (path != null) {
+				changedPaths.add(root.relativize(path));
+			}
+			// 安静期内的新事件会推迟提交，但不会超过从第一次变化算起的 max-delay
+			long delayNanos = quietPeriodOf(config).toNanos();
+			long remainingNanos = maxDelay.toNanos() - (now - firstChangeNanos);
+			delayNanos = Math.max(0, Math.min(delayNanos, remainingNanos));
+			long scheduledGeneration = ++generation;
+			pendingCommit = debounceExecutor.schedule(() -> fire(scheduledGeneration), delayNanos,
+					TimeUnit.NANOSECONDS);
+		}
+
+		private void fire(long scheduledGeneration) {
+			int changed;
+			synchronized (this) {
+				if (closed || scheduledGeneration != generation) {
+					return;
+				}
+				pendingCommit = null;
+				changed = changedPaths.size();
+				changedPaths.clear();
+			}
+			// 提交和推送可能很慢，不能占用去抖线程
+			Schedulers.boundedElastic().schedule(() -> commit(config, changed));
+		}
+
+		private void registerTree(Path start) throws IOException {
+			Files.walkFileTree(start, new SimpleFileVisitor<>() {
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+					if (!dir.equals(root) && isIgnored(dir)) {
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					WatchKey key = dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+					directories.put(key, dir);
+					return FileVisitResult.CONTINUE;
+				}
+
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException exc) {
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+
+		private String toRelativePath(Path path) {
+			return root.relativize(path).toString().replace(File.separatorChar, '/');
+		}
+
+		private boolean isIgnored(Path path) {
+			Path relative = root.relativize(path);
+			if (relative.getNameCount() == 0) {
+				return false;
+			}
+			if (ignoredDirectories.contains(relative.getName(0).toString())) {
+				return true;
+			}
+			for (Path element : relative) {
+				if (element.toString().equals(".git")) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+package puji.p2p_notes_sync.service;
+
+import org.eclipse.jgit.lib.ProgressMonitor;
+import reactor.core.publisher.Sinks;
+
+/**
+ * 将JGit的 {@link ProgressMonitor} 回调转换为 {@link GitProgressEvent} 并写入Reactor Sink。
+ * <p>
+ * JGit在传输对象时会非常频繁地调用 {@link #update(int)}，这里只在百分比变化（或总量未知时每隔一段时间）
+ * 才发出事件，避免SSE流被大量重复事件淹没。
+ */
+class SinkProgressMonitor implements ProgressMonitor {
+
+	private static final long UNKNOWN_TOTAL_EMIT_INTERVAL_NANOS = 200_000_000L; // 200ms
+
+	private final Sinks.Many<GitProgressEvent> sink;
+
+	private String task;
+	private int total;
+	private int completed;
+	private Integer lastPercent;
+	private long lastEmitNanos;
+
+	SinkProgressMonitor(Sinks.Many<GitProgressEvent> sink) {
+		this.sink = sink;
+	}
+
+	@Override
+	public void start(int totalTasks) {
+		// 任务总数对客户端意义不大，只按单个任务汇报进度
+	}
+
+	@Override
+	public synchronized void beginTask(String title, int totalWork) {
+		this.task = title;
+		this.total = totalWork == UNKNOWN ? 0 : totalWork;
+		this.completed = 0;
+		this.lastPercent = null;
+		emit();
+	}
+
+	@Override
+	public synchronized void update(int completedWork) {
+		completed += completedWork;
+		if (total > 0) {
+			int percent = (int) Math.min(100, completed * 100L / total);
+			if (lastPercent == null || percent != lastPercent) {
+				emit();
+			}
+		} else if (System.nanoTime() - lastEmitNanos >= UNKNOWN_TOTAL_EMIT_INTERVAL_NANOS) {
+			emit();
+		}
+	}
+
+	@Override
+	public synchronized void endTask() {
+		if (total > 0) {
+			completed = Math.max(completed, total);
+		}
+		emit();
+	}
+
+	@Override
+	public boolean isCancelled() {
+		// 同一仓库的pull可能被多个请求合并共享，客户端断开时不取消底层操作
+		return false;
+	}
+
+	@Override
+	public void showDuration(boolean enabled) {
+		// 不需要
+	}
+
+	private void emit() {
+		GitProgressEvent event = GitProgressEvent.progress(task, completed, total);
+		lastPercent = event.percent();
+		lastEmitNanos = System.nanoTime();
+		sink.tryEmitNext(event);
+	}
+}
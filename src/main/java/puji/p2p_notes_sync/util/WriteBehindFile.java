@@ -0,0 +1,165 @@
+package puji.p2p_notes_sync.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 延迟、合并、原子地写入一个文件。
+ * <p>
+ * 调用方在每次修改后发布一个新的不可变状态并调用 {@link #schedule()}；写入线程在延迟之后只写一次最新的状态。
+ * 写入时先写同目录下的临时文件并fsync，再原子地替换目标文件，写到一半崩溃时旧文件保持完整。
+ * 状态没有变化（与上次写入的是同一个对象）时不写。
+ *
+ * @param <T> 状态的类型，必须不可变
+ */
+public class WriteBehindFile<T> {
+
+	/**
+	 * 把状态编码为文件内容
+	 */
+	@FunctionalInterface
+	public interface Serializer<T> {
+		byte[] serialize(T state) throws IOException;
+	}
+
+	private static final Logger logger = LoggerFactory.getLogger(WriteBehindFile.class);
+
+	private final Path file;
+	private final long delayMillis;
+	private final Supplier<T> currentState;
+	private final Serializer<T> serializer;
+	private final ScheduledExecutorService writeExecutor;
+	private final AtomicBoolean writeScheduled = new AtomicBoolean();
+	private final Object writeLock = new Object();
+	// 最近一次写入文件的状态，由writeLock同步
+	private T persisted;
+
+	/**
+	 * @param threadName   写入线程的名称
+	 * @param currentState 返回当前状态，在写入线程上调用
+	 */
+	public WriteBehindFile(Path file, Duration delay, String threadName, Supplier<T> currentState,
+			Serializer<T> serializer) {
+		this.file = file;
+		this.delayMillis = Math.max(0, delay.toMillis());
+		this.currentState = currentState;
+		this.serializer = serializer;
+		this.writeExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, threadName);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public Path file() {
+		return file;
+	}
+
+	/**
+	 * 把该状态视为已经在文件中（例如刚从文件加载），在它被修改之前不会写入
+	 */
+	public void markPersisted(T state) {
+		synchronized (writeLock) {
+			persisted = state;
+		}
+	}
+
+	/**
+	 * 安排一次延迟写入；已有待执行的写入时什么也不做，那次写入会带上这次修改
+	 */
+	public void schedule() {
+		if (writeScheduled.compareAndSet(false, true)) {
+			try {
+				writeExecutor.schedule(this::flush, delayMillis, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				flush(); // 已关闭，直接写入
+			}
+		}
+	}
+
+	/**
+	 * 立即写入当前状态（没有未保存的修改时不写）
+	 *
+	 * @return 文件是否与当前状态一致
+	 */
+	public boolean flush() {
+		// 先清除标记再读取状态：之后的修改会重新安排写入，不会丢失
+		writeScheduled.set(false);
+		synchronized (writeLock) {
+			T current = currentState.get();
+			if (current == persisted) {
+				return true;
+			}
+			try {
+				writeAtomically(serializer.serialize(current));
+				persisted = current;
+				logger.debug("Saved {}", file);
+				return true;
+			} catch (IOException e) {
+				// 保留为未保存状态，下一次修改或关闭时重试
+				logger.error("Error saving {}: {}", file, e.getMessage(), e);
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * 停止写入线程并写入尚未保存的修改，之后的修改同步写入
+	 */
+	public void close() {
+		writeExecutor.shutdownNow();
+		flush();
+	}
+
+	/**
+	 * 先写入同目录下的临时文件并fsync，再原子地替换目标文件
+	 */
+	public void writeAtomically(byte[] content) throws IOException {
+		Path directory = file.toAbsolutePath().getParent();
+		Files.createDirectories(directory);
+		Path tempFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer buffer = ByteBuffer.wrap(content);
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(true);
+			}
+			try {
+				Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+		syncDirectory(directory);
+	}
+
+	// 持久化重命名本身；部分平台（如Windows）不支持打开目录，忽略即可
+	private static void syncDirectory(Path directory) {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (IOException e) {
+			logger.debug("Could not fsync directory {}: {}", directory, e.getMessage());
+		}
+	}
+}
@@ -1,11 +1,25 @@
 package puji.p2p_notes_sync;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.nio.file.Path;
 
 @SpringBootTest
 class P2pNotesSyncApplicationTests {
 
+	// 节点ID、配置等运行时文件写到临时目录，不写入仓库根目录下的data/
+	@TempDir
+	static Path dataDir;
+
+	@DynamicPropertySource
+	static void dataDir(DynamicPropertyRegistry registry) {
+		registry.add("p2p.data-dir", () -> dataDir.toString());
+	}
+
 	@Test
 	void contextLoads() {
 	}
@@ -0,0 +1,67 @@
+package puji.p2p_notes_sync.controller;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+import puji.p2p_notes_sync.p2p.P2PCoordinatorService;
+import puji.p2p_notes_sync.p2p.PeerSyncOutcome;
+import puji.p2p_notes_sync.p2p.PeerSyncReport;
+import puji.p2p_notes_sync.service.ConfigService;
+import puji.p2p_notes_sync.service.GitService;
+import puji.p2p_notes_sync.service.MkDocsService;
+import puji.p2p_notes_sync.service.RepositoryMaintenanceService;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RepositoryControllerTests {
+
+	private static final String URL = "https://example.com/notes.git";
+
+	private final ConfigService configService = mock(ConfigService.class);
+	private final P2PCoordinatorService p2pCoordinatorService = mock(P2PCoordinatorService.class);
+	private final RepositoryController controller = new RepositoryController(configService, mock(GitService.class),
+			mock(MkDocsService.class), p2pCoordinatorService, mock(RepositoryMaintenanceService.class));
+
+	RepositoryControllerTests() {
+		when(configService.getRepositoryConfigByAlias("notes"))
+				.thenReturn(Optional.of(new RepositoryConfig("notes", URL, "local/notes", null)));
+	}
+
+	@Test
+	void skippedRepliesDoNotSatisfyTheAckGate() {
+		// 截止时间前只收到两个没有该仓库的节点的应答
+		when(p2pCoordinatorService.requestSyncWithAcks(eq(URL), any(Duration.class)))
+				.thenReturn(Flux.just(outcome("node-a", "SKIPPED"), outcome("node-b", "SKIPPED")));
+
+		ResponseEntity<PeerSyncReport> response = controller.syncPeers("notes", 2, 5).block(Duration.ofSeconds(5));
+		assertEquals(HttpStatus.GATEWAY_TIMEOUT, response.getStatusCode());
+		assertEquals(0, response.getBody().successfulAcks());
+		assertEquals(2, response.getBody().skippedReplies());
+	}
+
+	@Test
+	void onlyPeersThatSyncedCountAsAcks() {
+		when(p2pCoordinatorService.requestSyncWithAcks(eq(URL), any(Duration.class)))
+				.thenReturn(Flux.just(outcome("node-a", "SKIPPED"), outcome("node-b", "UP_TO_DATE"),
+						outcome("node-c", "UPDATED"), outcome("node-d", "UPDATED")));
+
+		ResponseEntity<PeerSyncReport> response = controller.syncPeers("notes", 2, 5).block(Duration.ofSeconds(5));
+		assertEquals(HttpStatus.OK, response.getStatusCode());
+		assertEquals(2, response.getBody().successfulAcks());
+		assertEquals(1, response.getBody().skippedReplies());
+		assertEquals(3, response.getBody().outcomes().size(), "stops waiting once enough peers synced");
+	}
+
+	private static PeerSyncOutcome outcome(String nodeId, String status) {
+		return new PeerSyncOutcome(nodeId, status, true, status, 10, 20);
+	}
+}
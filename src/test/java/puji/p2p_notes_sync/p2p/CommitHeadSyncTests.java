@@ -0,0 +1,81 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+import puji.p2p_notes_sync.p2p.dto.CommitHeadAnnouncement;
+import puji.p2p_notes_sync.service.ConfigService;
+import puji.p2p_notes_sync.service.GitOperationResult;
+import puji.p2p_notes_sync.service.GitService;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CommitHeadSyncTests {
+
+	private static final String URL = "https://example.com/notes.git";
+
+	private final RepositoryConfig config = new RepositoryConfig("notes", URL, "local/notes", null);
+	private final ConfigService configService = mock(ConfigService.class);
+	private final GitService gitService = mock(GitService.class);
+	private final CommitHeadSync commitHeadSync = new CommitHeadSync(configService, gitService,
+			new SimpleMeterRegistry());
+
+	CommitHeadSyncTests() {
+		when(configService.getRepositoryConfigsByGitUrl(URL)).thenReturn(List.of(config));
+		when(gitService.pull(any())).thenReturn(new GitOperationResult(GitOperationResult.Status.UPDATED, "pulled"));
+	}
+
+	@Test
+	void onlyTheNewestPendingAnnouncementIsHandled() {
+		// 按仓库通道中的顺序依次运行
+		List<Runnable> lane = new ArrayList<>();
+		lane.add(commitHeadSync.onAnnouncement(announcement("c2", 2)));
+		lane.add(commitHeadSync.onAnnouncement(announcement("c3", 3)));
+		lane.add(commitHeadSync.onAnnouncement(announcement("c1", 1))); // 迟到的旧通告
+		lane.forEach(Runnable::run);
+
+		verify(gitService).containsCommit(config, "main", "c3");
+		verify(gitService, times(1)).containsCommit(eq(config), eq("main"), anyString());
+		verify(gitService, times(1)).pull(config);
+	}
+
+	@Test
+	void pullIsSkippedWhenTheCommitIsAlreadyPresent() {
+		when(gitService.containsCommit(config, "main", "c1")).thenReturn(true);
+		commitHeadSync.onAnnouncement(announcement("c1", 1)).run();
+
+		verify(gitService, never()).pull(any());
+	}
+
+	@Test
+	void theNewestAnnouncementIsHandledAtItsOwnPlaceInTheLane() {
+		when(configService.getRepositoryConfigsByGitUrl(URL)).thenReturn(List.of());
+		Runnable older = commitHeadSync.onAnnouncement(announcement("c1", 1));
+		// 同一对端随后添加了这个仓库，再发来新的通告
+		Runnable newer = commitHeadSync.onAnnouncement(announcement("c2", 2));
+
+		older.run(); // 排在添加仓库之前，不能提前处理新通告
+		verify(configService, never()).getRepositoryConfigsByGitUrl(anyString());
+
+		when(configService.getRepositoryConfigsByGitUrl(URL)).thenReturn(List.of(config));
+		newer.run();
+		verify(gitService).pull(config);
+	}
+
+	private static CommitHeadAnnouncement announcement(String commitId, long timestamp) {
+		CommitHeadAnnouncement announcement = new CommitHeadAnnouncement(URL, "notes", "main", commitId);
+		announcement.setTimestamp(timestamp);
+		return announcement;
+	}
+}
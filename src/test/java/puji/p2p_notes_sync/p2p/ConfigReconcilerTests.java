@@ -0,0 +1,183 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+import puji.p2p_notes_sync.p2p.dto.ConfigEntries;
+import puji.p2p_notes_sync.service.ConfigService;
+import puji.p2p_notes_sync.service.RepositoryConfigChangedEvent;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ConfigReconcilerTests {
+
+	@TempDir
+	Path tempDir;
+
+	private final AtomicLong clock = new AtomicLong(1_000_000);
+	// 每个节点的本地配置（按小写别名）
+	private final Map<ConfigReconciler, Map<String, RepositoryConfig>> localConfigs = new HashMap<>();
+
+	@Test
+	void onlyDifferingEntriesAreTransferred() {
+		List<RepositoryConfig> shared = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			shared.add(config("notes-" + i, "https://example.com/notes-" + i + ".git"));
+		}
+		ConfigReconciler a = reconciler("a", shared);
+		ConfigReconciler b = reconciler("b", shared);
+		assertNull(a.onDigest(b.digest()), "identical config sets need no exchange");
+
+		// b在a离线期间添加了一个仓库并修改了另一个仓库的URL
+		added(b, config("new", "https://example.com/new.git"));
+		updated(b, shared.get(7), config("notes-7", "https://example.com/moved.git"));
+
+		ConfigEntries reply = a.onDigest(b.digest());
+		assertTrue(reply.getEntries().isEmpty());
+		assertEquals(Set.of("notes-7", "new"), Set.copyOf(reply.getWanted()));
+
+		List<ConfigEntries.Entry> requested = b.entriesFor(reply.getWanted());
+		assertEquals(2, requested.size());
+		assertEquals(2, apply(a, a.accept(requested)));
+		assertNull(a.onDigest(b.digest()));
+		assertNull(b.onDigest(a.digest()));
+	}
+
+	@Test
+	void removalPropagatesAndIsNotUndoneByAPeerThatStillHasTheRepository() {
+		RepositoryConfig notes = config("Notes", "https://example.com/notes.git");
+		ConfigReconciler a = reconciler("a", List.of(notes));
+		ConfigReconciler b = reconciler("b", List.of(notes));
+
+		removed(b, notes);
+
+		// a的摘要到达b：b的tombstone较新，发给a而不是请求a的条目
+		ConfigEntries reply = b.onDigest(a.digest());
+		assertTrue(reply.getWanted().isEmpty());
+		List<ConfigEntries.Entry> toApply = a.accept(reply.getEntries());
+		assertEquals(1, toApply.size());
+		assertTrue(toApply.get(0).removed());
+
+		// a应用删除后记录b的版本，两端一致
+		assertEquals(1, apply(a, toApply));
+		assertNull(a.onDigest(b.digest()));
+		// 同一个条目再次到达时不会重复应用
+		assertTrue(a.accept(reply.getEntries()).isEmpty());
+	}
+
+	@Test
+	void entryIsNotRecordedWhenApplyingItFails() {
+		ConfigReconciler a = reconciler("a", List.of());
+		ConfigReconciler b = reconciler("b", List.of());
+		added(b, config("Notes", "https://example.com/notes.git"));
+
+		ConfigEntries reply = a.onDigest(b.digest());
+		List<ConfigEntries.Entry> toApply = a.accept(b.entriesFor(reply.getWanted()));
+		assertEquals(1, toApply.size());
+		String before = a.rootHash();
+
+		// 例如本地已有同名路径，添加失败，配置没有变化
+		assertFalse(a.recordApplied(toApply.get(0)));
+		assertEquals(before, a.rootHash());
+		assertEquals(List.of("notes"), a.onDigest(b.digest()).getWanted(), "the next round retries the entry");
+
+		assertEquals(1, apply(a, a.accept(b.entriesFor(List.of("notes")))));
+		assertNull(a.onDigest(b.digest()));
+	}
+
+	@Test
+	void versionsAndTombstonesSurviveARestartAndAreWrittenAtomically() throws Exception {
+		RepositoryConfig notes = config("Notes", "https://example.com/notes.git");
+		ConfigReconciler a = reconciler("a", List.of(notes));
+		removed(a, notes);
+		String digest = a.rootHash();
+		// 写入延迟足够长，关闭之前没有写盘
+		assertFalse(Files.exists(tempDir.resolve("a.json")));
+
+		a.shutdown();
+		assertEquals(digest, reconciler("a", List.of()).rootHash(), "the tombstone is reloaded");
+		try (var files = Files.list(tempDir)) {
+			assertEquals(List.of(tempDir.resolve("a.json")), files.toList(), "no temp files are left behind");
+		}
+	}
+
+	private ConfigReconciler reconciler(String name, List<RepositoryConfig> configs) {
+		Map<String, RepositoryConfig> local = new HashMap<>();
+		configs.forEach(config -> local.put(ConfigReconciler.keyOf(config.alias()), config));
+		ConfigService configService = mock(ConfigService.class);
+		when(configService.getAllRepositoryConfigs()).thenReturn(new ArrayList<>(configs));
+		when(configService.getRepositoryConfigByAlias(anyString())).thenAnswer(
+				invocation -> Optional.ofNullable(local.get(ConfigReconciler.keyOf(invocation.getArgument(0)))));
+		ConfigReconciler reconciler = new ConfigReconciler(configService, new SimpleMeterRegistry(),
+				Duration.ofDays(30), Duration.ofHours(1), tempDir.resolve(name + ".json"), () -> clock.incrementAndGet());
+		reconciler.init();
+		localConfigs.put(reconciler, local);
+		return reconciler;
+	}
+
+	/**
+	 * 像P2P处理器一样应用条目：修改本地配置并发布事件，然后记录版本
+	 *
+	 * @return 记录的条目数
+	 */
+	private int apply(ConfigReconciler reconciler, List<ConfigEntries.Entry> toApply) {
+		Map<String, RepositoryConfig> local = localConfigs.get(reconciler);
+		int recorded = 0;
+		for (ConfigEntries.Entry entry : toApply) {
+			RepositoryConfig previous = local.get(ConfigReconciler.keyOf(entry.alias()));
+			if (entry.removed()) {
+				local.remove(ConfigReconciler.keyOf(entry.alias()));
+				removed(reconciler, previous);
+			} else {
+				RepositoryConfig current = config(entry.alias(), entry.gitUrl());
+				local.put(ConfigReconciler.keyOf(entry.alias()), current);
+				if (previous == null) {
+					added(reconciler, current);
+				} else {
+					updated(reconciler, previous, current);
+				}
+			}
+			if (reconciler.recordApplied(entry)) {
+				recorded++;
+			}
+		}
+		return recorded;
+	}
+
+	private static RepositoryConfig config(String alias, String gitUrl) {
+		return new RepositoryConfig(alias, gitUrl, "local/" + alias, null);
+	}
+
+	private static void added(ConfigReconciler reconciler, RepositoryConfig config) {
+		reconciler.onRepositoryConfigChanged(
+				new RepositoryConfigChangedEvent(RepositoryConfigChangedEvent.ChangeType.ADDED, null, config));
+	}
+
+	private static void updated(ConfigReconciler reconciler, RepositoryConfig previous, RepositoryConfig current) {
+		reconciler.onRepositoryConfigChanged(
+				new RepositoryConfigChangedEvent(RepositoryConfigChangedEvent.ChangeType.UPDATED, previous, current));
+	}
+
+	private static void removed(ConfigReconciler reconciler, RepositoryConfig config) {
+		reconciler.onRepositoryConfigChanged(
+				new RepositoryConfigChangedEvent(RepositoryConfigChangedEvent.ChangeType.REMOVED, config, null));
+	}
+}
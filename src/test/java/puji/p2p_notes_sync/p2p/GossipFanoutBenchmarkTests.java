@@ -0,0 +1,155 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import puji.p2p_notes_sync.p2p.dto.RepoSyncP2PRequest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 用内存中的模拟网络比较gossip模式与全连接广播：每个节点使用真实的 {@link GossipRouter} 和 {@link MessageDeduplicator}，
+ * 链路延迟为1~5ms的随机值，统计覆盖率、每次广播的帧数、连接数和投递延迟。
+ */
+class GossipFanoutBenchmarkTests {
+
+	private static final Logger logger = LoggerFactory.getLogger(GossipFanoutBenchmarkTests.class);
+
+	private static final int ACTIVE_VIEW_SIZE = 5;
+	private static final int FANOUT = 5;
+	private static final int TTL = 8;
+	private static final int BROADCASTS_PER_SIZE = 30;
+
+	@Test
+	void gossipReachesAllNodesWithBoundedConnections() {
+		logger.info(String.format("%6s | %9s | %12s %12s | %12s %12s | %10s %10s | %8s",
+				"nodes", "coverage", "mesh frames", "gossip frms", "mesh conns", "gossip conns", "p50 ms", "p99 ms",
+				"max hops"));
+		for (int nodes : new int[] { 10, 25, 50, 100, 200 }) {
+			Result result = simulate(nodes, new Random(nodes));
+			long meshConnections = (long) nodes * (nodes - 1); // 每对节点互相发现、各自主动连接一次
+			long meshFrames = 2L * (nodes - 1); // 广播发给所有server和client会话
+			logger.info(String.format("%6d | %8.2f%% | %12d %12.1f | %12d %12d | %10.1f %10.1f | %8d",
+					nodes, result.coverage() * 100, meshFrames, result.framesPerBroadcast(), meshConnections,
+					result.connections(), result.p50LatencyMillis(), result.p99LatencyMillis(), result.maxHops()));
+
+			// 纯push gossip在大规模时会漏掉极少数节点，由同步请求和后续的同步补齐
+			assertTrue(result.coverage() >= (nodes <= 50 ? 1.0 : 0.995),
+					"gossip should reach (almost) every node, got " + result.coverage());
+			assertTrue(result.connections() <= (long) nodes * ACTIVE_VIEW_SIZE,
+					"connections should grow linearly with the node count");
+			assertTrue(result.maxHops() <= TTL);
+		}
+	}
+
+	private static Result simulate(int nodeCount, Random random) {
+		List<Set<Integer>> neighbours = buildOverlay(nodeCount, random);
+		long connections = neighbours.stream().mapToLong(Set::size).sum() / 2;
+
+		long delivered = 0;
+		long frames = 0;
+		int maxHops = 0;
+		List<Double> latencies = new ArrayList<>();
+		for (int b = 0; b < BROADCASTS_PER_SIZE; b++) {
+			GossipRouter[] routers = new GossipRouter[nodeCount];
+			MessageDeduplicator[] deduplicators = new MessageDeduplicator[nodeCount];
+			for (int i = 0; i < nodeCount; i++) {
+				routers[i] = new GossipRouter(true, ACTIVE_VIEW_SIZE, FANOUT, TTL, new Random(random.nextLong()));
+				deduplicators[i] = new MessageDeduplicator(new SimpleMeterRegistry(), Duration.ofMinutes(10), 10_000);
+			}
+			int origin = random.nextInt(nodeCount);
+			RepoSyncP2PRequest message = new RepoSyncP2PRequest("notes");
+			message.setMessageId(UUID.randomUUID().toString());
+			deduplicators[origin].markSent(message);
+			routers[origin].stampOrigin(message);
+
+			PriorityQueue<Frame> inFlight = new PriorityQueue<>();
+			for (int neighbour : neighbours.get(origin)) {
+				inFlight.add(new Frame(linkDelay(random), origin, neighbour, message.getTtl(), 1));
+			}
+			delivered++; // 发起节点自身
+			while (!inFlight.isEmpty()) {
+				Frame frame = inFlight.poll();
+				frames++;
+				RepoSyncP2PRequest copy = new RepoSyncP2PRequest("notes");
+				copy.setMessageId(message.getMessageId());
+				copy.setTtl(frame.ttl());
+				if (!deduplicators[frame.to()].shouldProcess(copy)) {
+					continue;
+				}
+				delivered++;
+				latencies.add(frame.time());
+				maxHops = Math.max(maxHops, frame.hops());
+				if (routers[frame.to()].prepareForward(copy)) {
+					for (int target : routers[frame.to()].selectForwardTargets(neighbours.get(frame.to()), frame.from())) {
+						inFlight.add(new Frame(frame.time() + linkDelay(random), frame.to(), target, copy.getTtl(),
+								frame.hops() + 1));
+					}
+				}
+			}
+		}
+		double[] sorted = latencies.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+		return new Result((double) delivered / ((long) nodeCount * BROADCASTS_PER_SIZE),
+				(double) frames / BROADCASTS_PER_SIZE, connections, percentile(sorted, 0.50),
+				percentile(sorted, 0.99), maxHops);
+	}
+
+	/**
+	 * 每个节点随机主动连接 ACTIVE_VIEW_SIZE 个其他节点，连接是双向的
+	 */
+	private static List<Set<Integer>> buildOverlay(int nodeCount, Random random) {
+		List<Set<Integer>> neighbours = new ArrayList<>();
+		for (int i = 0; i < nodeCount; i++) {
+			neighbours.add(new LinkedHashSet<>());
+		}
+		for (int i = 0; i < nodeCount; i++) {
+			// 与MDNSService.refillActiveView相同：从尚未连接的节点中随机选择
+			List<Integer> passive = new ArrayList<>();
+			for (int peer = 0; peer < nodeCount; peer++) {
+				if (peer != i && !neighbours.get(i).contains(peer)) {
+					passive.add(peer);
+				}
+			}
+			Collections.shuffle(passive, random);
+			for (int peer : passive.subList(0, Math.min(ACTIVE_VIEW_SIZE, passive.size()))) {
+				neighbours.get(i).add(peer);
+				neighbours.get(peer).add(i);
+			}
+		}
+		return neighbours;
+	}
+
+	private static double linkDelay(Random random) {
+		return 1 + random.nextDouble() * 4;
+	}
+
+	private static double percentile(double[] sorted, double p) {
+		if (sorted.length == 0) {
+			return 0;
+		}
+		return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+	}
+
+	private record Frame(double time, int from, int to, int ttl, int hops) implements Comparable<Frame> {
+
+		@Override
+		public int compareTo(Frame other) {
+			return Double.compare(time, other.time);
+		}
+	}
+
+	private record Result(double coverage, double framesPerBroadcast, long connections, double p50LatencyMillis,
+			double p99LatencyMillis, int maxHops) {
+	}
+}
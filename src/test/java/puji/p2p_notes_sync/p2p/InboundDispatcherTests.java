@@ -0,0 +1,97 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class InboundDispatcherTests {
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final List<Runnable> tasks = new ArrayList<>();
+	private final List<String> handled = new ArrayList<>();
+
+	@Test
+	void messagesOfOneLaneRunInOrderAndLanesRunInParallelUpToTheLimit() {
+		InboundDispatcher dispatcher = new InboundDispatcher(meterRegistry, 2, 100, 100, Duration.ofSeconds(30),
+				tasks::add);
+		submit(dispatcher, "peer-a", "repo:a", "a1");
+		submit(dispatcher, "peer-a", "repo:a", "a2");
+		submit(dispatcher, "peer-a", "repo:b", "b1");
+		submit(dispatcher, "peer-b", "config", "c1");
+
+		// a1和b1并行，a2等待a1，c1等待空闲的处理槽；a1完成后先轮到更早就绪的c1
+		assertEquals(2, tasks.size());
+		runNext();
+		runNext();
+		runNext();
+		runNext();
+		assertEquals(List.of("a1", "b1", "c1", "a2"), handled);
+		assertEquals(0, dispatcher.queueDepth());
+	}
+
+	@Test
+	void aMessageOnSeveralLanesKeepsOrderWithEachOfThem() {
+		InboundDispatcher dispatcher = new InboundDispatcher(meterRegistry, 4, 100, 100, Duration.ofSeconds(30),
+				tasks::add);
+		submit(dispatcher, "peer-b", List.of("config"), "digest");
+		// 添加仓库的配置通知同时占用配置通道和仓库通道，之后的同步请求不会越过它
+		submit(dispatcher, "peer-a", List.of("config", "repo:x"), "add-x");
+		submit(dispatcher, "peer-a", List.of("repo:x"), "sync-x");
+		submit(dispatcher, "peer-a", List.of("repo:y"), "sync-y");
+
+		assertEquals(2, tasks.size(), "add-x waits for digest, sync-x waits for add-x");
+		runNext();
+		runNext();
+		assertEquals(1, tasks.size());
+		runNext();
+		runNext();
+		assertEquals(List.of("digest", "sync-y", "add-x", "sync-x"), handled);
+		assertEquals(0, dispatcher.queueDepth());
+	}
+
+	@Test
+	void aFullPeerWaitsForRoomAndIsRejectedAfterTheTimeout() {
+		InboundDispatcher dispatcher = new InboundDispatcher(meterRegistry, 1, 100, 1, Duration.ofMillis(200),
+				tasks::add);
+		submit(dispatcher, "peer-a", "repo:a", "a1");
+
+		// peer-a已达到上限：提交延迟到a1处理完成，其他对端不受影响
+		Disposable waiting = dispatcher.submit("peer-a", "repo:a", () -> handled.add("a2")).subscribe();
+		submit(dispatcher, "peer-b", "repo:b", "b1");
+		assertEquals(1, dispatcher.waitingCount());
+		runNext();
+		assertEquals(0, dispatcher.waitingCount());
+		runNext();
+		runNext();
+		assertEquals(List.of("a1", "b1", "a2"), handled);
+		waiting.dispose();
+
+		submit(dispatcher, "peer-a", "repo:a", "a3");
+		StepVerifier.create(dispatcher.submit("peer-a", "repo:a", () -> handled.add("a4")))
+				.expectSubscription()
+				.verifyComplete();
+		assertEquals(1.0, meterRegistry.counter("p2p.inbound.rejected").count());
+		assertEquals(0, dispatcher.waitingCount());
+		runNext();
+		assertEquals(List.of("a1", "b1", "a2", "a3"), handled);
+	}
+
+	private void submit(InboundDispatcher dispatcher, String peer, String lane, String name) {
+		StepVerifier.create(dispatcher.submit(peer, lane, () -> handled.add(name))).verifyComplete();
+	}
+
+	private void submit(InboundDispatcher dispatcher, String peer, List<String> lanes, String name) {
+		StepVerifier.create(dispatcher.submit(peer, lanes, () -> handled.add(name))).verifyComplete();
+	}
+
+	private void runNext() {
+		tasks.remove(0).run();
+	}
+}
@@ -0,0 +1,48 @@
+package puji.p2p_notes_sync.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import javax.jmdns.JmDNS;
+import javax.jmdns.JmmDNS;
+import javax.jmdns.ServiceInfo;
+import javax.jmdns.impl.JmmDNSImpl;
+import javax.jmdns.impl.ServiceInfoImpl;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.AdditionalMatchers.aryEq;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.withSettings;
+
+class MDNSResponderTests {
+
+	private final ServiceInfo info = ServiceInfo.create("_p2pnotesync._tcp.local.", "node", 8080, 0, 0,
+			Map.of("cfg", "old"));
+
+	@Test
+	void textUpdateReachesTheCopiesRegisteredOnEveryInterface() throws Exception {
+		JmmDNS jmmdns = mock(JmmDNS.class, withSettings().extraInterfaces(ServiceInfoImpl.Delegate.class));
+		MDNSService.Responder.of(jmmdns).updateText(info, Map.of("cfg", "new"));
+
+		assertEquals("new", info.getPropertyString("cfg"));
+		verify((ServiceInfoImpl.Delegate) jmmdns).textValueUpdated(same(info), aryEq(info.getTextBytes()));
+		verify(jmmdns, never()).unregisterService(any());
+		// 升级jmdns后如果不再如此，会退回到重新注册服务
+		assertTrue(ServiceInfoImpl.Delegate.class.isAssignableFrom(JmmDNSImpl.class));
+	}
+
+	@Test
+	void textUpdateOnASingleInterfaceChangesTheRegisteredInstance() throws Exception {
+		JmDNS jmdns = mock(JmDNS.class);
+		MDNSService.Responder.of(jmdns).updateText(info, Map.of("cfg", "new"));
+
+		assertEquals("new", info.getPropertyString("cfg"));
+		verify(jmdns, never()).registerService(any());
+	}
+}
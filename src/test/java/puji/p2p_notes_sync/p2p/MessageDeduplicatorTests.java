@@ -0,0 +1,64 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import puji.p2p_notes_sync.p2p.dto.RepoSyncP2PRequest;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MessageDeduplicatorTests {
+
+	private final AtomicLong now = new AtomicLong(1_000_000);
+	private final MessageDeduplicator deduplicator = new MessageDeduplicator(new SimpleMeterRegistry(),
+			Duration.ofMinutes(10), 3, now::get);
+
+	@Test
+	void dropsRepeatsAndOwnMessagesWithinTheWindow() {
+		assertTrue(deduplicator.shouldProcess(message("a", now.get())));
+		assertFalse(deduplicator.shouldProcess(message("a", now.get())));
+
+		RepoSyncP2PRequest sent = message("own", now.get());
+		deduplicator.markSent(sent);
+		assertFalse(deduplicator.shouldProcess(sent));
+
+		assertTrue(deduplicator.shouldProcess(new RepoSyncP2PRequest("notes")), "legacy messages have no id");
+		assertTrue(deduplicator.shouldProcess(new RepoSyncP2PRequest("notes")));
+	}
+
+	@Test
+	void forgetsIdsAfterTheWindow() {
+		assertTrue(deduplicator.shouldProcess(message("a", now.get())));
+
+		now.addAndGet(Duration.ofMinutes(11).toMillis());
+		assertTrue(deduplicator.shouldProcess(message("b", now.get())));
+		assertEquals(1, deduplicator.size());
+	}
+
+	@Test
+	void acceptsMessagesFromAPeerWhoseClockIsBehind() {
+		long hourBehind = now.get() - Duration.ofHours(1).toMillis();
+		assertTrue(deduplicator.shouldProcess(message("a", hourBehind)));
+		assertFalse(deduplicator.shouldProcess(message("a", hourBehind)), "repeats are still dropped");
+	}
+
+	@Test
+	void boundsTheNumberOfRememberedIds() {
+		for (String id : new String[] { "a", "b", "c", "d" }) {
+			assertTrue(deduplicator.shouldProcess(message(id, now.get())));
+		}
+		assertEquals(3, deduplicator.size());
+		assertTrue(deduplicator.shouldProcess(message("a", now.get())), "evicted as the eldest entry");
+	}
+
+	private static RepoSyncP2PRequest message(String id, long timestamp) {
+		RepoSyncP2PRequest message = new RepoSyncP2PRequest("notes");
+		message.setMessageId(id);
+		message.setTimestamp(timestamp);
+		return message;
+	}
+}
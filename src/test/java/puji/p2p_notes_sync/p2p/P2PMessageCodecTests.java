@@ -0,0 +1,57 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import puji.p2p_notes_sync.p2p.dto.P2PMessage;
+import puji.p2p_notes_sync.p2p.dto.RepoConfigP2PNotification;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class P2PMessageCodecTests {
+
+	private final P2PMessageCodec codec = new P2PMessageCodec(Jackson2ObjectMapperBuilder.json().build(),
+			new SimpleMeterRegistry(), List.of("cbor", "json"));
+
+	@Test
+	void roundTripsBothEncodingsByFrameType() throws Exception {
+		RepoConfigP2PNotification notification = new RepoConfigP2PNotification(
+				RepoConfigP2PNotification.Action.UPDATE, "old-notes", "work-notes", "https://example.com/notes.git");
+
+		byte[] json = bytes(codec.encode(notification, WireEncoding.JSON));
+		byte[] cbor = bytes(codec.encode(notification, WireEncoding.CBOR));
+
+		P2PMessage fromText = codec.decode(frame(WebSocketMessage.Type.TEXT, json));
+		P2PMessage fromBinary = codec.decode(frame(WebSocketMessage.Type.BINARY, cbor));
+		assertEquals(notification.toString(), assertInstanceOf(RepoConfigP2PNotification.class, fromText).toString());
+		assertEquals(notification.toString(), assertInstanceOf(RepoConfigP2PNotification.class, fromBinary).toString());
+		assertTrue(cbor.length < json.length, "CBOR frame should be smaller than JSON");
+	}
+
+	@Test
+	void fallsBackToJsonForPeersWithoutCbor() {
+		assertEquals(WireEncoding.CBOR, codec.negotiate(List.of("json", "cbor")));
+		assertEquals(WireEncoding.JSON, codec.negotiate(List.of("json")));
+		assertEquals(WireEncoding.JSON, codec.negotiate(null)); // 旧节点不发送HELLO
+	}
+
+	private static byte[] bytes(ByteBuf buffer) {
+		try {
+			return ByteBufUtil.getBytes(buffer);
+		} finally {
+			buffer.release();
+		}
+	}
+
+	private static WebSocketMessage frame(WebSocketMessage.Type type, byte[] payload) {
+		return new WebSocketMessage(type, DefaultDataBufferFactory.sharedInstance.wrap(payload));
+	}
+}
@@ -0,0 +1,46 @@
+package puji.p2p_notes_sync.p2p;
+
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PeerAddressSelectorTests {
+
+	private final PeerAddressSelector selector = new PeerAddressSelector(Duration.ofSeconds(2));
+
+	@Test
+	void theFirstReachableCandidateIsSelected() throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+			int port = server.getLocalPort();
+			// 127.0.0.2上没有监听（类似不可达的docker网桥地址）
+			List<InetAddress> candidates = List.of(InetAddress.getByName("127.0.0.2"),
+					InetAddress.getByName("127.0.0.1"));
+
+			StepVerifier.create(selector.select(candidates, port))
+					.expectNext("127.0.0.1:" + port)
+					.verifyComplete();
+		}
+	}
+
+	@Test
+	void nothingIsSelectedWhenNoCandidateIsReachable() throws Exception {
+		int port;
+		try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"))) {
+			port = server.getLocalPort();
+		}
+		StepVerifier.create(selector.select(
+				List.of(InetAddress.getByName("127.0.0.2"), InetAddress.getByName("127.0.0.1")), port))
+				.verifyComplete();
+	}
+
+	@Test
+	void ipv6AddressesAreBracketed() throws Exception {
+		assertEquals("[0:0:0:0:0:0:0:1]:8080", PeerAddressSelector.peerAddress(InetAddress.getByName("::1"), 8080));
+	}
+}
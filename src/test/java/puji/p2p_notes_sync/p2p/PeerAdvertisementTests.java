@@ -0,0 +1,36 @@
+package puji.p2p_notes_sync.p2p;
+
+import org.junit.jupiter.api.Test;
+
+import javax.jmdns.ServiceInfo;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PeerAdvertisementTests {
+
+	private static final String TYPE = "_p2pnotesync._tcp.local.";
+
+	@Test
+	void propertiesSurviveTheTxtRecord() {
+		PeerAdvertisement advertisement = new PeerAdvertisement("node-a", 4, List.of("cbor", "json"),
+				"0123456789abcdef0123456789abcdef");
+		ServiceInfo info = ServiceInfo.create(TYPE, "P2PNotesSyncNode-a-8080", 8080, 0, 0,
+				advertisement.toProperties());
+
+		assertEquals(advertisement, PeerAdvertisement.from(info));
+	}
+
+	@Test
+	void legacyNodesAdvertiseNothing() {
+		ServiceInfo info = ServiceInfo.create(TYPE, "P2PNotesSyncNode-b-8080", 8080, "P2P Notes Sync Node");
+
+		PeerAdvertisement advertisement = PeerAdvertisement.from(info);
+		assertNull(advertisement.nodeId());
+		assertEquals(0, advertisement.protocolVersion());
+		assertEquals(List.of(), advertisement.encodings());
+		assertNull(advertisement.configDigest());
+	}
+}
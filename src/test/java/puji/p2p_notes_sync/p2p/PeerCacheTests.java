@@ -0,0 +1,58 @@
+package puji.p2p_notes_sync.p2p;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PeerCacheTests {
+
+	@TempDir
+	Path tempDir;
+
+	private final AtomicLong clock = new AtomicLong(1_000_000);
+
+	@Test
+	void knownPeersSurviveARestartMostRecentFirst() {
+		PeerCache cache = cache(10);
+		cache.seen("10.0.0.1:8080", "node-a", 12.5);
+		clock.addAndGet(1000);
+		cache.seen("10.0.0.2:8080", "node-b", null);
+		clock.addAndGet(1000);
+		cache.seen("10.0.0.1:8080", "node-a", null); // 保留之前测得的RTT
+
+		List<PeerCache.KnownPeer> peers = cache(10).warmPeers();
+		assertEquals(List.of("10.0.0.1:8080", "10.0.0.2:8080"),
+				peers.stream().map(PeerCache.KnownPeer::address).toList());
+		assertEquals(12.5, peers.get(0).rttMillis());
+	}
+
+	@Test
+	void staleAndExcessEntriesAreAgedOut() {
+		PeerCache cache = cache(2);
+		cache.seen("10.0.0.1:8080", "node-a", null);
+		clock.addAndGet(Duration.ofDays(6).toMillis());
+		cache.seen("10.0.0.2:8080", "node-b", null);
+		cache.seen("10.0.0.3:8080", "node-c", null);
+		cache.seen("10.0.0.4:8080", "node-d", null);
+		assertEquals(2, cache.warmPeers().size(), "limited to max-entries");
+
+		clock.addAndGet(Duration.ofDays(2).toMillis());
+		cache.seen("10.0.0.5:8080", "node-e", null);
+		clock.addAndGet(Duration.ofDays(6).toMillis());
+		assertEquals(List.of("10.0.0.5:8080"),
+				cache(2).warmPeers().stream().map(PeerCache.KnownPeer::address).toList());
+	}
+
+	private PeerCache cache(int maxEntries) {
+		PeerCache cache = new PeerCache(tempDir.resolve("known_peers.json"), Duration.ofDays(7), maxEntries,
+				clock::get);
+		cache.init();
+		return cache;
+	}
+}
@@ -0,0 +1,107 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.web.reactive.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PeerConnectionManagerTests {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void bothNodesKeepTheConnectionDialledByTheLowerNodeId() throws IOException {
+		PeerConnectionManager low = manager("node-a");
+		PeerConnectionManager high = manager("node-b");
+
+		// a -> b 的连接：在a上是OUTBOUND，在b上是INBOUND；b -> a 的连接反之
+		PeerSession aToBOnA = peer(PeerSession.Direction.OUTBOUND, "node-b");
+		PeerSession bToAOnA = peer(PeerSession.Direction.INBOUND, "node-b");
+		PeerSession aToBOnB = peer(PeerSession.Direction.INBOUND, "node-a");
+		PeerSession bToAOnB = peer(PeerSession.Direction.OUTBOUND, "node-a");
+
+		// 两端看到HELLO的顺序不同，结果仍然一致
+		assertNull(low.register(bToAOnA));
+		assertSame(bToAOnA, low.register(aToBOnA));
+		assertNull(high.register(aToBOnB));
+		assertSame(bToAOnB, high.register(bToAOnB));
+
+		assertEquals(List.of(aToBOnA), low.onePerNode(List.of(aToBOnA, bToAOnA)));
+		assertEquals(List.of(aToBOnB), high.onePerNode(List.of(aToBOnB, bToAOnB)));
+	}
+
+	@Test
+	void connectionToSelfIsRejected() throws IOException {
+		PeerConnectionManager manager = manager("node-a");
+		PeerSession self = peer(PeerSession.Direction.OUTBOUND, "node-a");
+		assertSame(self, manager.register(self));
+		assertTrue(manager.onePerNode(List.of(self)).isEmpty());
+	}
+
+	@Test
+	void addressOfANodeConnectedElsewhereIsParkedUntilThatConnectionEnds() throws IOException {
+		PeerConnectionManager manager = manager("node-b");
+		String address = "10.0.0.1:8080";
+		List<String> dialled = new ArrayList<>();
+		manager.want(address);
+
+		// 本节点到a的连接因去重被关闭，保留a主动建立的连接
+		PeerSession outbound = peer(PeerSession.Direction.OUTBOUND, "node-a", address);
+		PeerSession inbound = peer(PeerSession.Direction.INBOUND, "node-a", "10.0.0.1:53124");
+		assertNull(manager.register(outbound));
+		assertSame(outbound, manager.register(inbound));
+		manager.unregister(outbound);
+		manager.connectionEnded(address, dialled::add);
+		assertEquals(0, manager.pendingReconnects(), "no reconnect is kept for a connected node");
+
+		manager.unregister(inbound);
+		assertEquals(1, manager.pendingReconnects(), "reconnects resume once the kept connection ends");
+		manager.forget(address);
+		assertEquals(0, manager.pendingReconnects());
+		assertTrue(dialled.isEmpty());
+	}
+
+	@Test
+	void backoffGrowsExponentiallyWithJitterUpToTheMaximum() {
+		assertEquals(500, PeerConnectionManager.backoffMillis(0, 1000, 60_000, 0.0));
+		assertEquals(1000, PeerConnectionManager.backoffMillis(0, 1000, 60_000, 1.0));
+		assertEquals(4000, PeerConnectionManager.backoffMillis(3, 1000, 60_000, 0.0));
+		assertEquals(60_000, PeerConnectionManager.backoffMillis(10, 1000, 60_000, 1.0));
+		assertEquals(30_000, PeerConnectionManager.backoffMillis(100, 1000, 60_000, 0.0));
+	}
+
+	private PeerConnectionManager manager(String nodeId) throws IOException {
+		Path nodeIdFile = tempDir.resolve(nodeId);
+		Files.writeString(nodeIdFile, nodeId);
+		return new PeerConnectionManager(new NodeIdentity(nodeIdFile), new SimpleMeterRegistry(),
+				Duration.ofSeconds(1), Duration.ofSeconds(60));
+	}
+
+	private static PeerSession peer(PeerSession.Direction direction, String remoteNodeId) {
+		return peer(direction, remoteNodeId, "127.0.0.1:8080");
+	}
+
+	private static PeerSession peer(PeerSession.Direction direction, String remoteNodeId, String peerAddress) {
+		WebSocketSession session = mock(WebSocketSession.class);
+		when(session.isOpen()).thenReturn(true);
+		PeerSession peer = new PeerSession(session, direction, peerAddress, 4,
+				PeerSession.OverflowPolicy.DROP_OLDEST);
+		peer.setRemoteNodeId(remoteNodeId);
+		return peer;
+	}
+}
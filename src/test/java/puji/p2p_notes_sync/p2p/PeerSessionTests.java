@@ -0,0 +1,147 @@
+package puji.p2p_notes_sync.p2p;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PeerSessionTests {
+
+	@Test
+	void dropOldestKeepsNewestFramesInOrder() {
+		PeerSession peer = peer(PeerSession.OverflowPolicy.DROP_OLDEST);
+		assertEquals(PeerSession.OfferResult.QUEUED, peer.offer(frame(1)));
+		assertEquals(PeerSession.OfferResult.QUEUED, peer.offer(frame(2)));
+		assertEquals(PeerSession.OfferResult.DROPPED_OLDEST, peer.offer(frame(3)));
+		assertEquals(2, peer.queueDepth());
+
+		peer.completeOutbound();
+		assertEquals(List.of(2, 3), drain(peer));
+	}
+
+	@Test
+	void dropNewestRejectsFramesWhenFull() {
+		PeerSession peer = peer(PeerSession.OverflowPolicy.DROP_NEWEST);
+		peer.offer(frame(1));
+		peer.offer(frame(2));
+		assertEquals(PeerSession.OfferResult.DROPPED_NEWEST, peer.offer(frame(3)));
+
+		peer.completeOutbound();
+		assertEquals(List.of(1, 2), drain(peer));
+	}
+
+	@Test
+	void disconnectPolicyClosesOutboundAfterQueuedFrames() {
+		PeerSession peer = peer(PeerSession.OverflowPolicy.DISCONNECT);
+		peer.offer(frame(1));
+		peer.offer(frame(2));
+		assertEquals(PeerSession.OfferResult.OVERFLOW_DISCONNECT, peer.offer(frame(3)));
+		assertEquals(PeerSession.OfferResult.CLOSED, peer.offer(frame(4)));
+
+		assertEquals(List.of(1, 2), drain(peer));
+	}
+
+	@Test
+	void sharedBufferIsReleasedOnceEveryCopyIsSentOrDropped() {
+		ByteBuf shared = Unpooled.buffer().writeByte(7);
+		PeerSession fast = peer(PeerSession.OverflowPolicy.DROP_NEWEST);
+		PeerSession full = peer(PeerSession.OverflowPolicy.DROP_NEWEST);
+		full.offer(frame(1));
+		full.offer(frame(2));
+
+		fast.offer(new PeerSession.OutboundFrame(shared.retainedDuplicate(), WireEncoding.JSON));
+		full.offer(new PeerSession.OutboundFrame(shared.retainedDuplicate(), WireEncoding.JSON)); // 被丢弃
+		shared.release();
+		assertEquals(1, shared.refCnt());
+
+		fast.completeOutbound();
+		fast.outbound().doOnNext(frame -> frame.transfer().release()).blockLast(Duration.ofSeconds(5));
+		assertEquals(0, shared.refCnt());
+	}
+
+	@Test
+	void releasingAFrameTwiceLeavesOtherCopiesOfTheBufferIntact() {
+		ByteBuf shared = Unpooled.buffer().writeByte(7);
+		PeerSession.OutboundFrame dropped = new PeerSession.OutboundFrame(shared.retainedDuplicate(), WireEncoding.JSON);
+		PeerSession.OutboundFrame queued = new PeerSession.OutboundFrame(shared.retainedDuplicate(), WireEncoding.JSON);
+		shared.release();
+
+		dropped.release();
+		dropped.release(); // 例如先被挤出队列，连接关闭时又被sink丢弃
+		assertEquals(1, shared.refCnt(), "the queued frame still owns its reference");
+
+		ByteBuf sent = queued.transfer();
+		queued.release(); // 已交给Netty，不再生效
+		assertEquals(1, sent.refCnt());
+		assertEquals(7, sent.getByte(0));
+		sent.release();
+		assertEquals(0, shared.refCnt());
+	}
+
+	@Test
+	void smoothsRttAndEvictionEndsTheConnection() {
+		PeerSession peer = peer(PeerSession.OverflowPolicy.DROP_OLDEST);
+		assertEquals(-1, peer.smoothedRttNanos());
+		peer.recordRtt(8_000_000);
+		peer.recordRtt(16_000_000);
+		assertEquals(16_000_000, peer.lastRttNanos());
+		assertEquals(9_000_000, peer.smoothedRttNanos());
+
+		peer.offer(frame(1));
+		peer.evict();
+		assertEquals(PeerSession.OfferResult.CLOSED, peer.offer(frame(2)));
+		peer.evicted().block(Duration.ofSeconds(5));
+		assertEquals(List.of(1), drain(peer));
+	}
+
+	@Test
+	void aPeerHeldBackByAFullInboundQueueIsNotEvicted() throws Exception {
+		List<Runnable> tasks = new ArrayList<>();
+		InboundDispatcher dispatcher = new InboundDispatcher(new SimpleMeterRegistry(), 1, 1, 1,
+				Duration.ofSeconds(30), tasks::add);
+		PeerSession peer = peer(PeerSession.OverflowPolicy.DROP_OLDEST);
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(20);
+		peer.pausingInput(dispatcher.submit(peer.peerAddress(), "repo:a", () -> {
+		})).block(Duration.ofSeconds(5));
+
+		// 队列已满：第二条消息等待入队，期间读不到对端的任何帧（包括pong）
+		Disposable waiting = peer.pausingInput(dispatcher.submit(peer.peerAddress(), "repo:a", () -> {
+		})).subscribe();
+		Thread.sleep(50);
+		assertFalse(peer.isUnresponsive(timeoutNanos), "silence caused by our own backpressure");
+
+		tasks.remove(0).run(); // 第一条处理完，第二条入队，恢复读取
+		assertEquals(1, tasks.size());
+		assertFalse(peer.isUnresponsive(timeoutNanos));
+		Thread.sleep(50);
+		assertTrue(peer.isUnresponsive(timeoutNanos), "real silence after reading resumed");
+		waiting.dispose();
+	}
+
+	private static PeerSession peer(PeerSession.OverflowPolicy policy) {
+		return new PeerSession(null, PeerSession.Direction.OUTBOUND, "127.0.0.1:8080", 2, policy);
+	}
+
+	private static PeerSession.OutboundFrame frame(int n) {
+		return new PeerSession.OutboundFrame(Unpooled.wrappedBuffer(new byte[] { (byte) n }), WireEncoding.JSON);
+	}
+
+	private static List<Integer> drain(PeerSession peer) {
+		return peer.outbound().map(frame -> {
+			ByteBuf payload = frame.transfer();
+			int value = payload.getByte(0);
+			payload.release();
+			return value;
+		}).collectList().block(Duration.ofSeconds(5));
+	}
+}
@@ -0,0 +1,38 @@
+package puji.p2p_notes_sync.p2p;
+
+import org.junit.jupiter.api.Test;
+import puji.p2p_notes_sync.p2p.dto.P2PMessage;
+import puji.p2p_notes_sync.p2p.dto.SyncResult;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PendingRepliesTests {
+
+	@Test
+	void repliesAreDeliveredToTheMatchingRequestUntilItTimesOut() {
+		PendingReplies pendingReplies = new PendingReplies();
+		Flux<P2PMessage> replies = pendingReplies.register("req-1").take(Duration.ofMillis(200));
+
+		// 应答可能早于订阅到达
+		assertTrue(pendingReplies.complete(reply("req-1", "node-a")));
+		assertFalse(pendingReplies.complete(reply("req-2", "node-b")), "not a pending request");
+
+		StepVerifier.create(replies)
+				.expectNextMatches(message -> ((SyncResult) message).getNodeId().equals("node-a"))
+				.verifyComplete();
+		assertEquals(0, pendingReplies.size(), "timed out requests are unregistered");
+		assertFalse(pendingReplies.complete(reply("req-1", "node-c")));
+	}
+
+	private static SyncResult reply(String requestId, String nodeId) {
+		SyncResult result = new SyncResult(nodeId, "notes", "UP_TO_DATE", true, "Already up-to-date", 3);
+		result.setInReplyTo(requestId);
+		return result;
+	}
+}
@@ -0,0 +1,97 @@
+package puji.p2p_notes_sync.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConfigServiceTests {
+
+	private static final String URL = "https://example.com/Notes.git";
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void lookupsFollowEveryMutation() {
+		ConfigService service = service();
+		RepositoryConfig work = new RepositoryConfig("Work", URL, "local/work", null);
+		RepositoryConfig mirror = new RepositoryConfig("Mirror", URL, "local/mirror", null);
+		service.addRepositoryConfig(work);
+		service.addRepositoryConfig(mirror);
+
+		assertEquals(work, service.getRepositoryConfigByAlias("work").orElseThrow());
+		assertEquals(List.of(work, mirror), service.getRepositoryConfigsByGitUrl("HTTPS://Example.COM/Notes/"));
+		assertEquals(work, service.getRepositoryConfigByAliasOrGitUrl(URL).orElseThrow());
+
+		RepositoryConfig renamed = new RepositoryConfig("Archive", URL, "local/work", null);
+		service.updateRepositoryConfig("WORK", renamed);
+		assertTrue(service.getRepositoryConfigByAlias("work").isEmpty());
+		assertEquals(List.of(renamed, mirror), service.getRepositoryConfigsByGitUrl(URL));
+
+		service.removeRepositoryConfig("mirror");
+		assertEquals(List.of(renamed), service.getRepositoryConfigsByGitUrl(URL));
+		service.flush();
+		assertEquals(List.of(renamed), service().getAllRepositoryConfigs()); // 重新加载后一致
+	}
+
+	@Test
+	void gitUrlsDifferingOnlyInPathCaseAreDifferentRepositories() {
+		assertEquals("https://example.com/Org/Repo", GitUrls.normalize("HTTPS://Example.com/Org/Repo.git/"));
+		assertEquals("https://example.com/Org/Repo", GitUrls.normalize("https://example.com/Org/Repo"));
+		assertEquals("https://Me@example.com:8443/Org/Repo",
+				GitUrls.normalize("https://Me@EXAMPLE.com:8443/Org/Repo.git"));
+		assertEquals("git@github.com:Org/Repo", GitUrls.normalize("git@GitHub.com:Org/Repo.git"));
+
+		ConfigService service = service();
+		RepositoryConfig upper = new RepositoryConfig("Upper", "https://example.com/Org/Repo.git", "local/u", null);
+		service.addRepositoryConfig(upper);
+		assertEquals(List.of(upper), service.getRepositoryConfigsByGitUrl("https://example.com/Org/Repo"));
+		assertTrue(service.getRepositoryConfigsByGitUrl("https://example.com/org/repo.git").isEmpty());
+	}
+
+	@Test
+	void snapshotsHandedOutAreImmutable() {
+		ConfigService service = service();
+		service.addRepositoryConfig(new RepositoryConfig("Work", URL, "local/work", null));
+		List<RepositoryConfig> before = service.getAllRepositoryConfigs();
+
+		service.addRepositoryConfig(new RepositoryConfig("Other", "https://example.com/other.git", "local/o", null));
+		assertEquals(1, before.size(), "earlier snapshot is unaffected by later writes");
+		assertThrows(UnsupportedOperationException.class, () -> before.add(null));
+	}
+
+	@Test
+	void burstsOfMutationsAreWrittenOnceOnFlush() throws Exception {
+		Path configFile = tempDir.resolve("repository_config.json");
+		ConfigService service = service();
+		String empty = Files.readString(configFile);
+		service.addRepositoryConfig(new RepositoryConfig("Work", URL, "local/work", null));
+		// P2P配置更新 = 删除 + 添加
+		service.removeRepositoryConfig("Work");
+		service.addRepositoryConfig(new RepositoryConfig("Work", URL, "local/work2", null));
+		assertEquals(empty, Files.readString(configFile), "nothing is written before the write delay");
+
+		service.shutdown(); // 关闭时立即写入
+		assertEquals("local/work2", service().getRepositoryConfigByAlias("work").orElseThrow().localPath());
+		try (var files = Files.list(tempDir)) {
+			assertEquals(List.of(configFile), files.toList(), "no temp files are left behind");
+		}
+	}
+
+	private ConfigService service() {
+		// 写入延迟足够长，测试中只有显式flush才会写盘
+		ConfigService service = new ConfigService(event -> {
+		}, tempDir.resolve("repository_config.json"), Duration.ofHours(1));
+		service.init();
+		return service;
+	}
+}
@@ -0,0 +1,62 @@
+package puji.p2p_notes_sync.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DirtyPathTrackerTests {
+
+	private final DirtyPathTracker tracker = new DirtyPathTracker();
+
+	@Test
+	void untrackedRepositoryIsNeverTrusted() {
+		tracker.markDirty("repo-a", "notes.md");
+
+		DirtyPathTracker.Snapshot snapshot = tracker.drain("repo-a");
+		assertFalse(snapshot.trusted());
+		assertTrue(snapshot.paths().isEmpty());
+	}
+
+	@Test
+	void baselineKeepsChangesSeenDuringFullStatus() {
+		tracker.startTracking("repo-b");
+		DirtyPathTracker.Snapshot baseline = tracker.drain("repo-b");
+		assertFalse(baseline.trusted());
+
+		// 完整status进行期间发生的修改
+		tracker.markDirty("repo-b", "daily/today.md");
+		tracker.markBaseline("repo-b", baseline);
+
+		DirtyPathTracker.Snapshot next = tracker.drain("repo-b");
+		assertTrue(next.trusted());
+		assertEquals(Set.of("daily/today.md"), next.paths());
+		assertTrue(tracker.drain("repo-b").paths().isEmpty());
+	}
+
+	@Test
+	void invalidationDuringFullStatusPreventsBaseline() {
+		tracker.startTracking("repo-c");
+		DirtyPathTracker.Snapshot baseline = tracker.drain("repo-c");
+		tracker.invalidate("repo-c");
+		tracker.markBaseline("repo-c", baseline);
+
+		assertFalse(tracker.drain("repo-c").trusted());
+	}
+
+	@Test
+	void failedCommitRestoresDrainedPaths() {
+		tracker.startTracking("repo-d");
+		tracker.markBaseline("repo-d", tracker.drain("repo-d"));
+		tracker.markDirty("repo-d", "a.md");
+
+		DirtyPathTracker.Snapshot snapshot = tracker.drain("repo-d");
+		tracker.markDirty("repo-d", "b.md");
+		tracker.restore("repo-d", snapshot);
+
+		assertEquals(Set.of("a.md", "b.md"), tracker.drain("repo-d").paths());
+	}
+}
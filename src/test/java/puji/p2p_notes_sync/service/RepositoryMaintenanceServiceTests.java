@@ -0,0 +1,81 @@
+package puji.p2p_notes_sync.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.eclipse.jgit.api.Git;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+import puji.p2p_notes_sync.config.RepositoryConfig;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RepositoryMaintenanceServiceTests {
+
+	@TempDir
+	Path tempDir;
+
+	private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+	private final RepositoryOperationQueue operationQueue = new RepositoryOperationQueue(meterRegistry, 2);
+
+	@AfterEach
+	void tearDown() {
+		operationQueue.shutdown();
+	}
+
+	@Test
+	void scheduledCheckReturnsWithoutWaitingForGc() throws Exception {
+		try (Git git = Git.init().setDirectory(tempDir.toFile()).call()) {
+			// 只需要一个空仓库
+		}
+		RepositoryConfig config = new RepositoryConfig("notes", "https://example.com/notes.git",
+				tempDir.toString(), null);
+		ConfigService configService = mock(ConfigService.class);
+		when(configService.getAllRepositoryConfigs()).thenReturn(List.of(config));
+
+		// 第一次获取句柄是检查对象库统计，之后的（gc）一直阻塞到测试放行
+		CountDownLatch gcMayRun = new CountDownLatch(1);
+		AtomicInteger acquires = new AtomicInteger();
+		RepositoryHandleCache handleCache = new RepositoryHandleCache(meterRegistry, 4, Duration.ofMinutes(1)) {
+			@Override
+			public Lease acquire(RepositoryConfig repositoryConfig) throws IOException {
+				if (acquires.incrementAndGet() > 1) {
+					try {
+						gcMayRun.await();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.acquire(repositoryConfig);
+			}
+		};
+		RepositoryMaintenanceService service = new RepositoryMaintenanceService(configService, handleCache,
+				operationQueue, meterRegistry);
+		ReflectionTestUtils.setField(service, "idlePeriod", Duration.ZERO);
+		ReflectionTestUtils.setField(service, "looseObjectThreshold", 0L);
+
+		assertTimeoutPreemptively(Duration.ofSeconds(5), service::runScheduledMaintenance);
+		assertTimeoutPreemptively(Duration.ofSeconds(5), service::runScheduledMaintenance); // gc仍在运行，不会重复提交
+		assertEquals(2, acquires.get());
+
+		gcMayRun.countDown();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (service.getStatus(config).lastRunSuccessful() == null && System.nanoTime() < deadline) {
+			Thread.sleep(20);
+		}
+		assertTrue(service.getStatus(config).lastRunSuccessful());
+		handleCache.closeAll();
+	}
+}
@@ -0,0 +1,113 @@
+package puji.p2p_notes_sync.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RepositoryOperationQueueTests {
+
+	private final RepositoryOperationQueue queue = new RepositoryOperationQueue(new SimpleMeterRegistry(), 4);
+
+	@AfterEach
+	void tearDown() {
+		queue.shutdown();
+	}
+
+	@Test
+	void pendingPullAbsorbsLaterPulls() throws Exception {
+		CountDownLatch blocker = new CountDownLatch(1);
+		AtomicInteger pulls = new AtomicInteger();
+
+		// 先占住队列，使随后的pull处于排队状态
+		CompletableFuture<String> push = queue.submit("repo-a", RepositoryOperationQueue.OperationType.COMMIT_PUSH,
+				() -> {
+					await(blocker);
+					return "pushed";
+				});
+		CompletableFuture<String> first = queue.submit("repo-a", RepositoryOperationQueue.OperationType.PULL,
+				() -> "pull-" + pulls.incrementAndGet());
+		CompletableFuture<String> second = queue.submit("./repo-a", RepositoryOperationQueue.OperationType.PULL,
+				() -> "pull-" + pulls.incrementAndGet());
+		blocker.countDown();
+
+		assertEquals("pushed", push.get(5, TimeUnit.SECONDS));
+		assertSame(first, second);
+		assertEquals("pull-1", second.get(5, TimeUnit.SECONDS));
+		assertEquals(1, pulls.get());
+	}
+
+	@Test
+	void operationsOnSameRepositoryRunInOrder() throws Exception {
+		List<String> order = new CopyOnWriteArrayList<>();
+		CompletableFuture<?> clone = queue.submit("repo-b", RepositoryOperationQueue.OperationType.CLONE, () -> {
+			sleep(50);
+			return order.add("clone");
+		});
+		CompletableFuture<?> pull = queue.submit("repo-b", RepositoryOperationQueue.OperationType.PULL,
+				() -> order.add("pull"));
+		CompletableFuture<?> push = queue.submit("repo-b", RepositoryOperationQueue.OperationType.COMMIT_PUSH,
+				() -> order.add("push"));
+		CompletableFuture.allOf(clone, pull, push).get(5, TimeUnit.SECONDS);
+
+		assertEquals(List.of("clone", "pull", "push"), order);
+	}
+
+	@Test
+	void differentRepositoriesRunInParallel() throws Exception {
+		CountDownLatch bothStarted = new CountDownLatch(2);
+		CompletableFuture<Boolean> a = queue.submit("repo-c", RepositoryOperationQueue.OperationType.PULL, () -> {
+			bothStarted.countDown();
+			return await(bothStarted);
+		});
+		CompletableFuture<Boolean> b = queue.submit("repo-d", RepositoryOperationQueue.OperationType.PULL, () -> {
+			bothStarted.countDown();
+			return await(bothStarted);
+		});
+
+		assertTrue(a.get(5, TimeUnit.SECONDS));
+		assertTrue(b.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void maintenanceDoesNotCountAsActivity() throws Exception {
+		assertTrue(queue.isIdle("repo-e", Duration.ofMinutes(5)));
+
+		queue.submit("repo-e", RepositoryOperationQueue.OperationType.PULL, () -> "pulled").get(5, TimeUnit.SECONDS);
+		assertFalse(queue.isIdle("repo-e", Duration.ofMinutes(5)));
+		assertTrue(queue.isIdle("repo-f", Duration.ofMinutes(5)));
+
+		queue.submit("repo-f", RepositoryOperationQueue.OperationType.MAINTENANCE, () -> "gc").get(5, TimeUnit.SECONDS);
+		sleep(20);
+		assertTrue(queue.isIdle("repo-f", Duration.ofMillis(10)));
+	}
+
+	private static boolean await(CountDownLatch latch) {
+		try {
+			return latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}